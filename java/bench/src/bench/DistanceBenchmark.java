@@ -0,0 +1,86 @@
+package bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * "Stores within 30 miles": a linear scan calling Amazon.calculateDistance
+ * on every store (how viewStores used to work) against the grid lookup of
+ * SpatialIndex, for growing store counts.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DistanceBenchmark {
+
+   private static final double RADIUS = 30;
+   private static final int QUERIES = 1024;
+
+   @Param({ "20", "1000", "100000" })
+   public int stores;
+
+   private double[] lats;
+   private double[] lons;
+   private Object index;
+
+   // query points cycled through so branch patterns do not repeat.
+   private double[] queryLats;
+   private double[] queryLons;
+   private int next;
+
+   @Setup
+   public void setup() throws Throwable {
+      Random random = new Random(166);
+      int[] ids = new int[this.stores];
+      this.lats = new double[this.stores];
+      this.lons = new double[this.stores];
+      for (int i = 0; i < this.stores; ++i) {
+         ids[i] = i + 1;
+         this.lats[i] = random.nextDouble() * 100;
+         this.lons[i] = random.nextDouble() * 100;
+      }
+      this.index = (Object) Targets.BUILD_INDEX.invokeExact(ids, this.lats, this.lons, this.stores);
+
+      this.queryLats = new double[QUERIES];
+      this.queryLons = new double[QUERIES];
+      for (int i = 0; i < QUERIES; ++i) {
+         this.queryLats[i] = random.nextDouble() * 100;
+         this.queryLons[i] = random.nextDouble() * 100;
+      }
+   }
+
+   @Benchmark
+   public int linearScan() throws Throwable {
+      int q = this.next++ & (QUERIES - 1);
+      double lat = this.queryLats[q], lon = this.queryLons[q];
+      int found = 0;
+      for (int i = 0; i < this.stores; ++i) {
+         double d = (double) Targets.CALCULATE_DISTANCE.invokeExact(this.lats[i], this.lons[i], lat, lon);
+         if (d < RADIUS)
+            found++;
+      }
+      return found;
+   }
+
+   @Benchmark
+   public int gridIndex() throws Throwable {
+      int q = this.next++ & (QUERIES - 1);
+      return (int) Targets.WITHIN_RADIUS_COUNT.invokeExact(this.index, this.queryLats[q], this.queryLons[q], RADIUS);
+   }
+
+}//end DistanceBenchmark
@@ -0,0 +1,351 @@
+package bench;
+
+import java.io.InputStream;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.sql.Array;
+import java.sql.Blob;
+import java.sql.Clob;
+import java.sql.Date;
+import java.sql.NClob;
+import java.sql.Ref;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.RowId;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.SQLWarning;
+import java.sql.SQLXML;
+import java.sql.Statement;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.Calendar;
+import java.util.Map;
+
+/**
+ * In-memory, forward-only ResultSet over pre-encoded rows, so the client's
+ * row handling can be benchmarked without a database. Like the PostgreSQL
+ * driver with the text protocol, cells are kept as bytes: getString
+ * decodes a new String per call, getInt and getLong parse the bytes in
+ * place, getDouble and getTimestamp go through a String.
+ *
+ * Only the accessors used by the client are implemented; everything else
+ * throws SQLFeatureNotSupportedException. beforeFirst() rewinds the cursor
+ * so one instance can be reused across benchmark invocations.
+ */
+final class FakeResultSet implements ResultSet {
+
+   private final String[] columns;
+   private final byte[][][] rows;
+   private final Meta meta = new Meta();
+   private int row = -1;
+   private boolean wasNull = false;
+
+   /**
+    * @param columns column names
+    * @param rows cell values, rendered with String.valueOf; null for SQL NULL
+    */
+   FakeResultSet(String[] columns, Object[][] rows) {
+      this.columns = columns;
+      this.rows = new byte[rows.length][][];
+      for (int r = 0; r < rows.length; ++r) {
+         this.rows[r] = new byte[columns.length][];
+         for (int c = 0; c < columns.length; ++c)
+            this.rows[r][c] = rows[r][c] == null ? null : String.valueOf(rows[r][c]).getBytes(StandardCharsets.UTF_8);
+      }
+   }
+
+   private static SQLException unsupported() {
+      return new SQLFeatureNotSupportedException("not supported by FakeResultSet");
+   }
+
+   private byte[] cell(int column) throws SQLException {
+      if (this.row < 0 || this.row >= this.rows.length)
+         throw new SQLException("no current row");
+      byte[] value = this.rows[this.row][column - 1];
+      this.wasNull = value == null;
+      return value;
+   }
+
+   public boolean next() {
+      return ++this.row < this.rows.length;
+   }
+
+   public void beforeFirst() {
+      this.row = -1;
+   }
+
+   public boolean wasNull() {
+      return this.wasNull;
+   }
+
+   public String getString(int column) throws SQLException {
+      byte[] value = cell(column);
+      return value == null ? null : new String(value, StandardCharsets.UTF_8);
+   }
+
+   public long getLong(int column) throws SQLException {
+      byte[] value = cell(column);
+      if (value == null)
+         return 0;
+      boolean negative = value.length > 0 && value[0] == '-';
+      long n = 0;
+      for (int i = negative ? 1 : 0; i < value.length; ++i) {
+         byte b = value[i];
+         // not a plain integer (e.g. padded or fractional): slow path.
+         if (b < '0' || b > '9')
+            return (long) Double.parseDouble(new String(value, StandardCharsets.UTF_8).trim());
+         n = n * 10 + (b - '0');
+      }
+      return negative ? -n : n;
+   }
+
+   public int getInt(int column) throws SQLException {
+      return (int) getLong(column);
+   }
+
+   public double getDouble(int column) throws SQLException {
+      String value = getString(column);
+      return value == null ? 0 : Double.parseDouble(value.trim());
+   }
+
+   public Timestamp getTimestamp(int column) throws SQLException {
+      String value = getString(column);
+      return value == null ? null : Timestamp.valueOf(value.trim());
+   }
+
+   public ResultSetMetaData getMetaData() {
+      return this.meta;
+   }
+
+   public void close() {
+   }
+
+   public boolean isClosed() {
+      return false;
+   }
+
+   private final class Meta implements ResultSetMetaData {
+
+      public int getColumnCount() {
+         return FakeResultSet.this.columns.length;
+      }
+
+      public String getColumnName(int column) {
+         return FakeResultSet.this.columns[column - 1];
+      }
+
+      public String getColumnLabel(int column) {
+         return FakeResultSet.this.columns[column - 1];
+      }
+
+      // the rest of ResultSetMetaData is not used by the client.
+
+      public String getCatalogName(int p0) throws SQLException { throw unsupported(); }
+      public String getColumnClassName(int p0) throws SQLException { throw unsupported(); }
+      public int getColumnDisplaySize(int p0) throws SQLException { throw unsupported(); }
+      public int getColumnType(int p0) throws SQLException { throw unsupported(); }
+      public String getColumnTypeName(int p0) throws SQLException { throw unsupported(); }
+      public int getPrecision(int p0) throws SQLException { throw unsupported(); }
+      public int getScale(int p0) throws SQLException { throw unsupported(); }
+      public String getSchemaName(int p0) throws SQLException { throw unsupported(); }
+      public String getTableName(int p0) throws SQLException { throw unsupported(); }
+      public boolean isAutoIncrement(int p0) throws SQLException { throw unsupported(); }
+      public boolean isCaseSensitive(int p0) throws SQLException { throw unsupported(); }
+      public boolean isCurrency(int p0) throws SQLException { throw unsupported(); }
+      public boolean isDefinitelyWritable(int p0) throws SQLException { throw unsupported(); }
+      public int isNullable(int p0) throws SQLException { throw unsupported(); }
+      public boolean isReadOnly(int p0) throws SQLException { throw unsupported(); }
+      public boolean isSearchable(int p0) throws SQLException { throw unsupported(); }
+      public boolean isSigned(int p0) throws SQLException { throw unsupported(); }
+      public boolean isWrapperFor(Class<?> p0) throws SQLException { throw unsupported(); }
+      public boolean isWritable(int p0) throws SQLException { throw unsupported(); }
+      public <T> T unwrap(Class<T> p0) throws SQLException { throw unsupported(); }
+   }//end Meta
+
+   // the rest of ResultSet is not used by the client.
+
+   public boolean absolute(int p0) throws SQLException { throw unsupported(); }
+   public void afterLast() throws SQLException { throw unsupported(); }
+   public void cancelRowUpdates() throws SQLException { throw unsupported(); }
+   public void clearWarnings() throws SQLException { throw unsupported(); }
+   public void deleteRow() throws SQLException { throw unsupported(); }
+   public int findColumn(String p0) throws SQLException { throw unsupported(); }
+   public boolean first() throws SQLException { throw unsupported(); }
+   public Array getArray(String p0) throws SQLException { throw unsupported(); }
+   public Array getArray(int p0) throws SQLException { throw unsupported(); }
+   public InputStream getAsciiStream(String p0) throws SQLException { throw unsupported(); }
+   public InputStream getAsciiStream(int p0) throws SQLException { throw unsupported(); }
+   public BigDecimal getBigDecimal(String p0, int p1) throws SQLException { throw unsupported(); }
+   public BigDecimal getBigDecimal(String p0) throws SQLException { throw unsupported(); }
+   public BigDecimal getBigDecimal(int p0, int p1) throws SQLException { throw unsupported(); }
+   public BigDecimal getBigDecimal(int p0) throws SQLException { throw unsupported(); }
+   public InputStream getBinaryStream(String p0) throws SQLException { throw unsupported(); }
+   public InputStream getBinaryStream(int p0) throws SQLException { throw unsupported(); }
+   public Blob getBlob(String p0) throws SQLException { throw unsupported(); }
+   public Blob getBlob(int p0) throws SQLException { throw unsupported(); }
+   public boolean getBoolean(String p0) throws SQLException { throw unsupported(); }
+   public boolean getBoolean(int p0) throws SQLException { throw unsupported(); }
+   public byte getByte(String p0) throws SQLException { throw unsupported(); }
+   public byte getByte(int p0) throws SQLException { throw unsupported(); }
+   public byte[] getBytes(String p0) throws SQLException { throw unsupported(); }
+   public byte[] getBytes(int p0) throws SQLException { throw unsupported(); }
+   public Reader getCharacterStream(String p0) throws SQLException { throw unsupported(); }
+   public Reader getCharacterStream(int p0) throws SQLException { throw unsupported(); }
+   public Clob getClob(String p0) throws SQLException { throw unsupported(); }
+   public Clob getClob(int p0) throws SQLException { throw unsupported(); }
+   public int getConcurrency() throws SQLException { throw unsupported(); }
+   public String getCursorName() throws SQLException { throw unsupported(); }
+   public Date getDate(String p0, Calendar p1) throws SQLException { throw unsupported(); }
+   public Date getDate(String p0) throws SQLException { throw unsupported(); }
+   public Date getDate(int p0, Calendar p1) throws SQLException { throw unsupported(); }
+   public Date getDate(int p0) throws SQLException { throw unsupported(); }
+   public double getDouble(String p0) throws SQLException { throw unsupported(); }
+   public int getFetchDirection() throws SQLException { throw unsupported(); }
+   public int getFetchSize() throws SQLException { throw unsupported(); }
+   public float getFloat(String p0) throws SQLException { throw unsupported(); }
+   public float getFloat(int p0) throws SQLException { throw unsupported(); }
+   public int getHoldability() throws SQLException { throw unsupported(); }
+   public int getInt(String p0) throws SQLException { throw unsupported(); }
+   public long getLong(String p0) throws SQLException { throw unsupported(); }
+   public Reader getNCharacterStream(String p0) throws SQLException { throw unsupported(); }
+   public Reader getNCharacterStream(int p0) throws SQLException { throw unsupported(); }
+   public NClob getNClob(String p0) throws SQLException { throw unsupported(); }
+   public NClob getNClob(int p0) throws SQLException { throw unsupported(); }
+   public String getNString(String p0) throws SQLException { throw unsupported(); }
+   public String getNString(int p0) throws SQLException { throw unsupported(); }
+   public <T> T getObject(String p0, Class<T> p1) throws SQLException { throw unsupported(); }
+   public Object getObject(String p0, Map<String, Class<?>> p1) throws SQLException { throw unsupported(); }
+   public Object getObject(String p0) throws SQLException { throw unsupported(); }
+   public <T> T getObject(int p0, Class<T> p1) throws SQLException { throw unsupported(); }
+   public Object getObject(int p0, Map<String, Class<?>> p1) throws SQLException { throw unsupported(); }
+   public Object getObject(int p0) throws SQLException { throw unsupported(); }
+   public Ref getRef(String p0) throws SQLException { throw unsupported(); }
+   public Ref getRef(int p0) throws SQLException { throw unsupported(); }
+   public int getRow() throws SQLException { throw unsupported(); }
+   public RowId getRowId(String p0) throws SQLException { throw unsupported(); }
+   public RowId getRowId(int p0) throws SQLException { throw unsupported(); }
+   public SQLXML getSQLXML(String p0) throws SQLException { throw unsupported(); }
+   public SQLXML getSQLXML(int p0) throws SQLException { throw unsupported(); }
+   public short getShort(String p0) throws SQLException { throw unsupported(); }
+   public short getShort(int p0) throws SQLException { throw unsupported(); }
+   public Statement getStatement() throws SQLException { throw unsupported(); }
+   public String getString(String p0) throws SQLException { throw unsupported(); }
+   public Time getTime(String p0, Calendar p1) throws SQLException { throw unsupported(); }
+   public Time getTime(String p0) throws SQLException { throw unsupported(); }
+   public Time getTime(int p0, Calendar p1) throws SQLException { throw unsupported(); }
+   public Time getTime(int p0) throws SQLException { throw unsupported(); }
+   public Timestamp getTimestamp(String p0, Calendar p1) throws SQLException { throw unsupported(); }
+   public Timestamp getTimestamp(String p0) throws SQLException { throw unsupported(); }
+   public Timestamp getTimestamp(int p0, Calendar p1) throws SQLException { throw unsupported(); }
+   public int getType() throws SQLException { throw unsupported(); }
+   public URL getURL(String p0) throws SQLException { throw unsupported(); }
+   public URL getURL(int p0) throws SQLException { throw unsupported(); }
+   public InputStream getUnicodeStream(String p0) throws SQLException { throw unsupported(); }
+   public InputStream getUnicodeStream(int p0) throws SQLException { throw unsupported(); }
+   public SQLWarning getWarnings() throws SQLException { throw unsupported(); }
+   public void insertRow() throws SQLException { throw unsupported(); }
+   public boolean isAfterLast() throws SQLException { throw unsupported(); }
+   public boolean isBeforeFirst() throws SQLException { throw unsupported(); }
+   public boolean isFirst() throws SQLException { throw unsupported(); }
+   public boolean isLast() throws SQLException { throw unsupported(); }
+   public boolean isWrapperFor(Class<?> p0) throws SQLException { throw unsupported(); }
+   public boolean last() throws SQLException { throw unsupported(); }
+   public void moveToCurrentRow() throws SQLException { throw unsupported(); }
+   public void moveToInsertRow() throws SQLException { throw unsupported(); }
+   public boolean previous() throws SQLException { throw unsupported(); }
+   public void refreshRow() throws SQLException { throw unsupported(); }
+   public boolean relative(int p0) throws SQLException { throw unsupported(); }
+   public boolean rowDeleted() throws SQLException { throw unsupported(); }
+   public boolean rowInserted() throws SQLException { throw unsupported(); }
+   public boolean rowUpdated() throws SQLException { throw unsupported(); }
+   public void setFetchDirection(int p0) throws SQLException { throw unsupported(); }
+   public void setFetchSize(int p0) throws SQLException { throw unsupported(); }
+   public <T> T unwrap(Class<T> p0) throws SQLException { throw unsupported(); }
+   public void updateArray(String p0, Array p1) throws SQLException { throw unsupported(); }
+   public void updateArray(int p0, Array p1) throws SQLException { throw unsupported(); }
+   public void updateAsciiStream(String p0, InputStream p1, int p2) throws SQLException { throw unsupported(); }
+   public void updateAsciiStream(String p0, InputStream p1, long p2) throws SQLException { throw unsupported(); }
+   public void updateAsciiStream(String p0, InputStream p1) throws SQLException { throw unsupported(); }
+   public void updateAsciiStream(int p0, InputStream p1, int p2) throws SQLException { throw unsupported(); }
+   public void updateAsciiStream(int p0, InputStream p1, long p2) throws SQLException { throw unsupported(); }
+   public void updateAsciiStream(int p0, InputStream p1) throws SQLException { throw unsupported(); }
+   public void updateBigDecimal(String p0, BigDecimal p1) throws SQLException { throw unsupported(); }
+   public void updateBigDecimal(int p0, BigDecimal p1) throws SQLException { throw unsupported(); }
+   public void updateBinaryStream(String p0, InputStream p1, int p2) throws SQLException { throw unsupported(); }
+   public void updateBinaryStream(String p0, InputStream p1, long p2) throws SQLException { throw unsupported(); }
+   public void updateBinaryStream(String p0, InputStream p1) throws SQLException { throw unsupported(); }
+   public void updateBinaryStream(int p0, InputStream p1, int p2) throws SQLException { throw unsupported(); }
+   public void updateBinaryStream(int p0, InputStream p1, long p2) throws SQLException { throw unsupported(); }
+   public void updateBinaryStream(int p0, InputStream p1) throws SQLException { throw unsupported(); }
+   public void updateBlob(String p0, InputStream p1, long p2) throws SQLException { throw unsupported(); }
+   public void updateBlob(String p0, InputStream p1) throws SQLException { throw unsupported(); }
+   public void updateBlob(String p0, Blob p1) throws SQLException { throw unsupported(); }
+   public void updateBlob(int p0, InputStream p1, long p2) throws SQLException { throw unsupported(); }
+   public void updateBlob(int p0, InputStream p1) throws SQLException { throw unsupported(); }
+   public void updateBlob(int p0, Blob p1) throws SQLException { throw unsupported(); }
+   public void updateBoolean(String p0, boolean p1) throws SQLException { throw unsupported(); }
+   public void updateBoolean(int p0, boolean p1) throws SQLException { throw unsupported(); }
+   public void updateByte(String p0, byte p1) throws SQLException { throw unsupported(); }
+   public void updateByte(int p0, byte p1) throws SQLException { throw unsupported(); }
+   public void updateBytes(String p0, byte[] p1) throws SQLException { throw unsupported(); }
+   public void updateBytes(int p0, byte[] p1) throws SQLException { throw unsupported(); }
+   public void updateCharacterStream(String p0, Reader p1, int p2) throws SQLException { throw unsupported(); }
+   public void updateCharacterStream(String p0, Reader p1, long p2) throws SQLException { throw unsupported(); }
+   public void updateCharacterStream(String p0, Reader p1) throws SQLException { throw unsupported(); }
+   public void updateCharacterStream(int p0, Reader p1, int p2) throws SQLException { throw unsupported(); }
+   public void updateCharacterStream(int p0, Reader p1, long p2) throws SQLException { throw unsupported(); }
+   public void updateCharacterStream(int p0, Reader p1) throws SQLException { throw unsupported(); }
+   public void updateClob(String p0, Reader p1, long p2) throws SQLException { throw unsupported(); }
+   public void updateClob(String p0, Reader p1) throws SQLException { throw unsupported(); }
+   public void updateClob(String p0, Clob p1) throws SQLException { throw unsupported(); }
+   public void updateClob(int p0, Reader p1, long p2) throws SQLException { throw unsupported(); }
+   public void updateClob(int p0, Reader p1) throws SQLException { throw unsupported(); }
+   public void updateClob(int p0, Clob p1) throws SQLException { throw unsupported(); }
+   public void updateDate(String p0, Date p1) throws SQLException { throw unsupported(); }
+   public void updateDate(int p0, Date p1) throws SQLException { throw unsupported(); }
+   public void updateDouble(String p0, double p1) throws SQLException { throw unsupported(); }
+   public void updateDouble(int p0, double p1) throws SQLException { throw unsupported(); }
+   public void updateFloat(String p0, float p1) throws SQLException { throw unsupported(); }
+   public void updateFloat(int p0, float p1) throws SQLException { throw unsupported(); }
+   public void updateInt(String p0, int p1) throws SQLException { throw unsupported(); }
+   public void updateInt(int p0, int p1) throws SQLException { throw unsupported(); }
+   public void updateLong(String p0, long p1) throws SQLException { throw unsupported(); }
+   public void updateLong(int p0, long p1) throws SQLException { throw unsupported(); }
+   public void updateNCharacterStream(String p0, Reader p1, long p2) throws SQLException { throw unsupported(); }
+   public void updateNCharacterStream(String p0, Reader p1) throws SQLException { throw unsupported(); }
+   public void updateNCharacterStream(int p0, Reader p1, long p2) throws SQLException { throw unsupported(); }
+   public void updateNCharacterStream(int p0, Reader p1) throws SQLException { throw unsupported(); }
+   public void updateNClob(String p0, Reader p1, long p2) throws SQLException { throw unsupported(); }
+   public void updateNClob(String p0, Reader p1) throws SQLException { throw unsupported(); }
+   public void updateNClob(String p0, NClob p1) throws SQLException { throw unsupported(); }
+   public void updateNClob(int p0, Reader p1, long p2) throws SQLException { throw unsupported(); }
+   public void updateNClob(int p0, Reader p1) throws SQLException { throw unsupported(); }
+   public void updateNClob(int p0, NClob p1) throws SQLException { throw unsupported(); }
+   public void updateNString(String p0, String p1) throws SQLException { throw unsupported(); }
+   public void updateNString(int p0, String p1) throws SQLException { throw unsupported(); }
+   public void updateNull(String p0) throws SQLException { throw unsupported(); }
+   public void updateNull(int p0) throws SQLException { throw unsupported(); }
+   public void updateObject(String p0, Object p1, int p2) throws SQLException { throw unsupported(); }
+   public void updateObject(String p0, Object p1) throws SQLException { throw unsupported(); }
+   public void updateObject(int p0, Object p1, int p2) throws SQLException { throw unsupported(); }
+   public void updateObject(int p0, Object p1) throws SQLException { throw unsupported(); }
+   public void updateRef(String p0, Ref p1) throws SQLException { throw unsupported(); }
+   public void updateRef(int p0, Ref p1) throws SQLException { throw unsupported(); }
+   public void updateRow() throws SQLException { throw unsupported(); }
+   public void updateRowId(String p0, RowId p1) throws SQLException { throw unsupported(); }
+   public void updateRowId(int p0, RowId p1) throws SQLException { throw unsupported(); }
+   public void updateSQLXML(String p0, SQLXML p1) throws SQLException { throw unsupported(); }
+   public void updateSQLXML(int p0, SQLXML p1) throws SQLException { throw unsupported(); }
+   public void updateShort(String p0, short p1) throws SQLException { throw unsupported(); }
+   public void updateShort(int p0, short p1) throws SQLException { throw unsupported(); }
+   public void updateString(String p0, String p1) throws SQLException { throw unsupported(); }
+   public void updateString(int p0, String p1) throws SQLException { throw unsupported(); }
+   public void updateTime(String p0, Time p1) throws SQLException { throw unsupported(); }
+   public void updateTime(int p0, Time p1) throws SQLException { throw unsupported(); }
+   public void updateTimestamp(String p0, Timestamp p1) throws SQLException { throw unsupported(); }
+   public void updateTimestamp(int p0, Timestamp p1) throws SQLException { throw unsupported(); }
+
+}//end FakeResultSet
@@ -0,0 +1,80 @@
+package bench;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Picking the five newest updates of a manager's stores.
+ *
+ *    fullSort   - what viewRecentUpdates used to do: gather every update of
+ *                 every store and sort them all, parsing both timestamps
+ *                 with Timestamp.valueOf on each comparison
+ *
+ * Amazon.recentUpdates now leaves the whole selection to one LATERAL
+ * query and only reads back K rows; that query is timed, with and without
+ * its index, as viewRecentUpdates by sql/scripts/benchmark_indexes.sh.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RecentUpdatesBenchmark {
+
+   private static final int K = 5;
+
+   private static final Comparator<List<String>> NEWEST_FIRST = (update1, update2) -> {
+      Timestamp first = Timestamp.valueOf(update1.get(2));
+      Timestamp second = Timestamp.valueOf(update2.get(2));
+      return second.compareTo(first);
+   };
+
+   @Param({ "1", "20" })
+   public int stores;
+
+   @Param({ "50", "5000" })
+   public int updatesPerStore;
+
+   // [storeID, productName, updatedOn] records of every store.
+   private List<List<String>> records;
+
+   @Setup
+   public void setup() {
+      Random random = new Random(166);
+      long base = Timestamp.valueOf("2016-09-10 13:01:00").getTime();
+      this.records = new ArrayList<List<String>>(this.stores * this.updatesPerStore);
+      for (int s = 0; s < this.stores; ++s) {
+         for (int i = 0; i < this.updatesPerStore; ++i) {
+            long when = base + random.nextInt(365 * 24 * 60) * 60000L;
+            this.records.add(new ArrayList<String>(Arrays.asList(String.valueOf(s + 1), "Lemonade",
+               new Timestamp(when).toString())));
+         }
+      }
+   }
+
+   @Benchmark
+   public Object fullSort() {
+      List<List<String>> copy = new ArrayList<List<String>>(this.records);
+      copy.sort(NEWEST_FIRST);
+      return copy.subList(0, Math.min(K, copy.size()));
+   }
+
+}//end RecentUpdatesBenchmark
@@ -0,0 +1,85 @@
+package bench;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Client-side cost of reading a Product listing (productName char(30),
+ * numberOfUnits, pricePerUnit) from a FakeResultSet:
+ *
+ *    materialize          - Amazon.materialize, as executeQueryAndReturnResult does
+ *    materializeAndParse  - the same followed by the trim/parseInt/parseDouble
+ *                           viewProducts used to do on every cell
+ *    typedColumns         - getString/getInt/getDouble straight off the result,
+ *                           as streamQuery's Row does
+ *
+ * Run with -prof gc to compare allocation per row.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RowMaterializationBenchmark {
+
+   @Param({ "10", "1000", "100000" })
+   public int rows;
+
+   private FakeResultSet rs;
+
+   @Setup
+   public void setup() {
+      String[] names = { "7up", "Brisk", "Donuts", "Egg", "Hot and Sour Soup", "Ice Cream",
+                         "Lemonade", "Orange Juice", "Pepsi", "Pudding" };
+      Object[][] data = new Object[this.rows][];
+      for (int i = 0; i < this.rows; ++i) {
+         // char(30) comes back blank padded.
+         String name = String.format("%-30s", names[i % names.length]);
+         data[i] = new Object[] { name, i % 100, (double) (1 + i % 10) };
+      }
+      this.rs = new FakeResultSet(new String[] { "productname", "numberofunits", "priceperunit" }, data);
+   }
+
+   @Benchmark
+   public Object materialize() throws Throwable {
+      this.rs.beforeFirst();
+      return (List) Targets.MATERIALIZE.invokeExact((java.sql.ResultSet) this.rs);
+   }
+
+   @Benchmark
+   public void materializeAndParse(Blackhole bh) throws Throwable {
+      this.rs.beforeFirst();
+      @SuppressWarnings("unchecked")
+      List<List<String>> result = (List) Targets.MATERIALIZE.invokeExact((java.sql.ResultSet) this.rs);
+      for (List<String> record : result) {
+         bh.consume(record.get(0));
+         bh.consume(Integer.parseInt(record.get(1).trim()));
+         bh.consume(Double.parseDouble(record.get(2).trim()));
+      }
+   }
+
+   @Benchmark
+   public void typedColumns(Blackhole bh) throws Exception {
+      this.rs.beforeFirst();
+      while (this.rs.next()) {
+         bh.consume(this.rs.getString(1));
+         bh.consume(this.rs.getInt(2));
+         bh.consume(this.rs.getDouble(3));
+      }
+   }
+
+}//end RowMaterializationBenchmark
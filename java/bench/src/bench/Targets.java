@@ -0,0 +1,57 @@
+package bench;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.sql.ResultSet;
+import java.util.List;
+
+/**
+ * Handles on the client code under java/src. Those classes live in the
+ * unnamed package, which cannot be imported from a named one (and JMH
+ * refuses benchmarks in the unnamed package), so they are reached through
+ * method handles resolved once. Handles held in static final fields are
+ * constant-folded by the JIT and cost nothing extra per call.
+ */
+final class Targets {
+
+   // static double Amazon.calculateDistance(double, double, double, double)
+   static final MethodHandle CALCULATE_DISTANCE;
+
+   // static List<List<String>> Amazon.materialize(ResultSet)
+   static final MethodHandle MATERIALIZE;
+
+   // static SpatialIndex SpatialIndex.build(int[], double[], double[], int), returning Object
+   static final MethodHandle BUILD_INDEX;
+
+   // SpatialIndex.withinRadius(double, double, double) as (Object, double, double, double) int hit count
+   static final MethodHandle WITHIN_RADIUS_COUNT;
+
+   static {
+      try {
+         MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+         Class<?> amazon = Class.forName("Amazon");
+         Class<?> index = Class.forName("SpatialIndex");
+         Class<?> hits = Class.forName("SpatialIndex$Hits");
+
+         CALCULATE_DISTANCE = lookup.findStatic(amazon, "calculateDistance",
+            MethodType.methodType(double.class, double.class, double.class, double.class, double.class));
+         MATERIALIZE = lookup.findStatic(amazon, "materialize",
+            MethodType.methodType(List.class, ResultSet.class));
+         BUILD_INDEX = lookup.findStatic(index, "build",
+            MethodType.methodType(index, int[].class, double[].class, double[].class, int.class))
+            .asType(MethodType.methodType(Object.class, int[].class, double[].class, double[].class, int.class));
+         MethodHandle withinRadius = lookup.findVirtual(index, "withinRadius",
+            MethodType.methodType(hits, double.class, double.class, double.class));
+         MethodHandle size = lookup.findGetter(hits, "size", int.class);
+         WITHIN_RADIUS_COUNT = MethodHandles.filterReturnValue(withinRadius, size)
+            .asType(MethodType.methodType(int.class, Object.class, double.class, double.class, double.class));
+      } catch (ReflectiveOperationException e) {
+         throw new ExceptionInInitializerError(e);
+      }
+   }
+
+   private Targets() {
+   }
+
+}//end Targets
@@ -0,0 +1,38 @@
+#!/bin/bash
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+
+# the benchmarks are built against JMH 1.37: jmh-core and
+# jmh-generator-annprocess 1.37 with their dependencies jopt-simple 5.0.4
+# and commons-math3 3.6.1. They are looked up in bench/lib unless JMH_LIB
+# says otherwise; missing ones are fetched from Maven Central and checked
+# against their SHA-1.
+JMH_LIB=${JMH_LIB:-$DIR/../bench/lib}
+CP="$DIR/../classes:$DIR/../lib/postgresql-42.7.4.jar:$JMH_LIB/*"
+
+MAVEN=https://repo1.maven.org/maven2
+mkdir -p $JMH_LIB
+while read SHA1 ARTIFACT; do
+   JAR=$JMH_LIB/$( basename $ARTIFACT )
+   [ -f $JAR ] && continue
+   curl -sfL -o $JAR.part $MAVEN/$ARTIFACT || { echo "could not fetch $ARTIFACT" >&2; rm -f $JAR.part; exit 1; }
+   echo "$SHA1  $JAR.part" | sha1sum -c --quiet - || { echo "checksum mismatch for $ARTIFACT" >&2; rm -f $JAR.part; exit 1; }
+   mv $JAR.part $JAR
+done <<EOF
+896f27e49105b35ea1964319c83d12082e7a79ef org/openjdk/jmh/jmh-core/1.37/jmh-core-1.37.jar
+da93888682df163144edf9b13d2b78e54166063a org/openjdk/jmh/jmh-generator-annprocess/1.37/jmh-generator-annprocess-1.37.jar
+4fdac2fbe92dfad86aa6e9301736f6b4342a3f5c net/sf/jopt-simple/jopt-simple/5.0.4/jopt-simple-5.0.4.jar
+e4ba98f1d4b3c80ec46392f25e094a6a2e58fcbf org/apache/commons/commons-math3/3.6.1/commons-math3-3.6.1.jar
+EOF
+
+# compile the java program, then the benchmarks; the annotation processor
+# in jmh-generator-annprocess generates the harness classes
+javac -d $DIR/../classes $DIR/../src/*.java
+mkdir -p $DIR/../bench/classes $DIR/../bench/results
+javac -cp "$CP" -d $DIR/../bench/classes $DIR/../bench/src/bench/*.java || exit 1
+
+# run every benchmark with the allocation profiler, keeping the results
+# per commit so runs can be compared across changes, e.g.
+#   bench.sh Distance -p stores=100000
+REV=$( git -C $DIR rev-parse --short HEAD 2>/dev/null || date +%Y%m%d%H%M%S )
+java -cp "$DIR/../bench/classes:$CP" org.openjdk.jmh.Main -prof gc \
+   -rf json -rff $DIR/../bench/results/$REV.json "$@"
@@ -0,0 +1,12 @@
+#!/bin/bash
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+
+# compile the java program
+javac -d $DIR/../classes $DIR/../src/*.java
+
+# generate a synthetic dataset, e.g.
+#   gen_data.sh --scale 1000 --seed 7 --out /tmp/data   (CSV files, no database)
+#   gen_data.sh --scale 1000 --replace --threads 8      (straight into the database)
+# after loading into the database, run partitions.sh to move the generated
+# history out of the default partitions.
+java -cp $DIR/../classes:$DIR/../lib/postgresql-42.7.4.jar DataGenerator $USER"_project_phase_3_DB" $PGPORT $USER "$@"
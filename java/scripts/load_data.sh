@@ -0,0 +1,9 @@
+#!/bin/bash
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+
+# compile the java program
+javac -d $DIR/../classes $DIR/../src/*.java
+
+# load data/*.csv into the project database, e.g.
+#   load_data.sh --replace --threads 8 --batch 2000
+java -cp $DIR/../classes:$DIR/../lib/postgresql-42.7.4.jar BulkLoader $USER"_project_phase_3_DB" $PGPORT $USER --data $DIR/../../data "$@"
@@ -0,0 +1,9 @@
+#!/bin/bash
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+
+# compile the java program
+javac -d $DIR/../classes $DIR/../src/*.java
+
+# simulate concurrent customers and managers, e.g.
+#   load_test.sh --customers 64 --managers 4 --seconds 120
+java -cp $DIR/../classes:$DIR/../lib/postgresql-42.7.4.jar LoadGenerator $USER"_project_phase_3_DB" $PGPORT $USER "$@"
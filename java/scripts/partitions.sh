@@ -0,0 +1,11 @@
+#!/bin/bash
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+
+# compile the java program
+javac -d $DIR/../classes $DIR/../src/*.java
+
+# create the monthly Orders and ProductUpdates partitions, e.g. daily from cron:
+#   partitions.sh --ahead 3
+#   partitions.sh --keep-months 24 --archive-schema archive
+#   partitions.sh --list
+java -cp $DIR/../classes:$DIR/../lib/postgresql-42.7.4.jar PartitionManager $USER"_project_phase_3_DB" $PGPORT $USER "$@"
@@ -0,0 +1,10 @@
+#!/bin/bash
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+
+# compile the java program
+javac -d $DIR/../classes $DIR/../src/*.java
+
+# restock every store from its closest warehouse, e.g.
+#   replenish.sh --dry-run
+#   replenish.sh --window-days 14 --lead-days 5 --threads 16
+java -cp $DIR/../classes:$DIR/../lib/postgresql-42.7.4.jar ReplenishmentPlanner $USER"_project_phase_3_DB" $PGPORT $USER "$@"
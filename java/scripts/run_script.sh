@@ -0,0 +1,10 @@
+#!/bin/bash
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+
+# compile the java program
+javac -d $DIR/../classes $DIR/../src/*.java
+
+# replay the data files (or a command script) without the menus, e.g.
+#   run_script.sh --replay $DIR/../../data --speed 60 --pipeline 4
+#   run_script.sh --script commands.txt
+java -cp $DIR/../classes:$DIR/../lib/postgresql-42.7.4.jar ScriptRunner $USER"_project_phase_3_DB" $PGPORT $USER "$@"
@@ -0,0 +1,10 @@
+#!/bin/bash
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+
+# compile the java program
+javac -d $DIR/../classes $DIR/../src/*.java
+
+# serve the menu operations on a local socket, e.g.
+#   serve.sh --listen 8166
+#   printf 'login,Amy,xyz\nstores\nquit\n' | nc localhost 8166
+java -cp $DIR/../classes:$DIR/../lib/postgresql-42.7.4.jar AmazonServer $USER"_project_phase_3_DB" $PGPORT $USER "$@"
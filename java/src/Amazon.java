@@ -11,12 +11,12 @@
  */
 
 
-import java.sql.DriverManager;
 import java.sql.Connection;
-import java.sql.Statement;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.io.File;
 import java.io.FileReader;
 import java.io.BufferedReader;
@@ -25,19 +25,92 @@ import java.util.List;
 import java.util.ArrayList;
 import java.lang.Math;
 import java.sql.Timestamp;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * This class defines a simple embedded SQL utility class that is designed to
  * work with PostgreSQL JDBC drivers.
  *
+ * All statements go through a bounded connection pool and are executed as
+ * parameterized prepared statements, cached per connection. The pool can be
+ * tuned with the system properties amazon.pool.size,
+ * amazon.pool.timeout.ms and amazon.stmtcache.size; amazon.prepare.threshold
+ * sets the executions after which the driver prepares a statement on the
+ * server (default 1, every statement).
  */
 public class Amazon {
 
-   // reference to physical database connection.
-   private Connection _connection = null;
-
-   // 500 order in the table
-   private int orderNum = 501;
+   // pool of physical database connections shared by all sessions.
+   private ConnectionPool _pool = null;
+
+   // timings of every statement and operation; see Metrics for the
+   // amazon.metrics.jmx and amazon.metrics.dump.s properties.
+   private final Metrics _metrics = new Metrics(
+      Boolean.parseBoolean(System.getProperty("amazon.metrics.jmx", "true")));
+
+   // statements slower than amazon.slowlog.ms (off when 0) are appended to
+   // amazon.slowlog.file; amazon.slowlog.explain.rate of the slow reads get
+   // an EXPLAIN (ANALYZE, BUFFERS) plan, each statement at most once every
+   // amazon.slowlog.explain.interval.s seconds.
+   private SlowQueryLog _slowLog = null;
+
+   // spatial index over Store coordinates, reloaded once it is older than
+   // amazon.storeindex.ttl.ms; stores are only written by the loaders,
+   // which run as processes of their own, so the time to live is what
+   // picks up new, moved or deleted stores.
+   private volatile SpatialIndex _storeIndex = null;
+   private volatile long _storeIndexLoadedAt = 0L;
+   private final long _storeIndexTtl = Long.getLong("amazon.storeindex.ttl.ms", 60000L);
+   // held while the index loads; not a monitor, so virtual threads waiting
+   // for the load do not pin their carriers.
+   private final ReentrantLock _storeIndexLoading = new ReentrantLock();
+
+   // rows fetched per round trip by the streamQuery calls that scan whole
+   // tables; see getFetchSize().
+   private final int _fetchSize = Integer.getInteger("amazon.fetch.size", 500);
+
+   // stores closer than this are offered to a customer.
+   public static final double STORE_RADIUS = 30;
+
+   // keys for new Orders, ProductSupplyRequests and ProductUpdates rows,
+   // reserved from the table sequences amazon.id.block at a time.
+   private IdAllocator _orderIds = null;
+   private IdAllocator _requestIds = null;
+   private IdAllocator _updateIds = null;
+
+   // product names by dense ID, for the in-memory structures below; see
+   // getProductKeys().
+   private final KeyDictionary _productKeys = new KeyDictionary();
+
+   // days of Orders and ProductUpdates the recent-activity queries look at
+   // before falling back to the whole history; see recentWindowStart().
+   private final int _recentWindowDays = Integer.getInteger("amazon.recent.window.days", 31);
+
+   // per-store product and customer rankings, seeded from Orders once and
+   // kept current by submitOrder; amazon.popularity.ttl.ms (0, never, by
+   // default) re-seeds them to pick up other processes' orders, and
+   // amazon.popularity.window.days limits them to recent orders.
+   private PopularityTracker _popularity = null;
+
+   // store catalogs, at most amazon.catalog.size stores, kept current by
+   // the write methods and reloaded once older than amazon.catalog.ttl.ms.
+   private ProductCatalogCache _catalog = null;
+
+   // replica of all of Product, following ProductUpdates every
+   // amazon.replica.poll.ms (off when 0); serves the catalog reads while
+   // its last poll is at most amazon.replica.max.staleness.ms old, which
+   // bounds logged changes only: stock moved by other instances' orders
+   // and supply requests waits for the full reload every
+   // amazon.replica.reload.s seconds. See CatalogReplica for
+   // amazon.replica.slack, amazon.replica.gap.ms and amazon.replica.max.stores.
+   private CatalogReplica _replica = null;
+
+   // how ProductUpdates rows are written (amazon.audit.durability, sync by
+   // default, or async); in async mode they go through a write-behind queue holding up
+   // to amazon.audit.queue entries, committed amazon.audit.batch at a time.
+   private AuditLog.Durability _auditDurability = AuditLog.Durability.SYNC;
+   private AuditLog _auditLog = null;
 
    // handling the keyboard inputs through a BufferedReader
    // This variable can be global for convenience.
@@ -58,11 +131,45 @@ public class Amazon {
       System.out.print("Connecting to database...");
       try{
          // constructs the connection URL
-         String url = "jdbc:postgresql://localhost:" + dbport + "/" + dbname;
+         String url = "jdbc:postgresql://localhost:" + dbport + "/" + dbname
+            + "?prepareThreshold=" + Integer.getInteger("amazon.prepare.threshold", 1);
          System.out.println ("Connection URL: " + url + "\n");
 
-         // obtain a physical connection
-         this._connection = DriverManager.getConnection(url, user, passwd);
+         // obtain a pool of physical connections
+         int poolSize = Integer.getInteger("amazon.pool.size", 4);
+         int cacheSize = Integer.getInteger("amazon.stmtcache.size", 64);
+         long timeout = Long.getLong("amazon.pool.timeout.ms", 30000L);
+         this._pool = new ConnectionPool(url, user, passwd, poolSize, cacheSize, timeout);
+         this._metrics.startDump(Long.getLong("amazon.metrics.dump.s", 0L));
+         double slowMillis = Double.parseDouble(System.getProperty("amazon.slowlog.ms", "0"));
+         if (slowMillis > 0) {
+            this._slowLog = new SlowQueryLog(this, slowMillis,
+               System.getProperty("amazon.slowlog.file", "slow-queries.log"),
+               Double.parseDouble(System.getProperty("amazon.slowlog.explain.rate", "0")),
+               Long.getLong("amazon.slowlog.explain.interval.s", 60L));
+            this._metrics.setSlowQueryLog(this._slowLog);
+         }
+
+         int idBlock = Integer.getInteger("amazon.id.block", 50);
+         this._orderIds = new IdAllocator(this, "orders_ordernumber_seq", idBlock);
+         this._requestIds = new IdAllocator(this, "productsupplyrequests_requestnumber_seq", idBlock);
+         this._updateIds = new IdAllocator(this, "productupdates_updatenumber_seq", idBlock);
+         this._popularity = new PopularityTracker(this, Long.getLong("amazon.popularity.ttl.ms", 0L),
+            Integer.getInteger("amazon.popularity.window.days", 0));
+         this._catalog = new ProductCatalogCache(this, Integer.getInteger("amazon.catalog.size", 256),
+            Long.getLong("amazon.catalog.ttl.ms", 60000L));
+         long replicaPoll = Long.getLong("amazon.replica.poll.ms", 0L);
+         if (replicaPoll > 0) {
+            this._replica = new CatalogReplica(this, this._catalog, Integer.getInteger("amazon.replica.slack", 1000),
+               Long.getLong("amazon.replica.gap.ms", 60000L), Integer.getInteger("amazon.replica.max.stores", 1000),
+               Long.getLong("amazon.replica.max.staleness.ms", 10000L));
+            this._replica.start(replicaPoll, Long.getLong("amazon.replica.reload.s", 3600L));
+         }
+         this._auditDurability = AuditLog.Durability.valueOf(
+            System.getProperty("amazon.audit.durability", "sync").trim().toUpperCase());
+         if (this._auditDurability == AuditLog.Durability.ASYNC)
+            this._auditLog = new AuditLog(this, Integer.getInteger("amazon.audit.queue", 10000),
+               Integer.getInteger("amazon.audit.batch", 500));
          System.out.println("Done");
       }catch (Exception e){
          System.err.println("Error - Unable to Connect to Database: " + e.getMessage() );
@@ -72,27 +179,70 @@ public class Amazon {
    }//end Amazon
 
    // Method to calculate euclidean distance between two latitude, longitude pairs. 
-   public double calculateDistance (double lat1, double long1, double lat2, double long2){
+   public static double calculateDistance (double lat1, double long1, double lat2, double long2){
       double t1 = (lat1 - lat2) * (lat1 - lat2);
       double t2 = (long1 - long2) * (long1 - long2);
       return Math.sqrt(t1 + t2); 
    }
+
+   /**
+    * Binds positional parameters to a prepared statement.
+    *
+    * @param stmt the prepared statement
+    * @param params the parameter values, in placeholder order
+    * @throws java.sql.SQLException when a value cannot be bound
+    */
+   static void bind (PreparedStatement stmt, Object... params) throws SQLException {
+      for (int i = 0; i < params.length; ++i)
+         stmt.setObject (i + 1, params[i]);
+   }//end bind
+
+   /**
+    * Leases a pooled connection. Callers that need several statements on
+    * the same connection (e.g. a transaction) must close() the lease when
+    * done to hand it back.
+    *
+    * @return a connection lease
+    * @throws java.sql.SQLException when no connection could be obtained
+    */
+   public PooledConnection acquire () throws SQLException {
+      return this._pool.acquire ();
+   }
+
+   /**
+    * Leases a pooled connection without waiting for one.
+    *
+    * @return a connection lease, or null when none is free
+    * @throws java.sql.SQLException when no connection could be opened
+    */
+   public PooledConnection tryAcquire () throws SQLException {
+      return this._pool.tryAcquire ();
+   }
+
    /**
     * Method to execute an update SQL statement.  Update SQL instructions
     * includes CREATE, INSERT, UPDATE, DELETE, and DROP.
     *
-    * @param sql the input SQL string
+    * @param sql the input SQL string, with '?' placeholders
+    * @param params the values bound to the placeholders
+    * @return the number of rows affected
     * @throws java.sql.SQLException when update failed
     */
-   public void executeUpdate (String sql) throws SQLException {
-      // creates a statement object
-      Statement stmt = this._connection.createStatement ();
-
-      // issues the update instruction
-      stmt.executeUpdate (sql);
-
-      // close the instruction
-      stmt.close ();
+   public int executeUpdate (String sql, Object... params) throws SQLException {
+      Metrics.Sample sample = this._metrics.statement (sql, params);
+      try (PooledConnection conn = this._pool.acquire ()) {
+         // reuses the cached statement for this connection
+         PreparedStatement stmt = conn.prepare (sql);
+         bind (stmt, params);
+
+         // issues the update instruction
+         int rowCount = stmt.executeUpdate ();
+         sample.success (rowCount);
+         return rowCount;
+      } catch (SQLException | RuntimeException e) {
+         sample.failure ();
+         throw e;
+      }
    }//end executeUpdate
 
    /**
@@ -100,42 +250,49 @@ public class Amazon {
     * method issues the query to the DBMS and outputs the results to
     * standard out.
     *
-    * @param query the input query string
+    * @param query the input query string, with '?' placeholders
+    * @param params the values bound to the placeholders
     * @return the number of rows returned
     * @throws java.sql.SQLException when failed to execute the query
     */
-   public int executeQueryAndPrintResult (String query) throws SQLException {
-      // creates a statement object
-      Statement stmt = this._connection.createStatement ();
-
-      // issues the query instruction
-      ResultSet rs = stmt.executeQuery (query);
-
-      /*
-       ** obtains the metadata object for the returned result set.  The metadata
-       ** contains row and column info.
-       */
-      ResultSetMetaData rsmd = rs.getMetaData ();
-      int numCol = rsmd.getColumnCount ();
-      int rowCount = 0;
-
-      // iterates through the result set and output them to standard out.
-      boolean outputHeader = true;
-      while (rs.next()){
-		 if(outputHeader){
-			for(int i = 1; i <= numCol; i++){
-			System.out.print(rsmd.getColumnName(i) + "\t");
-			}
-			System.out.println();
-			outputHeader = false;
-		 }
-         for (int i=1; i<=numCol; ++i)
-            System.out.print (rs.getString (i) + "\t");
-         System.out.println ();
-         ++rowCount;
-      }//end while
-      stmt.close ();
-      return rowCount;
+   public int executeQueryAndPrintResult (String query, Object... params) throws SQLException {
+      Metrics.Sample sample = this._metrics.statement (query, params);
+      try (PooledConnection conn = this._pool.acquire ()) {
+         PreparedStatement stmt = conn.prepare (query);
+         bind (stmt, params);
+
+         // issues the query instruction
+         try (ResultSet rs = stmt.executeQuery ()) {
+            /*
+             ** obtains the metadata object for the returned result set.  The metadata
+             ** contains row and column info.
+             */
+            ResultSetMetaData rsmd = rs.getMetaData ();
+            int numCol = rsmd.getColumnCount ();
+            int rowCount = 0;
+
+            // iterates through the result set and output them to standard out.
+            boolean outputHeader = true;
+            while (rs.next()){
+               if(outputHeader){
+                  for(int i = 1; i <= numCol; i++){
+                     System.out.print(rsmd.getColumnName(i) + "\t");
+                  }
+                  System.out.println();
+                  outputHeader = false;
+               }
+               for (int i=1; i<=numCol; ++i)
+                  System.out.print (rs.getString (i) + "\t");
+               System.out.println ();
+               ++rowCount;
+            }//end while
+            sample.success (rowCount);
+            return rowCount;
+         }
+      } catch (SQLException | RuntimeException e) {
+         sample.failure ();
+         throw e;
+      }
    }//end executeQuery
 
    /**
@@ -143,99 +300,797 @@ public class Amazon {
     * method issues the query to the DBMS and returns the results as
     * a list of records. Each record in turn is a list of attribute values
     *
-    * @param query the input query string
+    * @param query the input query string, with '?' placeholders
+    * @param params the values bound to the placeholders
     * @return the query result as a list of records
     * @throws java.sql.SQLException when failed to execute the query
     */
-   public List<List<String>> executeQueryAndReturnResult (String query) throws SQLException {
-      // creates a statement object
-      Statement stmt = this._connection.createStatement ();
-
-      // issues the query instruction
-      ResultSet rs = stmt.executeQuery (query);
+   public List<List<String>> executeQueryAndReturnResult (String query, Object... params) throws SQLException {
+      Metrics.Sample sample = this._metrics.statement (query, params);
+      try (PooledConnection conn = this._pool.acquire ()) {
+         PreparedStatement stmt = conn.prepare (query);
+         bind (stmt, params);
+
+         // issues the query instruction
+         try (ResultSet rs = stmt.executeQuery ()) {
+            List<List<String>> result = materialize (rs);
+            sample.success (result.size ());
+            return result;
+         }
+      } catch (SQLException | RuntimeException e) {
+         sample.failure ();
+         throw e;
+      }
+   }//end executeQueryAndReturnResult
 
+   /**
+    * Copies every remaining row of a result set into a list of records,
+    * each a list of the column values as strings.
+    *
+    * @param rs the result set
+    * @return the rows
+    * @throws java.sql.SQLException when a column cannot be read
+    */
+   public static List<List<String>> materialize (ResultSet rs) throws SQLException {
       /*
        ** obtains the metadata object for the returned result set.  The metadata
        ** contains row and column info.
        */
       ResultSetMetaData rsmd = rs.getMetaData ();
       int numCol = rsmd.getColumnCount ();
-      int rowCount = 0;
 
       // iterates through the result set and saves the data returned by the query.
-      boolean outputHeader = false;
       List<List<String>> result  = new ArrayList<List<String>>();
       while (rs.next()){
-        List<String> record = new ArrayList<String>();
-		for (int i=1; i<=numCol; ++i)
-			record.add(rs.getString (i));
-        result.add(record);
+         List<String> record = new ArrayList<String>(numCol);
+         for (int i=1; i<=numCol; ++i)
+            record.add(rs.getString (i));
+         result.add(record);
       }//end while
-      stmt.close ();
       return result;
-   }//end executeQueryAndReturnResult
+   }//end materialize
 
    /**
-    * Method to execute an input query SQL instruction (i.e. SELECT).  This
-    * method issues the query to the DBMS and returns the number of results
+    * Method to hand the rows of a bounded query (a lookup, a LIMIT) to a
+    * row handler as typed columns. The query runs in autocommit and its
+    * result is read in one round trip.
     *
-    * @param query the input query string
-    * @return the number of rows returned
+    * @param query the input query string, with '?' placeholders
+    * @param handler called once per row
+    * @param params the values bound to the placeholders
+    * @return the number of rows streamed
     * @throws java.sql.SQLException when failed to execute the query
     */
-   public int executeQuery (String query) throws SQLException {
-       // creates a statement object
-       Statement stmt = this._connection.createStatement ();
+   public int streamQuery (String query, RowHandler handler, Object... params) throws SQLException {
+      return streamQuery (query, 0, handler, params);
+   }
 
-       // issues the query instruction
-       ResultSet rs = stmt.executeQuery (query);
+   /**
+    * Method to stream the result of a query to a row handler. With a
+    * positive fetchSize, rows are fetched from a server-side cursor that
+    * many at a time, so memory use does not grow with the size of the
+    * result; the cursor needs a transaction, which costs a COMMIT round
+    * trip, so only scans of whole tables should ask for one (see
+    * getFetchSize()).
+    *
+    * @param query the input query string, with '?' placeholders
+    * @param fetchSize rows fetched from the cursor per round trip, or 0
+    *        to read the whole result at once in autocommit
+    * @param handler called once per row
+    * @param params the values bound to the placeholders
+    * @return the number of rows streamed
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public int streamQuery (String query, int fetchSize, RowHandler handler, Object... params) throws SQLException {
+      Metrics.Sample sample = this._metrics.statement (query, params);
+      try (PooledConnection conn = this._pool.acquire ()) {
+         // the driver only keeps a cursor open inside a transaction; the
+         // pool rolls back and restores autocommit if the handler fails.
+         Connection connection = conn.getConnection ();
+         boolean cursor = fetchSize > 0;
+         if (cursor)
+            connection.setAutoCommit (false);
+
+         PreparedStatement stmt = conn.prepare (query);
+         stmt.setFetchSize (fetchSize);
+         bind (stmt, params);
+
+         int rowCount = 0;
+         try (ResultSet rs = stmt.executeQuery ()) {
+            Row row = new Row (rs);
+            while (rs.next ()) {
+               handler.handle (row);
+               ++rowCount;
+            }//end while
+         }
+         if (cursor) {
+            connection.commit ();
+            connection.setAutoCommit (true);
+         }
+         sample.success (rowCount);
+         return rowCount;
+      } catch (SQLException | RuntimeException e) {
+         sample.failure ();
+         throw e;
+      }
+   }//end streamQuery
 
-       int rowCount = 0;
+   /**
+    * Method to run a query returning a single integer, e.g. a count or a
+    * key from an INSERT ... RETURNING.
+    *
+    * @param query the input query string, with '?' placeholders
+    * @param missing the value returned when the query yields no row
+    * @param params the values bound to the placeholders
+    * @return the first column of the first row, or missing
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public int queryForInt (String query, int missing, Object... params) throws SQLException {
+      Metrics.Sample sample = this._metrics.statement (query, params);
+      try (PooledConnection conn = this._pool.acquire ()) {
+         return queryForInt (conn, sample, query, missing, params);
+      } catch (SQLException | RuntimeException e) {
+         sample.failure ();
+         throw e;
+      }
+   }//end queryForInt
+
+   // as above, on a connection the caller already holds; ends the sample
+   // on success only.
+   private static int queryForInt (PooledConnection conn, Metrics.Sample sample, String query, int missing,
+                                   Object... params) throws SQLException {
+      PreparedStatement stmt = conn.prepare (query);
+      bind (stmt, params);
+      try (ResultSet rs = stmt.executeQuery ()) {
+         boolean found = rs.next ();
+         sample.success (found ? 1 : 0);
+         return found ? rs.getInt (1) : missing;
+      }
+   }//end queryForInt
 
-       // iterates through the result set and count nuber of results.
-       while (rs.next()){
-          rowCount++;
-       }//end while
-       stmt.close ();
-       return rowCount;
+   /**
+    * Method to run several statements as one transaction on one pooled
+    * connection.  The transaction commits when the work returns and is
+    * rolled back when it throws.
+    *
+    * @param work the statements to run
+    * @return the value returned by the work
+    * @throws java.sql.SQLException when a statement or the commit fails
+    */
+   public <T> T executeTransaction (TransactionWork<T> work) throws SQLException {
+      return executeTransaction ("transaction", work);
+   }
+
+   /**
+    * Method to run several statements as one transaction, timed under the
+    * given name.
+    *
+    * @param name what the transaction does, as shown in the metrics
+    * @param work the statements to run
+    * @return the value returned by the work
+    * @throws java.sql.SQLException when a statement or the commit fails
+    */
+   public <T> T executeTransaction (String name, TransactionWork<T> work) throws SQLException {
+      Metrics.Sample sample = this._metrics.statement ("transaction: " + name);
+      try (PooledConnection conn = this._pool.acquire ()) {
+         // the pool rolls back and restores autocommit if the work fails.
+         Connection connection = conn.getConnection ();
+         connection.setAutoCommit (false);
+         T result = work.run (conn);
+         connection.commit ();
+         connection.setAutoCommit (true);
+         sample.success (0);
+         return result;
+      } catch (SQLException | RuntimeException e) {
+         sample.failure ();
+         throw e;
+      }
+   }//end executeTransaction
+
+   /**
+    * Method to execute an input query SQL instruction (i.e. SELECT).  This
+    * method issues the query to the DBMS and returns the number of results
+    *
+    * @param query the input query string, with '?' placeholders
+    * @param params the values bound to the placeholders
+    * @return the number of rows returned
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public int executeQuery (String query, Object... params) throws SQLException {
+      Metrics.Sample sample = this._metrics.statement (query, params);
+      try (PooledConnection conn = this._pool.acquire ()) {
+         PreparedStatement stmt = conn.prepare (query);
+         bind (stmt, params);
+
+         // issues the query instruction
+         try (ResultSet rs = stmt.executeQuery ()) {
+            int rowCount = 0;
+
+            // iterates through the result set and count nuber of results.
+            while (rs.next()){
+               rowCount++;
+            }//end while
+            sample.success (rowCount);
+            return rowCount;
+         }
+      } catch (SQLException | RuntimeException e) {
+         sample.failure ();
+         throw e;
+      }
    }
 
    /**
     * Method to fetch the last value from sequence. This
     * method issues the query to the DBMS and returns the current
-    * value of sequence used for autogenerated keys
+    * value of sequence used for autogenerated keys. currval() is local to
+    * a database session, so this only sees nextval() calls made on the
+    * same pooled connection.
     *
     * @param sequence name of the DB sequence
     * @return current value of a sequence
     * @throws java.sql.SQLException when failed to execute the query
     */
    public int getCurrSeqVal(String sequence) throws SQLException {
-	Statement stmt = this._connection.createStatement ();
-
-	ResultSet rs = stmt.executeQuery (String.format("Select currval('%s')", sequence));
-	if (rs.next())
-		return rs.getInt(1);
-	return -1;
+      try (PooledConnection conn = this._pool.acquire ()) {
+         PreparedStatement stmt = conn.prepare ("SELECT currval(CAST(? AS regclass))");
+         stmt.setString (1, sequence);
+         try (ResultSet rs = stmt.executeQuery ()) {
+            if (rs.next())
+               return rs.getInt(1);
+            return -1;
+         }
+      }
    }
 
    /**
-    * Method to close the physical connection if it is open.
+    * Method to close the pooled physical connections.
     */
    public void cleanup(){
-      try{
-         if (this._connection != null){
-            this._connection.close ();
-         }//end if
-      }catch (SQLException e){
-         // ignored.
-      }//end try
+      this._metrics.stopDump ();
+      if (this._replica != null){
+         this._replica.stop ();
+      }//end if
+      // the audit log needs the pool to write what is still queued.
+      if (this._auditLog != null){
+         this._auditLog.close ();
+      }//end if
+      // so does the slow query log, to explain what is still queued.
+      if (this._slowLog != null){
+         this._metrics.setSlowQueryLog (null);
+         this._slowLog.close ();
+      }//end if
+      if (this._pool != null){
+         this._pool.close ();
+      }//end if
    }//end cleanup
 
-   public int getNextOrderNum() {
-      int currentOrderNum = this.orderNum;
-      this.orderNum++;
-      return currentOrderNum;
-  }  // for case 3
+   /**
+    * Returns the spatial index over all stores, loading it on first use and
+    * reloading it once it is older than the configured time to live
+    * (amazon.storeindex.ttl.ms), so store changes show within that time.
+    * Session.distanceTo looks up a store missing from the index directly.
+    *
+    * @return the store index
+    * @throws java.sql.SQLException when the stores cannot be read
+    */
+   public SpatialIndex getStoreIndex() throws SQLException {
+      SpatialIndex index = this._storeIndex;
+      if (index == null || System.currentTimeMillis() - this._storeIndexLoadedAt > this._storeIndexTtl) {
+         this._storeIndexLoading.lock();
+         try {
+            index = this._storeIndex;
+            if (index == null || System.currentTimeMillis() - this._storeIndexLoadedAt > this._storeIndexTtl) {
+               index = loadStoreIndex();
+               this._storeIndex = index;
+               this._storeIndexLoadedAt = System.currentTimeMillis();
+            }
+         } finally {
+            this._storeIndexLoading.unlock();
+         }
+      }
+      return index;
+   }//end getStoreIndex
+
+   private SpatialIndex loadStoreIndex() throws SQLException {
+      final int[][] ids = { new int[64] };
+      final double[][] coords = { new double[64], new double[64] };
+      final int[] n = { 0 };
+      streamQuery("SELECT storeID, latitude, longitude FROM Store", this._fetchSize, row -> {
+         int i = n[0]++;
+         if (i == ids[0].length) {
+            ids[0] = java.util.Arrays.copyOf(ids[0], i * 2);
+            coords[0] = java.util.Arrays.copyOf(coords[0], i * 2);
+            coords[1] = java.util.Arrays.copyOf(coords[1], i * 2);
+         }
+         ids[0][i] = row.getInt(1);
+         coords[0][i] = row.getDouble(2);
+         coords[1][i] = row.getDouble(3);
+      });
+      return SpatialIndex.build(ids[0], coords[0], coords[1], n[0]);
+   }//end loadStoreIndex
+
+   // decrements stock only if enough units are left and inserts the order
+   // in the same statement, so a single round trip either places the order
+   // or changes nothing.
+   private static final String PLACE_ORDER_SQL =
+      "WITH stock AS (" +
+      "   UPDATE Product SET numberOfUnits = numberOfUnits - CAST(? AS integer)" +
+      "   WHERE storeID = ? AND productName = ? AND numberOfUnits >= CAST(? AS integer)" +
+      "   RETURNING storeID, productName) " +
+      "INSERT INTO Orders (orderNumber, customerID, storeID, productName, unitsOrdered, orderTime) " +
+      "SELECT CAST(? AS integer), CAST(? AS integer), storeID, productName, CAST(? AS integer), CAST(? AS timestamp) FROM stock " +
+      "RETURNING orderNumber";
+
+   /**
+    * Places an order and takes the units out of the store's stock in one
+    * atomic statement. Concurrent buyers cannot oversell: the stock row is
+    * only decremented while enough units are left, and the order is only
+    * inserted if the decrement happened.
+    *
+    * @param customerID the ordering customer
+    * @param storeID the store to buy from
+    * @param productName the product to buy
+    * @param units the number of units to buy
+    * @return the new order number, or why the order was rejected
+    * @throws java.sql.SQLException when the statement fails
+    */
+   public OrderResult submitOrder(int customerID, int storeID, String productName, int units) throws SQLException {
+      if (units <= 0)
+         return OrderResult.rejected(OrderResult.Status.INVALID_QUANTITY, -1);
+
+      Timestamp orderTime = new Timestamp(System.currentTimeMillis());
+      int nextOrderNum = getNextOrderNum();
+      int orderNumber;
+      // a popularity seed must not snapshot between the commit and the
+      // count. The lock is only taken once the connection is in hand: a
+      // seed holds a connection while it waits for the lock, so waiting
+      // for the pool with the lock held could deadlock.
+      Lock placing = this._popularity.orderLock();
+      long writeStarted = System.nanoTime();
+      Object[] params = { units, storeID, productName, units, nextOrderNum, customerID, units, orderTime };
+      Metrics.Sample sample = this._metrics.statement(PLACE_ORDER_SQL, params);
+      try (PooledConnection conn = this._pool.acquire()) {
+         placing.lock();
+         try {
+            orderNumber = queryForInt(conn, sample, PLACE_ORDER_SQL, -1, params);
+            if (orderNumber != -1)
+               this._popularity.orderPlaced(storeID, customerID, productName, units);
+         } finally {
+            placing.unlock();
+         }
+      } catch (SQLException | RuntimeException e) {
+         sample.failure();
+         throw e;
+      }
+      if (orderNumber != -1) {
+         catalogChanged(storeID, productName, writeStarted, p -> p.withUnits(p.numberOfUnits - units));
+         return OrderResult.placed(orderNumber);
+      }
+
+      // rejected: one more lookup tells a missing product from short stock.
+      long readStarted = System.nanoTime();
+      final int stock = queryForInt(
+         "SELECT numberOfUnits FROM Product WHERE storeID = ? AND productName = ?", -1, storeID, productName);
+      if (stock == -1) {
+         this._catalog.invalidate(storeID);
+         if (this._replica != null)
+            this._replica.invalidate(storeID);
+         return OrderResult.rejected(OrderResult.Status.UNKNOWN_PRODUCT, -1);
+      }
+      catalogChanged(storeID, productName, readStarted, p -> p.withUnits(stock));
+      return OrderResult.rejected(OrderResult.Status.INSUFFICIENT_STOCK, stock);
+   }//end submitOrder
+
+   /**
+    * Sets the stock and price of a product and records the change in
+    * ProductUpdates, either in the same transaction (the default) or behind
+    * the update through the audit log (amazon.audit.durability=async).
+    *
+    * @param managerID the manager making the change
+    * @param storeID the store carrying the product
+    * @param productName the product to change
+    * @param units the new number of units
+    * @param price the new price per unit
+    * @return false if the store does not carry the product
+    * @throws java.sql.SQLException when a statement fails
+    */
+   public boolean applyProductUpdate(final int managerID, final int storeID, final String productName,
+                                     final int units, final double price) throws SQLException {
+      final String updateQuery = "UPDATE Product SET numberOfUnits = ?, pricePerUnit = ? WHERE storeID = ? AND productName = ?";
+      final Timestamp updateTime = new Timestamp(System.currentTimeMillis());
+      final int updateNumber = getNextUpdateNum();
+      long writeStarted = System.nanoTime();
+      boolean updated;
+      if (this._auditLog != null) {
+         // the audit entry is written behind, batched with others.
+         updated = executeUpdate(updateQuery, units, price, storeID, productName) > 0;
+         if (updated)
+            this._auditLog.record(updateNumber, managerID, storeID, productName, updateTime);
+      } else {
+         // the change and its audit entry commit together.
+         updated = executeTransaction("applyProductUpdate", conn -> {
+            PreparedStatement stmt = conn.prepare(updateQuery);
+            bind(stmt, units, price, storeID, productName);
+            if (stmt.executeUpdate() == 0)
+               return false;
+            stmt = conn.prepare(AuditLog.INSERT_SQL);
+            bind(stmt, updateNumber, managerID, storeID, productName, updateTime);
+            stmt.executeUpdate();
+            return true;
+         });
+      }
+      if (updated)
+         catalogChanged(storeID, productName, writeStarted, p -> p.withStock(units, price));
+      return updated;
+   }//end applyProductUpdate
+
+   /**
+    * Records a supply request to a warehouse and adds the requested units
+    * to the store's stock, both in one transaction.
+    *
+    * @param managerID the manager placing the request
+    * @param warehouseID the warehouse supplying the units
+    * @param storeID the store receiving the units
+    * @param productName the product supplied
+    * @param units the number of units requested
+    * @throws java.sql.SQLException when a statement fails
+    */
+   public void submitSupplyRequest(int managerID, int warehouseID, int storeID, String productName, int units) throws SQLException {
+      submitSupplyRequests(managerID, java.util.Collections.singletonList(
+         new SupplyLine(storeID, productName, units, warehouseID)));
+   }//end submitSupplyRequest
+
+   private static final String SUPPLY_REQUEST_SQL =
+      "INSERT INTO ProductSupplyRequests (requestNumber, managerID, warehouseID, storeID, productName, unitsRequested) VALUES (?, ?, ?, ?, ?, ?)";
+   private static final String SUPPLY_STOCK_SQL =
+      "UPDATE Product SET numberOfUnits = numberOfUnits + ? WHERE storeID = ? AND productName = ?";
+
+   /**
+    * Records a supply order of many lines and adds every line's units to
+    * the stock, as one transaction: one JDBC batch of request rows and one
+    * of stock increments. Either every line is applied or none is; a line
+    * naming a product its store does not carry fails the whole order.
+    *
+    * @param managerID the manager placing the order
+    * @param lines the lines of the order
+    * @return the request numbers, in line order
+    * @throws java.sql.SQLException when a statement fails
+    */
+   public int[] submitSupplyRequests(final int managerID, List<SupplyLine> lines) throws SQLException {
+      final List<SupplyLine> order = new ArrayList<SupplyLine>(lines);
+      final int[] requestNumbers = new int[order.size()];
+      for (int i = 0; i < requestNumbers.length; ++i)
+         requestNumbers[i] = getNextRequestNum();
+
+      // stock rows are locked in key order, so concurrent orders touching
+      // the same products cannot deadlock.
+      final List<SupplyLine> byProduct = new ArrayList<SupplyLine>(order);
+      byProduct.sort((a, b) -> a.storeID != b.storeID
+         ? Integer.compare(a.storeID, b.storeID) : a.productName.compareTo(b.productName));
+
+      long writeStarted = System.nanoTime();
+      executeTransaction("submitSupplyRequests", conn -> {
+         PreparedStatement stmt = conn.prepare(SUPPLY_REQUEST_SQL);
+         stmt.clearBatch();
+         for (int i = 0; i < order.size(); ++i) {
+            SupplyLine line = order.get(i);
+            bind(stmt, requestNumbers[i], managerID, line.warehouseID, line.storeID, line.productName, line.units);
+            stmt.addBatch();
+         }
+         stmt.executeBatch();
+
+         stmt = conn.prepare(SUPPLY_STOCK_SQL);
+         stmt.clearBatch();
+         for (SupplyLine line : byProduct) {
+            bind(stmt, line.units, line.storeID, line.productName);
+            stmt.addBatch();
+         }
+         int[] updated = stmt.executeBatch();
+         // every line must have found its stock row; throwing rolls the
+         // whole order back.
+         for (int i = 0; i < updated.length; ++i) {
+            if (updated[i] != 1 && updated[i] != Statement.SUCCESS_NO_INFO) {
+               SupplyLine line = byProduct.get(i);
+               throw new SQLException("store " + line.storeID + " does not carry " + line.productName);
+            }
+         }
+         return null;
+      });
+
+      for (final SupplyLine line : order)
+         catalogChanged(line.storeID, line.productName, writeStarted, p -> p.withUnits(p.numberOfUnits + line.units));
+      return requestNumbers;
+   }//end submitSupplyRequests
+
+   // the user and, for a manager, one row per managed store.
+   private static final String LOG_IN_SQL =
+      "SELECT u.userID, u.name, u.type, u.latitude, u.longitude, s.storeID " +
+      "FROM Users u LEFT JOIN Store s ON s.managerID = u.userID " +
+      "WHERE u.name = ? AND u.password = ? ORDER BY u.userID";
+
+   /**
+    * Checks a user's credentials and loads everything the menus need about
+    * the user in one round trip.
+    *
+    * @param name the user name
+    * @param password the password
+    * @return the new session, or null if the credentials do not match
+    * @throws java.sql.SQLException when the query fails
+    */
+   public Session logIn(String name, String password) throws SQLException {
+      final Object[] user = { null, null, null, null, null };
+      final List<Integer> stores = new ArrayList<Integer>();
+      streamQuery(LOG_IN_SQL, row -> {
+         int userID = row.getInt(1);
+         if (user[0] == null) {
+            user[0] = userID;
+            user[1] = row.getTrimmedString(2);
+            user[2] = Role.of(row.getString(3));
+            user[3] = row.getDouble(4);
+            user[4] = row.getDouble(5);
+         } else if ((Integer) user[0] != userID) {
+            // several accounts share the credentials: the oldest one wins.
+            return;
+         }
+         int storeID = row.getInt(6);
+         if (!row.wasNull())
+            stores.add(storeID);
+      }, name, password);
+
+      if (user[0] == null)
+         return null;
+      int[] managed = new int[stores.size()];
+      for (int i = 0; i < managed.length; ++i)
+         managed[i] = stores.get(i);
+      return new Session(this, (Integer) user[0], (String) user[1], (Role) user[2],
+         (Double) user[3], (Double) user[4], managed);
+   }//end logIn
+
+   // applies a write made here, sent at System.nanoTime() writeStarted, to
+   // the cached and replicated catalogs.
+   private void catalogChanged(int storeID, String productName, long writeStarted, ProductCatalogCache.Change change) {
+      this._catalog.update(storeID, productName, writeStarted, change);
+      if (this._replica != null)
+         this._replica.update(storeID, productName, writeStarted, change);
+   }
+
+   /**
+    * Served from the catalog replica while it is fresh, else from the
+    * catalog cache; only a cache miss reads Product.
+    *
+    * @param storeID the store
+    * @return the store's products with their stock and price, unmodifiable
+    * @throws java.sql.SQLException when the catalog cannot be loaded
+    */
+   public List<ProductInfo> listProducts(int storeID) throws SQLException {
+      CatalogReplica replica = this._replica;
+      if (replica != null && replica.isFresh())
+         return replica.get(storeID);
+      return this._catalog.get(storeID);
+   }//end listProducts
+
+   /**
+    * @param storeID the store
+    * @param productName the product
+    * @return the product from the store's catalog, or null if the store
+    *         does not carry it
+    * @throws java.sql.SQLException when the catalog cannot be loaded
+    */
+   public ProductInfo findProduct(int storeID, String productName) throws SQLException {
+      CatalogReplica replica = this._replica;
+      if (replica != null && replica.isFresh())
+         return replica.find(storeID, productName);
+      return this._catalog.find(storeID, productName);
+   }//end findProduct
+
+   /**
+    * Product names are stored as padded char(30) keys in several tables;
+    * the in-memory structures (catalog cache and replica, popularity rankings,
+    * replenishment planner) key on their ID in this dictionary instead.
+    *
+    * @return the product name dictionary of this instance
+    */
+   public KeyDictionary getProductKeys() {
+      return this._productKeys;
+   }
+
+   /**
+    * @return the store catalog cache, for its statistics
+    */
+   public ProductCatalogCache getCatalogCache() {
+      return this._catalog;
+   }
+
+   /**
+    * @return the catalog replica, for its statistics, or null when
+    *         amazon.replica.poll.ms is 0
+    */
+   public CatalogReplica getCatalogReplica() {
+      return this._replica;
+   }
+
+   /**
+    * @return the statement and operation timings of this instance
+    */
+   public Metrics getMetrics() {
+      return this._metrics;
+   }
+
+   /**
+    * @return the rows per round trip (amazon.fetch.size) to pass to
+    *         streamQuery for scans of whole tables
+    */
+   public int getFetchSize() {
+      return this._fetchSize;
+   }
+
+   /**
+    * Orders and ProductUpdates are partitioned by month. The recent-activity
+    * queries first look at the last amazon.recent.window.days days only, so
+    * partition pruning leaves them the newest partitions, and read the
+    * whole history only when the window holds fewer rows than asked for.
+    *
+    * @return the start of the recent window, or null when it is disabled
+    */
+   private Timestamp recentWindowStart() {
+      if (this._recentWindowDays <= 0)
+         return null;
+      return new Timestamp(System.currentTimeMillis() - this._recentWindowDays * 86400000L);
+   }//end recentWindowStart
+
+   /**
+    * @param customerID the customer
+    * @param limit the number of orders wanted
+    * @return the customer's most recent orders, newest first
+    * @throws java.sql.SQLException when the query fails
+    */
+   public List<OrderInfo> recentOrders(int customerID, int limit) throws SQLException {
+      final List<OrderInfo> orders = new ArrayList<OrderInfo>();
+      RowHandler collect =
+         row -> orders.add(new OrderInfo(row.getInt(1), row.getInt(2), row.getTrimmedString(3), row.getInt(4), row.getTimestamp(5)));
+      Timestamp since = recentWindowStart();
+      if (since != null) {
+         streamQuery(ORDER_HISTORY_SQL + "AND orderTime >= ? ORDER BY orderTime DESC, orderNumber DESC LIMIT ?",
+            collect, customerID, since, limit);
+         if (orders.size() >= limit)
+            return orders;
+         orders.clear();
+      }
+      streamQuery(ORDER_HISTORY_SQL + "ORDER BY orderTime DESC, orderNumber DESC LIMIT ?",
+         collect, customerID, limit);
+      return orders;
+   }//end recentOrders
+
+   private static final String ORDER_HISTORY_SQL =
+      "SELECT orderNumber, storeID, productName, unitsOrdered, orderTime FROM Orders WHERE customerID = ? ";
+
+   /**
+    * One page of a customer's full order history, newest first. Pages
+    * seek past the (orderTime, orderNumber) of the previous page on the
+    * (customerID, orderTime, orderNumber) index instead of skipping rows
+    * with OFFSET, so every page costs the same however deep it is.
+    *
+    * @param customerID the customer
+    * @param cursor the nextCursor of the previous page, or null for the
+    *        newest orders
+    * @param pageSize the number of orders wanted
+    * @return the page and the cursor of the next one
+    * @throws java.sql.SQLException when the query fails
+    * @throws IllegalArgumentException when the cursor is malformed
+    */
+   public OrderPage orderHistory(int customerID, String cursor, int pageSize) throws SQLException {
+      // one row more than shown tells whether there is a next page.
+      List<OrderInfo> orders;
+      if (cursor == null) {
+         orders = recentOrders(customerID, pageSize + 1);
+      } else {
+         final List<OrderInfo> older = new ArrayList<OrderInfo>();
+         Timestamp[] orderTime = { null };
+         int orderNumber = OrderPage.parseCursor(cursor, orderTime);
+         // the plain orderTime bound is what prunes the newer partitions;
+         // the row comparison alone does not.
+         streamQuery(ORDER_HISTORY_SQL + "AND orderTime <= ? AND (orderTime, orderNumber) < (?, ?) " +
+            "ORDER BY orderTime DESC, orderNumber DESC LIMIT ?", pageSize + 1,
+            row -> older.add(new OrderInfo(row.getInt(1), row.getInt(2), row.getTrimmedString(3), row.getInt(4), row.getTimestamp(5))),
+            customerID, orderTime[0], orderTime[0], orderNumber, pageSize + 1);
+         orders = older;
+      }
+      if (orders.size() <= pageSize)
+         return new OrderPage(orders, null);
+      orders.remove(pageSize);
+      return new OrderPage(orders, OrderPage.cursorAfter(orders.get(pageSize - 1)));
+   }//end orderHistory
+
+   // the newest limit updates of each managed store, merged; the second
+   // form only looks at updates since a given time.
+   private static final String RECENT_UPDATES_SQL =
+      "SELECT u.updateNumber, u.storeID, u.productName, u.updatedOn " +
+      "FROM Store s CROSS JOIN LATERAL (" +
+         "SELECT p.updateNumber, p.storeID, p.productName, p.updatedOn FROM ProductUpdates p " +
+         "WHERE p.storeID = s.storeID ORDER BY p.updatedOn DESC, p.updateNumber DESC LIMIT ?) u " +
+      "WHERE s.managerID = ? " +
+      "ORDER BY u.updatedOn DESC, u.updateNumber DESC LIMIT ?";
+   private static final String RECENT_UPDATES_SINCE_SQL =
+      "SELECT u.updateNumber, u.storeID, u.productName, u.updatedOn " +
+      "FROM Store s CROSS JOIN LATERAL (" +
+         "SELECT p.updateNumber, p.storeID, p.productName, p.updatedOn FROM ProductUpdates p " +
+         "WHERE p.storeID = s.storeID AND p.updatedOn >= ? ORDER BY p.updatedOn DESC, p.updateNumber DESC LIMIT ?) u " +
+      "WHERE s.managerID = ? " +
+      "ORDER BY u.updatedOn DESC, u.updateNumber DESC LIMIT ?";
+
+   /**
+    * Newest entries of the update log across every store a manager runs.
+    * Each store contributes at most limit rows, read backwards from the
+    * (storeID, updatedOn, updateNumber) index, and only those are merged,
+    * so the cost depends on the limit and the number of stores, not on
+    * the length of the log.
+    *
+    * @param managerID the manager
+    * @param limit the number of updates wanted
+    * @return the updates, newest first
+    * @throws java.sql.SQLException when the query fails
+    */
+   public List<UpdateInfo> recentUpdates(int managerID, int limit) throws SQLException {
+      final List<UpdateInfo> updates = new ArrayList<UpdateInfo>();
+      RowHandler collect =
+         row -> updates.add(new UpdateInfo(row.getInt(1), row.getInt(2), row.getTrimmedString(3), row.getTimestamp(4)));
+      Timestamp since = recentWindowStart();
+      if (since != null) {
+         streamQuery(RECENT_UPDATES_SINCE_SQL, collect, since, limit, managerID, limit);
+         if (updates.size() >= limit)
+            return updates;
+         updates.clear();
+      }
+      streamQuery(RECENT_UPDATES_SQL, collect, limit, managerID, limit);
+      return updates;
+   }//end recentUpdates
+
+   /**
+    * Reads the store's product ranking from the popularity tracker; no
+    * aggregation over Orders happens unless the ranking needs seeding.
+    *
+    * @param storeID the store
+    * @param limit the number of products wanted
+    * @return the store's products ranked by units ordered
+    * @throws java.sql.SQLException when the rankings cannot be seeded
+    */
+   public List<PopularityEntry> popularProducts(int storeID, int limit) throws SQLException {
+      return this._popularity.topProducts(storeID, limit);
+   }//end popularProducts
+
+   /**
+    * @param storeID the store
+    * @param limit the number of customers wanted
+    * @return the store's customers ranked by number of orders
+    * @throws java.sql.SQLException when the rankings cannot be seeded
+    */
+   public List<PopularityEntry> popularCustomers(int storeID, int limit) throws SQLException {
+      return this._popularity.topCustomers(storeID, limit);
+   }//end popularCustomers
+
+   /**
+    * @return an unused Orders.orderNumber
+    * @throws java.sql.SQLException when a new key block cannot be reserved
+    */
+   public int getNextOrderNum() throws SQLException {
+      return this._orderIds.next();
+   }
+
+   /**
+    * @return an unused ProductSupplyRequests.requestNumber
+    * @throws java.sql.SQLException when a new key block cannot be reserved
+    */
+   public int getNextRequestNum() throws SQLException {
+      return this._requestIds.next();
+   }
+
+   /**
+    * @return an unused ProductUpdates.updateNumber
+    * @throws java.sql.SQLException when a new key block cannot be reserved
+    */
+   public int getNextUpdateNum() throws SQLException {
+      return this._updateIds.next();
+   }
 
    /**
     * The main execution method
@@ -256,7 +1111,7 @@ public class Amazon {
       Amazon esql = null;
       try{
          // use postgres JDBC driver.
-         Class.forName ("org.postgresql.Driver").newInstance();
+         Class.forName ("org.postgresql.Driver");
          // instantiate the Amazon object and creates a physical
          // connection.
          String dbname = args[0];
@@ -272,13 +1127,16 @@ public class Amazon {
             System.out.println("1. Create user");
             System.out.println("2. Log in");
             System.out.println("9. < EXIT");
-            List<String> userDetails = null;
+            Session session = null;
             switch (readChoice()){
                case 1: 
                   CreateUser(esql); 
                   break;
                case 2: 
-                  userDetails = LogIn(esql);
+                  Metrics.Operation logIn = esql.getMetrics().operation("LogIn");
+                  try (logIn) {
+                     session = LogIn(esql);
+                  }
                   break;
                case 9: 
                   keepon = false; 
@@ -287,7 +1145,7 @@ public class Amazon {
                   System.out.println("Unrecognized choice!"); 
                   break;
             }//end switch
-            if (userDetails.size() != 0) {
+            if (session != null) {
               boolean usermenu = true;
               while(usermenu) {
                 System.out.println("MAIN MENU");
@@ -303,50 +1161,49 @@ public class Amazon {
                 System.out.println("7. View 5 Popular Items");
                 System.out.println("8. View 5 Popular Customers");
                 System.out.println("9. Place Product Supply Request to Warehouse");
+                System.out.println("10. Browse order history");
 
                 System.out.println(".........................");
                 System.out.println("20. Log out");
-                switch (readChoice()){
-                   case 1:
-                     viewStores(esql, userDetails.get(0)); 
-                     break;
-                   case 2: 
-                     viewProducts(esql); 
-                     break;
-                   case 3: 
-                     placeOrder(esql, userDetails.get(0)); 
-                     break;
-                   case 4: 
-                     viewRecentOrders(esql, userDetails.get(0)); 
-                     break;
-                   case 5: 
-                     // System.out.println("User Details0: " + userDetails.get(0));
-                     // System.out.println("User Details5: " + userDetails.get(5));
-                     updateProduct(esql, userDetails.get(0), userDetails.get(5)); 
-                     break;
-                   case 6: 
-                     // System.out.println("User Details0: " + userDetails.get(0));
-                     // System.out.println("User Details5: " + userDetails.get(5));
-                     viewRecentUpdates(esql, userDetails.get(0), userDetails.get(5)); 
-                     break;
-                   case 7: 
-                     // System.out.println("User Details0: " + userDetails.get(0));
-                     // System.out.println("User Details5: " + userDetails.get(5));
-                     viewPopularProducts(esql, userDetails.get(0), userDetails.get(5)); 
-                     break;
-                   case 8: 
-                     // System.out.println("User Details0: " + userDetails.get(0));
-                     // System.out.println("User Details5: " + userDetails.get(5));
-                     viewPopularCustomers(esql, userDetails.get(0), userDetails.get(5)); 
-                     break;
-                   case 9: 
-                     // System.out.println("User Details0: " + userDetails.get(0));
-                     // System.out.println("User Details5: " + userDetails.get(5));
-                     placeProductSupplyRequests(esql, userDetails.get(0), userDetails.get(5)); 
-                     break;
-
-                   case 20: usermenu = false; break;
-                   default : System.out.println("Unrecognized choice!"); break;
+                int choice = readChoice();
+                String operation = menuOperation(choice);
+                Metrics.Operation op = operation == null ? null : esql.getMetrics().operation(operation);
+                try (op) {
+                  switch (choice){
+                     case 1:
+                       viewStores(esql, session); 
+                       break;
+                     case 2: 
+                       viewProducts(esql); 
+                       break;
+                     case 3: 
+                       placeOrder(esql, session); 
+                       break;
+                     case 4: 
+                       viewRecentOrders(esql, session); 
+                       break;
+                     case 5: 
+                       updateProduct(esql, session); 
+                       break;
+                     case 6: 
+                       viewRecentUpdates(esql, session); 
+                       break;
+                     case 7: 
+                       viewPopularProducts(esql, session); 
+                       break;
+                     case 8: 
+                       viewPopularCustomers(esql, session); 
+                       break;
+                     case 9: 
+                       placeProductSupplyRequests(esql, session); 
+                       break;
+                     case 10:
+                       viewOrderHistory(esql, session);
+                       break;
+
+                     case 20: usermenu = false; break;
+                     default : System.out.println("Unrecognized choice!"); break;
+                  }
                 }
               }
             }
@@ -374,6 +1231,23 @@ public class Amazon {
          "*******************************************************\n");
    }//end Greeting
 
+   // name under which a user menu choice is timed, or null.
+   static String menuOperation(int choice) {
+      switch (choice) {
+         case 1: return "viewStores";
+         case 2: return "viewProducts";
+         case 3: return "placeOrder";
+         case 4: return "viewRecentOrders";
+         case 5: return "updateProduct";
+         case 6: return "viewRecentUpdates";
+         case 7: return "viewPopularProducts";
+         case 8: return "viewPopularCustomers";
+         case 9: return "placeProductSupplyRequests";
+         case 10: return "viewOrderHistory";
+         default: return null;
+      }
+   }//end menuOperation
+
    /*
     * Reads the users choice given from the keyboard
     * @int
@@ -410,9 +1284,8 @@ public class Amazon {
          
          String type="Customer";
 
-			String query = String.format("INSERT INTO USERS (name, password, latitude, longitude, type) VALUES ('%s','%s', %s, %s,'%s')", name, password, latitude, longitude, type);
-
-         esql.executeUpdate(query);
+         final String query = "INSERT INTO USERS (name, password, latitude, longitude, type) VALUES (?, ?, ?, ?, ?)";
+         esql.executeUpdate(query, name, password, Double.parseDouble(latitude.trim()), Double.parseDouble(longitude.trim()), type);
          System.out.println ("User successfully created!");
       }catch(Exception e){
          System.err.println (e.getMessage ());
@@ -424,29 +1297,17 @@ public class Amazon {
     * Check log in credentials for an existing user
     * @return User login or null is the user does not exist
     **/
-   public static List<String> LogIn(Amazon esql){
+   public static Session LogIn(Amazon esql){
       try{
          System.out.print("\tEnter name: ");
          String name = in.readLine();
          System.out.print("\tEnter password: ");
          String password = in.readLine();
 
-         String query = String.format("SELECT * FROM USERS WHERE name = '%s' AND password = '%s'", name, password);
-         // int userNum = esql.executeQuery(query);
-         List<List<String>> result = esql.executeQueryAndReturnResult(query);
-
-         List<String> info = new ArrayList<>();
-         info.add(result.get(0).get(0));
-         info.add(result.get(0).get(1));
-         info.add(result.get(0).get(2));
-         info.add(result.get(0).get(3));
-         info.add(result.get(0).get(4));
-         info.add(result.get(0).get(5));
-
-	      if (info.size() > 0)
-		      return info;
-
-         return null;
+         Session session = esql.logIn(name, password);
+         if (session == null)
+            System.out.println("Invalid name or password.");
+         return session;
       }catch(Exception e){
          System.err.println(e.getMessage());
          return null;
@@ -455,32 +1316,16 @@ public class Amazon {
 
 // Rest of the functions definition go in here
 
-   public static void viewStores(Amazon esql, String userID) {
+   public static void viewStores(Amazon esql, Session session) {
       try {
-         String query = String.format("SELECT latitude, longitude FROM Users WHERE userID = '%s'", userID);
-         
-         List<List<String>> results = esql.executeQueryAndReturnResult(query);
-
-         double userLat = Double.parseDouble(results.get(0).get(0));
-         double userLong = Double.parseDouble(results.get(0).get(1));
-
-         String query2 = "SELECT storeID, latitude, longitude FROM Store";
-         List<List<String>> results2 = esql.executeQueryAndReturnResult(query2);
+         SpatialIndex.Hits nearby = session.getNearbyStores();
 
          System.out.println("Stores within 30 miles of you");
          System.out.println("-----------------------------");
-         for(int i=0; i<results2.size(); i++) {
-            List<String> record = results2.get(i);
-            String storeID = record.get(0);
-            double storeLat = Double.parseDouble(record.get(1));
-            double storeLong = Double.parseDouble(record.get(2));
-            double distance = esql.calculateDistance(storeLat, storeLong, userLat, userLong);
-            if (distance < 30) {
-                  System.out.println("Store ID: " + storeID);
-                  System.out.println("Distance: " + distance + " miles");
-                  System.out.println("-----------------------------");
-                  
-            }
+         for(int i=0; i<nearby.size; i++) {
+            System.out.println("Store ID: " + nearby.ids[i]);
+            System.out.println("Distance: " + nearby.distances[i] + " miles");
+            System.out.println("-----------------------------");
          }
 
       } catch (Exception e) {
@@ -499,18 +1344,14 @@ public class Amazon {
       }
    
       try {
-         final String query = String.format("SELECT productName, numberOfUnits, pricePerUnit FROM Product WHERE storeID = '%s'", id);
-         List<List<String>> results = esql.executeQueryAndReturnResult(query);
+         List<ProductInfo> products = esql.listProducts(id);
    
          System.out.println(String.format("Items in Store %d", id));
          System.out.println("-------------------------");
-         for (List<String> record : results) {
-            String name = record.get(0);
-            int num = Integer.parseInt(record.get(1).trim());
-            double price = Double.parseDouble(record.get(2).trim());
-            System.out.println("Item: " + name);
-            System.out.println("Units available: " + num);
-            System.out.println("Price: $" + price);
+         for (ProductInfo product : products) {
+            System.out.println("Item: " + product.productName);
+            System.out.println("Units available: " + product.numberOfUnits);
+            System.out.println("Price: $" + product.pricePerUnit);
             System.out.println("-------------------------");
          }
       } catch (Exception e) {
@@ -518,35 +1359,18 @@ public class Amazon {
       }
    }
 
-   public static void placeOrder(Amazon esql, String userID) {
+   public static void placeOrder(Amazon esql, Session session) {
       try {
-         final String userQuery = String.format("SELECT latitude, longitude FROM Users WHERE userID = '%s'", userID.trim());
-         List<List<String>> userResults = esql.executeQueryAndReturnResult(userQuery);
-
-         if (userResults.isEmpty()) {
-            System.out.println("User " + userID + " not found.");
-            return;
-         }
-
-         double userLat = Double.parseDouble(userResults.get(0).get(0));
-         double userLong = Double.parseDouble(userResults.get(0).get(1));
-
          System.out.print("Enter Store ID: ");
          int storeID = Integer.parseInt(in.readLine().trim());
 
-         final String storeQuery = String.format("SELECT latitude, longitude FROM Store WHERE storeID = '%s'", storeID);
-         List<List<String>> storeResults = esql.executeQueryAndReturnResult(storeQuery);
-
-         if (storeResults.isEmpty()) {
+         double distance = session.distanceTo(storeID);
+         if (Double.isNaN(distance)) {
             System.out.println("Store " + storeID + " not found.");
             return;
          }
 
-         double storeLat = Double.parseDouble(storeResults.get(0).get(0));
-         double storeLong = Double.parseDouble(storeResults.get(0).get(1));
-         double distance = esql.calculateDistance(storeLat, storeLong, userLat, userLong);
-
-         if (distance > 30) {
+         if (distance > STORE_RADIUS) {
          System.out.println("Store " + storeID + " is too far from the current location.");
          return;
          }
@@ -554,17 +1378,15 @@ public class Amazon {
          System.out.print("\nEnter product name: ");
          String productName = in.readLine().trim();
 
-         final String productQuery = String.format("SELECT numberOfUnits FROM Product WHERE storeID = '%s' AND productName = '%s'", storeID, productName);
-         List<List<String>> productResults = esql.executeQueryAndReturnResult(productQuery);
+         ProductInfo product = esql.findProduct(storeID, productName);
 
-         if (productResults.isEmpty()) {
+         if (product == null) {
          System.out.println("Product " + productName + " not found at Store " + storeID + '.');
          return;
          }
 
-         int availableUnits = Integer.parseInt(productResults.get(0).get(0));
-
-         if (availableUnits == 0) {
+         int availableUnits = product.numberOfUnits;
+         if (availableUnits <= 0) {
          System.out.println("Product " + productName + " out of stock at Store " + storeID + '.');
          return;
          }
@@ -572,38 +1394,35 @@ public class Amazon {
          System.out.print("\n" + availableUnits + " units available. Enter amount of units to purchase: ");
          int unitsToPurchase = Integer.parseInt(in.readLine().trim());
   
-         if (unitsToPurchase > availableUnits) {
-         System.out.println("Not enough units available.");
-         return;
+         OrderResult result = esql.submitOrder(session.userID, storeID, productName, unitsToPurchase);
+         switch (result.status) {
+            case PLACED:
+               System.out.println("Order " + result.orderNumber + " placed!");
+               break;
+            case INSUFFICIENT_STOCK:
+               System.out.println("Not enough units available (" + result.availableUnits + " left).");
+               break;
+            case UNKNOWN_PRODUCT:
+               System.out.println("Product " + productName + " not found at Store " + storeID + '.');
+               break;
+            default:
+               System.out.println("Please enter a positive number of units.");
+               break;
          }
-
-         Timestamp orderTime = new Timestamp(new java.util.Date().getTime());
-         final String orderQuery = String.format(
-         "INSERT INTO Orders (orderNumber, customerID, storeID, productName, unitsOrdered, orderTime) VALUES ('%s', '%s', '%s', '%s', '%s', '%s')",
-         esql.getNextOrderNum(), userID, storeID, productName, unitsToPurchase, orderTime
-         );
-  
-         esql.executeUpdate(orderQuery);
-         System.out.println("Order placed!");
       } catch (Exception e) {
          System.err.println("An error occurred: " + e.getMessage());
       }
   }
 
-   public static void viewRecentOrders(Amazon esql, String userID) {
+   public static void viewRecentOrders(Amazon esql, Session session) {
       try {
-         final String query = String.format("SELECT storeID, productName, unitsOrdered, orderTime FROM Orders WHERE customerID = '%s' ORDER BY orderTime DESC LIMIT 5", userID);
-         List<List<String>> results = esql.executeQueryAndReturnResult(query);
+         List<OrderInfo> orders = esql.recentOrders(session.userID, 5);
 
          System.out.println("\nRecent Orders");
          System.out.println("---------------");
-         for (List<String> record : results) {
-            String storeID = record.get(0);
-            String productName = record.get(1);
-            int unitsOrdered = Integer.parseInt(record.get(2));
-            String date = record.get(3);
-
-            System.out.printf("Store ID: %s%nProduct Name: %s%nUnits Ordered: %d%nDate Ordered: %s%n", storeID, productName, unitsOrdered, date);
+         for (OrderInfo order : orders) {
+            System.out.printf("Store ID: %d%nProduct Name: %s%nUnits Ordered: %d%nDate Ordered: %s%n",
+               order.storeID, order.productName, order.unitsOrdered, order.orderTime);
             System.out.println("---------------");
          }
       } catch (Exception e) {
@@ -611,97 +1430,104 @@ public class Amazon {
       }
   }
 
-   public static void updateProduct(Amazon esql, String userID, String type) {
-      if (!type.trim().equals("manager")) {
+   // orders shown per page of the order history.
+   private static final int HISTORY_PAGE_SIZE = 10;
+
+   public static void viewOrderHistory(Amazon esql, Session session) {
+      try {
+         String cursor = null;
+         int shown = 0;
+         System.out.println("\nOrder History");
+         System.out.println("---------------");
+         do {
+            OrderPage page = esql.orderHistory(session.userID, cursor, HISTORY_PAGE_SIZE);
+            for (OrderInfo order : page.orders) {
+               System.out.printf("Order %d%nStore ID: %d%nProduct Name: %s%nUnits Ordered: %d%nDate Ordered: %s%n",
+                  order.orderNumber, order.storeID, order.productName, order.unitsOrdered, order.orderTime);
+               System.out.println("---------------");
+            }
+            shown += page.orders.size();
+            cursor = page.nextCursor;
+            if (cursor == null) {
+               System.out.println(shown == 0 ? "No orders yet." : "End of order history (" + shown + " orders).");
+               break;
+            }
+            System.out.print("Press Enter for older orders, or q to stop: ");
+            String answer = in.readLine();
+            if (answer == null || answer.trim().equalsIgnoreCase("q"))
+               break;
+         } while (true);
+      } catch (Exception e) {
+         System.err.println("An error occurred while viewing the order history: " + e.getMessage());
+      }
+   }//end viewOrderHistory
+
+   public static void updateProduct(Amazon esql, Session session) {
+      if (!session.isManager()) {
           System.out.println("Invalid permissions.\n");
           return;
       }
   
       try {
-          final String query = String.format("SELECT storeID FROM Store WHERE managerID = '%s'", userID);
-          List<List<String>> result = esql.executeQueryAndReturnResult(query);
+          int[] stores = session.getManagedStores();
   
-          if (result.isEmpty()) {
+          if (stores.length == 0) {
               System.out.println("You don't manage any stores.");
               return;
           }
   
           System.out.println("Stores you manage: ");
           System.out.println("-------------------");
-          for (List<String> record : result) {
-              System.out.println("Store ID: " + record.get(0));
+          for (int store : stores) {
+              System.out.println("Store ID: " + store);
           }
   
           System.out.println("-------------------\n");
           System.out.print("Enter store ID to update products: ");
-          String storeID = in.readLine().trim(); 
+          int storeID = Integer.parseInt(in.readLine().trim());
   
-          final String listProductsQuery = String.format("SELECT productName FROM Product WHERE storeID = '%s'", storeID);
-          List<List<String>> products = esql.executeQueryAndReturnResult(listProductsQuery);
+          List<ProductInfo> products = esql.listProducts(storeID);
   
-          System.out.printf("Products available at Store %s:%n-------------------\n", storeID);
-          for (List<String> product : products) {
-              System.out.printf("%s\n-------------------\n", product.get(0));
+          System.out.printf("Products available at Store %d:%n-------------------\n", storeID);
+          for (ProductInfo product : products) {
+              System.out.printf("%s\n-------------------\n", product.productName);
           }
   
           System.out.print("Enter product name to update: ");
           String updateName = in.readLine().trim();
   
           System.out.print("Enter updated number of units: ");
-          String updateNum = in.readLine().trim(); 
+          int updateNum = Integer.parseInt(in.readLine().trim());
   
           System.out.print("Enter updated price per unit: ");
-          String updatePrice = in.readLine().trim();
-  
-          final String updateQuery = String.format("UPDATE Product SET numberOfUnits = '%s', pricePerUnit = '%s' WHERE storeID = '%s' AND productName = '%s'", updateNum, updatePrice, storeID, updateName);
-          esql.executeUpdate(updateQuery);
+          double updatePrice = Double.parseDouble(in.readLine().trim());
   
-          Timestamp updateTime = new Timestamp(new java.util.Date().getTime());
-          final String productUpdateQuery = String.format("INSERT INTO ProductUpdates (managerID, storeID, productName, updatedOn) VALUES ('%s', '%s', '%s', '%s')", userID, storeID, updateName, updateTime);
-          esql.executeUpdate(productUpdateQuery);
+          if (!esql.applyProductUpdate(session.userID, storeID, updateName, updateNum, updatePrice)) {
+             System.out.printf("Store %d does not carry %s.%n", storeID, updateName);
+             return;
+          }
   
-          System.out.printf("Successfully updated %s in Store %s%n---------\n", updateName, storeID);
+          System.out.printf("Successfully updated %s in Store %d%n---------\n", updateName, storeID);
       } catch (Exception e) {
          System.err.println("An error occurred while updating product: " + e.getMessage());
       }
   }  
 
-   public static void viewRecentUpdates(Amazon esql, String userID, String type) {
-      if(!type.trim().equals("manager")){
+   public static void viewRecentUpdates(Amazon esql, Session session) {
+      if(!session.isManager()){
          System.err.println("Invalid permissions.\n");
          return;
       }
       
       try{
-         String query = String.format("SELECT storeID from Store WHERE managerID = '%s'", userID);
-         List<List<String>> stores = esql.executeQueryAndReturnResult(query);
-         List<List<String>> recentUpdates = new ArrayList<>();
-
-         for(List<String> store: stores){
-            int storeID = Integer.parseInt(store.get(0));
-
-            String getUpdatesQuery = String.format("SELECT productName, updatedOn FROM ProductUpdates WHERE storeID = '%s' ORDER BY updatedOn", storeID);
-            List<List<String>> updates = esql.executeQueryAndReturnResult(getUpdatesQuery);
-
-            for(List<String> update: updates){
-               update.add(0, String.valueOf(storeID));
-            }
-
-            recentUpdates.addAll(updates);
-         }
-
-         recentUpdates.sort((update1, update2) -> {
-            Timestamp first = Timestamp.valueOf(update1.get(2));
-            Timestamp second = Timestamp.valueOf(update2.get(2));
-            return second.compareTo(first);
-         });
+         List<UpdateInfo> recentUpdates = esql.recentUpdates(session.userID, 5);
 
          System.out.println("\nRecent Updates: ");
          System.out.println("------------------");
-         for(int i=0; i<5; i++){
-            System.out.println("Store ID: " + recentUpdates.get(0));
-            System.out.println("Product name: " + recentUpdates.get(1));
-            System.out.println("Updated On: " + recentUpdates.get(2));
+         for(UpdateInfo update : recentUpdates){
+            System.out.println("Store ID: " + update.storeID);
+            System.out.println("Product name: " + update.productName);
+            System.out.println("Updated On: " + update.updatedOn);
             System.out.println("------------------");
          }
          System.out.println();
@@ -710,40 +1536,38 @@ public class Amazon {
       }
    }
 
-   public static void viewPopularProducts(Amazon esql, String userID, String type) {
-      if(!type.trim().equals("manager")){
+   public static void viewPopularProducts(Amazon esql, Session session) {
+      if(!session.isManager()){
          System.err.println("Invalid permissions.\n");
          return;
       }
 
       try {
-         String query = String.format("SELECT storeID from Store WHERE managerID = '%s'", userID);
-         List<List<String>> result = esql.executeQueryAndReturnResult(query);
+         int[] stores = session.getManagedStores();
 
-         if (result.size() == 0) {
+         if (stores.length == 0) {
              System.out.println("You don't manage any stores.");
              return;
          }
 
          System.out.println("Stores you manage: ");
          System.out.println("-------------------");  
-         for (List<String> record : result) {
-             System.out.println("Store ID: " + record.get(0));
+         for (int store : stores) {
+             System.out.println("Store ID: " + store);
          }
 
          System.out.println("-------------------\n");  
          
          System.out.print("Enter store ID to view popular products: ");
-         String storeID = in.readLine();
+         int storeID = Integer.parseInt(in.readLine().trim());
 
-         String query2 = String.format("SELECT productName, SUM(unitsOrdered) AS totalOrdered FROM Orders WHERE storeID = '%s' GROUP BY productName ORDER BY totalOrdered DESC LIMIT 5", storeID);
-         List<List<String>> result2 = esql.executeQueryAndReturnResult(query2);
+         List<PopularityEntry> result2 = esql.popularProducts(storeID, 5);
 
          System.out.println("\nMost popular products at Store " + storeID);
          System.out.println("-------------------------------------------");
-         for (List<String> record : result2) {
-             System.out.println("Product name: " + record.get(0));
-             System.out.println("Total ordered: " + record.get(1));
+         for (PopularityEntry record : result2) {
+             System.out.println("Product name: " + record.name);
+             System.out.println("Total ordered: " + record.count);
 
              System.out.println("-------------------------------------------");   
          }
@@ -755,41 +1579,39 @@ public class Amazon {
      }
    }
 
-   public static void viewPopularCustomers(Amazon esql, String userID, String type) {
-      if(!type.trim().equals("manager")){
+   public static void viewPopularCustomers(Amazon esql, Session session) {
+      if(!session.isManager()){
          System.err.println("Invalid permissions.\n");
          return;
       }
 
       try {
-         String query = String.format("SELECT storeID from Store WHERE managerID = '%s'", userID);
-         List<List<String>> result = esql.executeQueryAndReturnResult(query);
+         int[] stores = session.getManagedStores();
 
-         if (result.size() == 0) {
+         if (stores.length == 0) {
              System.out.println("You do not manage any stores.");
              return;
          }
 
          System.out.println("Here are the stores you manage: ");
          System.out.println("--------------------------------");  
-         for (List<String> record : result) {
-             System.out.println("Store ID: " + record.get(0));
+         for (int store : stores) {
+             System.out.println("Store ID: " + store);
          }
 
          System.out.println("--------------------------------\n");  
          
          System.out.print("Enter store ID to view popular customers: ");
-         String storeID = in.readLine();
+         int storeID = Integer.parseInt(in.readLine().trim());
 
-         String query2 = String.format("SELECT u.userID, u.name, COUNT(o.orderNumber) AS orderCount FROM Users u JOIN Orders o ON u.userID = o.customerID WHERE o.storeID = '%s' GROUP BY u.userID, u.name ORDER BY orderCount DESC LIMIT 5", storeID);
-         List<List<String>> result2 = esql.executeQueryAndReturnResult(query2);
+         List<PopularityEntry> result2 = esql.popularCustomers(storeID, 5);
 
          System.out.println("\nMost popular customers at Store " + storeID);
          System.out.println("--------------------------------------------");
-         for (List<String> record : result2) {
-             System.out.println("Customer ID: " + record.get(0));
-             System.out.println("Name: " + record.get(1));
-             System.out.println("Order count: " + record.get(2));
+         for (PopularityEntry record : result2) {
+             System.out.println("Customer ID: " + record.id);
+             System.out.println("Name: " + record.name);
+             System.out.println("Order count: " + record.count);
              System.out.println("--------------------------------------------");    
          }
 
@@ -800,8 +1622,8 @@ public class Amazon {
      }
    }
 
-   public static void placeProductSupplyRequests(Amazon esql, String userID, String type) {
-      if(!type.trim().equals("manager")){
+   public static void placeProductSupplyRequests(Amazon esql, Session session) {
+      if(!session.isManager()){
          System.err.println("Invalid permissions.\n");
          return;
       }
@@ -811,30 +1633,37 @@ public class Amazon {
          System.out.print("Enter store ID: ");
          int storeID = Integer.parseInt(in.readLine());
 
-         String listProductsQuery = String.format("SELECT productname FROM Product WHERE storeID = '%s'", storeID);
-         List<List<String>> products = esql.executeQueryAndReturnResult(listProductsQuery);
+         List<ProductInfo> products = esql.listProducts(storeID);
 
          System.out.println("Products availabe at Store " + storeID + ":");
          System.out.println("-------------------------------------------");
-         for (List<String> product : products) {
-             System.out.println(product.get(0));
+         for (ProductInfo product : products) {
+             System.out.println(product.productName);
              System.out.println("-------------------------------------------");
          }
 
-         System.out.print("Enter desired Product to supply: ");
-         String product = in.readLine();
-         System.out.print("Enter Number of Units needed: ");
-         String numUnits = in.readLine();
-         System.out.print("Enter Warehouse ID: ");
-         String warehouseID = in.readLine();
+         List<SupplyLine> lines = new ArrayList<SupplyLine>();
+         while (true) {
+            System.out.print("Enter desired Product to supply (empty to finish): ");
+            String product = in.readLine().trim();
+            if (product.isEmpty())
+               break;
+            System.out.print("Enter Number of Units needed: ");
+            int numUnits = Integer.parseInt(in.readLine().trim());
+            System.out.print("Enter Warehouse ID: ");
+            int warehouseID = Integer.parseInt(in.readLine().trim());
+            lines.add(new SupplyLine(storeID, product, numUnits, warehouseID));
+         }
 
-         String  supplyQuery = String.format("INSERT INTO ProductSupplyRequests (managerID, warehouseID, storeID, productName, unitsRequested) VALUES ('%s', '%s', '%s', '%s', '%s')", userID, warehouseID, storeID, product, numUnits);
-         esql.executeUpdate(supplyQuery);
+         if (lines.isEmpty()) {
+            System.out.println("No supply request placed.");
+            return;
+         }
 
-         String updateProductQuery = String.format("UPDATE Product SET numberOfUnits = numberOfUnits + %s WHERE storeID = %s AND productName = '%s'", numUnits, storeID, product);
-         esql.executeUpdate(updateProductQuery);
+         int[] requests = esql.submitSupplyRequests(session.userID, lines);
 
-         System.out.println("Product Supply Request for " + product + " has been placed sucessfully.");
+         for (int i = 0; i < lines.size(); ++i)
+            System.out.println("Product Supply Request " + requests[i] + " for " + lines.get(i).productName + " has been placed sucessfully.");
          System.out.println();
 
      } catch (Exception e) {
@@ -0,0 +1,376 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Serves the menu operations to many clients at once over a plain TCP
+ * line protocol. Every client connection is handled on its own thread
+ * (a virtual thread where the JVM has them) and all of them share the
+ * Amazon instance and its connection pool, so a connection is only held
+ * while a statement runs.
+ *
+ * Requests and responses are comma separated lines, quoted like the CSV
+ * files. A request is a command and its arguments:
+ *
+ *    login,<name>,<password>
+ *    stores
+ *    products,<storeID>
+ *    order,<storeID>,<productName>,<units>
+ *    orders
+ *    history[,<cursor>]
+ *    update,<storeID>,<productName>,<units>,<price>             (manager)
+ *    updates                                                    (manager)
+ *    popular-products,<storeID>                                 (manager)
+ *    popular-customers,<storeID>                                (manager)
+ *    supply,<storeID>,<productName>,<units>,<warehouseID>[,...] (manager)
+ *    logout
+ *    quit
+ *
+ * The answer is either "OK,<n>" followed by n result lines, or
+ * "ERR,<message>". Manager commands only act on stores the manager runs.
+ * A history page ends with a "cursor,<token>" line when there are older
+ * orders; send the token back to read them.
+ */
+public class AmazonServer {
+
+   // commands timed under their own name.
+   private static final Set<String> COMMANDS = new HashSet<String>(Arrays.asList(
+      "login", "logout", "stores", "products", "order", "orders", "history", "update", "updates",
+      "popular-products", "popular-customers", "supply"));
+
+   // orders per history page.
+   private static final int HISTORY_PAGE_SIZE = 50;
+
+   private final Amazon esql;
+   private final ServerSocket socket;
+   private final ExecutorService sessions;
+   private final AtomicInteger connected = new AtomicInteger();
+
+   /**
+    * @param esql the database to serve
+    * @param socket the bound listening socket
+    */
+   public AmazonServer(Amazon esql, ServerSocket socket) {
+      this.esql = esql;
+      this.socket = socket;
+      this.sessions = newSessionExecutor();
+   }//end AmazonServer
+
+   // a virtual thread per session when the runtime has them (Java 21+),
+   // otherwise a platform thread per session.
+   static ExecutorService newSessionExecutor() {
+      try {
+         return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+      } catch (ReflectiveOperationException e) {
+         return Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "session");
+            t.setDaemon(true);
+            return t;
+         });
+      }
+   }//end newSessionExecutor
+
+   /**
+    * Accepts clients until the socket is closed.
+    *
+    * @throws java.io.IOException when accepting fails
+    */
+   public void serve() throws IOException {
+      while (true) {
+         final Socket client;
+         try {
+            client = this.socket.accept();
+         } catch (SocketException e) {
+            if (this.socket.isClosed())
+               return;
+            throw e;
+         }
+         this.sessions.execute(() -> handle(client));
+      }
+   }//end serve
+
+   /**
+    * @return the number of clients currently connected
+    */
+   public int getConnected() {
+      return this.connected.get();
+   }
+
+   /**
+    * Stops accepting clients and ends the running sessions.
+    */
+   public void shutdown() {
+      try {
+         this.socket.close();
+      } catch (IOException e) {
+         // ignored.
+      }
+      this.sessions.shutdownNow();
+   }//end shutdown
+
+   // one client connection: reads requests until quit or end of input.
+   private void handle(Socket client) {
+      this.connected.incrementAndGet();
+      try (Socket c = client;
+           CsvReader requests = new CsvReader(new InputStreamReader(c.getInputStream(), StandardCharsets.UTF_8), false);
+           Writer out = new BufferedWriter(new OutputStreamWriter(c.getOutputStream(), StandardCharsets.UTF_8))) {
+         Session session = null;
+         String[] request;
+         while ((request = requests.next()) != null) {
+            String command = request[0].trim();
+            if (command.equals("quit"))
+               break;
+            List<Object[]> rows = new ArrayList<Object[]>();
+            try (Metrics.Operation op = this.esql.getMetrics().operation(
+                    COMMANDS.contains(command) ? "server " + command : "server unknown")) {
+               try {
+                  session = run(session, command, request, rows);
+               } catch (IllegalArgumentException e) {
+                  // a refused request, not a failure of the server.
+                  op.reject();
+                  throw e;
+               } catch (Exception e) {
+                  op.fail();
+                  throw e;
+               }
+               write(out, "OK", rows.size());
+               for (Object[] row : rows)
+                  write(out, row);
+            } catch (IllegalArgumentException e) {
+               write(out, "ERR", e.getMessage());
+            } catch (Exception e) {
+               write(out, "ERR", "failed: " + e.getMessage());
+            }
+            out.flush();
+         }
+      } catch (IOException e) {
+         // the client went away.
+      } finally {
+         this.connected.decrementAndGet();
+      }
+   }//end handle
+
+   // runs one request; returns the session in effect afterwards.
+   private Session run(Session session, String command, String[] request, List<Object[]> rows) throws Exception {
+      if (command.equals("login")) {
+         arguments(request, 2);
+         session = this.esql.logIn(request[1], request[2]);
+         if (session == null)
+            throw new IllegalArgumentException("invalid name or password");
+         rows.add(new Object[] { session.userID, session.name, session.role });
+      } else if (command.equals("logout")) {
+         session = null;
+      } else if (session == null) {
+         throw new IllegalArgumentException("not logged in");
+      } else {
+         execute(session, command, request, rows);
+      }
+      return session;
+   }//end run
+
+   // runs one command of a logged-in user, adding its result lines to rows.
+   private void execute(Session session, String command, String[] request, List<Object[]> rows) throws Exception {
+      switch (command) {
+         case "stores": {
+            arguments(request, 0);
+            SpatialIndex.Hits nearby = session.getNearbyStores();
+            for (int i = 0; i < nearby.size; ++i)
+               rows.add(new Object[] { nearby.ids[i], nearby.distances[i] });
+            return;
+         }
+         case "products": {
+            arguments(request, 1);
+            for (ProductInfo p : this.esql.listProducts(intArg(request, 1)))
+               rows.add(new Object[] { p.productName, p.numberOfUnits, p.pricePerUnit });
+            return;
+         }
+         case "order": {
+            arguments(request, 3);
+            int storeID = intArg(request, 1);
+            double distance = session.distanceTo(storeID);
+            if (Double.isNaN(distance))
+               throw new IllegalArgumentException("store " + storeID + " not found");
+            if (distance > Amazon.STORE_RADIUS)
+               throw new IllegalArgumentException("store " + storeID + " is too far away");
+            OrderResult result = this.esql.submitOrder(session.userID, storeID, request[2].trim(), intArg(request, 3));
+            if (!result.isPlaced())
+               throw new IllegalArgumentException(result.status.name().toLowerCase()
+                  + (result.status == OrderResult.Status.INSUFFICIENT_STOCK ? " (" + result.availableUnits + " left)" : ""));
+            rows.add(new Object[] { result.orderNumber });
+            return;
+         }
+         case "orders": {
+            arguments(request, 0);
+            for (OrderInfo o : this.esql.recentOrders(session.userID, 5))
+               rows.add(new Object[] { o.orderNumber, o.storeID, o.productName, o.unitsOrdered, o.orderTime });
+            return;
+         }
+         case "history": {
+            if (request.length > 2)
+               throw new IllegalArgumentException("history takes at most 1 argument(s)");
+            OrderPage page = this.esql.orderHistory(session.userID,
+               request.length == 2 ? request[1] : null, HISTORY_PAGE_SIZE);
+            for (OrderInfo o : page.orders)
+               rows.add(new Object[] { o.orderNumber, o.storeID, o.productName, o.unitsOrdered, o.orderTime });
+            if (page.hasMore())
+               rows.add(new Object[] { "cursor", page.nextCursor });
+            return;
+         }
+         default:
+            break;
+      }
+
+      if (!session.isManager())
+         throw new IllegalArgumentException("unknown command '" + command + "' or not a manager");
+      switch (command) {
+         case "update": {
+            arguments(request, 4);
+            int storeID = managedStore(session, request, 1);
+            String product = request[2].trim();
+            if (!this.esql.applyProductUpdate(session.userID, storeID, product, intArg(request, 3),
+                                              Double.parseDouble(request[4].trim())))
+               throw new IllegalArgumentException("store " + storeID + " does not carry " + product);
+            return;
+         }
+         case "updates": {
+            arguments(request, 0);
+            for (UpdateInfo u : this.esql.recentUpdates(session.userID, 5))
+               rows.add(new Object[] { u.updateNumber, u.storeID, u.productName, u.updatedOn });
+            return;
+         }
+         case "popular-products": {
+            arguments(request, 1);
+            for (PopularityEntry e : this.esql.popularProducts(managedStore(session, request, 1), 5))
+               rows.add(new Object[] { e.name, e.count });
+            return;
+         }
+         case "popular-customers": {
+            arguments(request, 1);
+            for (PopularityEntry e : this.esql.popularCustomers(managedStore(session, request, 1), 5))
+               rows.add(new Object[] { e.id, e.name, e.count });
+            return;
+         }
+         case "supply": {
+            if (request.length < 5 || (request.length - 1) % 4 != 0)
+               throw new IllegalArgumentException("supply takes groups of storeID,productName,units,warehouseID");
+            List<SupplyLine> lines = new ArrayList<SupplyLine>();
+            for (int i = 1; i < request.length; i += 4)
+               lines.add(new SupplyLine(managedStore(session, request, i), request[i + 1].trim(),
+                                        intArg(request, i + 2), intArg(request, i + 3)));
+            for (int requestNumber : this.esql.submitSupplyRequests(session.userID, lines))
+               rows.add(new Object[] { requestNumber });
+            return;
+         }
+         default:
+            throw new IllegalArgumentException("unknown command '" + command + "'");
+      }
+   }//end execute
+
+   private static void arguments(String[] request, int count) {
+      if (request.length != count + 1)
+         throw new IllegalArgumentException(request[0].trim() + " takes " + count + " argument(s)");
+   }
+
+   private static int intArg(String[] request, int i) {
+      try {
+         return Integer.parseInt(request[i].trim());
+      } catch (NumberFormatException e) {
+         throw new IllegalArgumentException("not a number: '" + request[i] + "'");
+      }
+   }//end intArg
+
+   private static int managedStore(Session session, String[] request, int i) {
+      int storeID = intArg(request, i);
+      if (!session.manages(storeID))
+         throw new IllegalArgumentException("you do not manage store " + storeID);
+      return storeID;
+   }//end managedStore
+
+   // writes one line, quoting fields that need it.
+   private static void write(Writer out, Object... fields) throws IOException {
+      StringBuilder line = new StringBuilder();
+      for (int i = 0; i < fields.length; ++i) {
+         if (i > 0)
+            line.append(',');
+         String v = String.valueOf(fields[i]);
+         if (v.indexOf(',') >= 0 || v.indexOf('"') >= 0 || v.indexOf('\n') >= 0)
+            line.append('"').append(v.replace("\"", "\"\"").replace('\n', ' ')).append('"');
+         else
+            line.append(v);
+      }
+      out.write(line.append('\n').toString());
+   }//end write
+
+   public static void main(String[] args) {
+      if (args.length < 3) {
+         System.err.println(
+            "Usage: " +
+            "java [-classpath <classpath>] " +
+            AmazonServer.class.getName() +
+            " <dbname> <port> <user> [--listen <port>] [--bind <address>]");
+         return;
+      }
+
+      int listen = 8166;
+      String bind = "127.0.0.1";
+      for (int i = 3; i + 1 < args.length; i += 2) {
+         if (args[i].equals("--listen"))
+            listen = Integer.parseInt(args[i + 1]);
+         else if (args[i].equals("--bind"))
+            bind = args[i + 1];
+         else {
+            System.err.println("Unknown option " + args[i]);
+            return;
+         }
+      }
+
+      // sessions only hold a connection while a statement runs.
+      if (System.getProperty("amazon.pool.size") == null)
+         System.setProperty("amazon.pool.size", "32");
+
+      Amazon esql = null;
+      AmazonServer server = null;
+      try {
+         Class.forName("org.postgresql.Driver");
+         esql = new Amazon(args[0], args[1], args[2], "");
+         server = new AmazonServer(esql, new ServerSocket(listen, 1024, InetAddress.getByName(bind)));
+         // on interrupt, stop serving and let main clean up (which drains
+         // the audit log) before the JVM exits.
+         final AmazonServer running = server;
+         final Thread mainThread = Thread.currentThread();
+         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            running.shutdown();
+            try {
+               mainThread.join(10000);
+            } catch (InterruptedException e) {
+               // exiting anyway.
+            }
+         }));
+         System.out.println("Serving on " + bind + ":" + listen);
+         server.serve();
+      } catch (Exception e) {
+         System.err.println(e.getMessage());
+      } finally {
+         if (server != null)
+            server.shutdown();
+         if (esql != null)
+            esql.cleanup();
+      }
+   }//end main
+
+}//end AmazonServer
@@ -0,0 +1,257 @@
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Write-behind queue for the ProductUpdates audit log. Recorded entries
+ * go to a bounded queue; one writer thread drains it and inserts whatever
+ * has accumulated, up to the batch size, as one JDBC batch in one
+ * transaction, so a burst of product updates costs one commit per batch
+ * rather than one per row. A full queue blocks the recording thread until
+ * the writer catches up.
+ *
+ * A batch that fails is retried, then written one entry per statement, so
+ * only an entry the database itself refuses is dropped (and reported with
+ * its contents). An entry is still lost if the process dies before the
+ * writer commits it; callers that cannot accept that write the entry
+ * themselves in the same transaction as the change it records (see
+ * Amazon.applyProductUpdate, the default). close() drains the queue
+ * before returning; entries recorded after it are written synchronously.
+ */
+public class AuditLog {
+
+   /**
+    * How product updates are recorded in ProductUpdates.
+    */
+   public enum Durability {
+      // queued and written behind in batches.
+      ASYNC,
+      // written in the transaction of the update itself.
+      SYNC
+   }
+
+   private static final class Entry {
+      final int updateNumber;
+      final int managerID;
+      final int storeID;
+      final String productName;
+      final Timestamp updatedOn;
+
+      Entry(int updateNumber, int managerID, int storeID, String productName, Timestamp updatedOn) {
+         this.updateNumber = updateNumber;
+         this.managerID = managerID;
+         this.storeID = storeID;
+         this.productName = productName;
+         this.updatedOn = updatedOn;
+      }
+   }//end Entry
+
+   // attempts at a failed batch before it is written entry by entry.
+   private static final int BATCH_ATTEMPTS = 3;
+   private static final long RETRY_PAUSE_MS = 100;
+
+   static final String INSERT_SQL =
+      "INSERT INTO ProductUpdates (updateNumber, managerID, storeID, productName, updatedOn) VALUES (?, ?, ?, ?, ?)";
+
+   private final Amazon esql;
+   private final int maxBatch;
+   private final BlockingQueue<Entry> queue;
+   private final Thread writer;
+
+   private volatile boolean closed = false;
+   // read-held while an entry is queued, write-held to close, so no entry
+   // can be queued behind the final drain.
+   private final ReentrantReadWriteLock accepting = new ReentrantReadWriteLock();
+
+   // entries recorded but not yet committed or dropped; guarded by this.
+   private long pending = 0;
+
+   private final AtomicLong written = new AtomicLong();
+   private final AtomicLong batches = new AtomicLong();
+   private final AtomicLong dropped = new AtomicLong();
+
+   /**
+    * @param esql the database holding ProductUpdates
+    * @param capacity maximum number of entries waiting to be written
+    * @param maxBatch maximum number of entries per transaction
+    */
+   public AuditLog(Amazon esql, int capacity, int maxBatch) {
+      this.esql = esql;
+      this.maxBatch = Math.max(1, maxBatch);
+      this.queue = new ArrayBlockingQueue<Entry>(Math.max(1, capacity));
+      this.writer = new Thread(this::drain, "audit-writer");
+      this.writer.setDaemon(true);
+      this.writer.start();
+   }//end AuditLog
+
+   /**
+    * Queues an audit entry, waiting for room if the queue is full. Once the
+    * log is closed the entry is written synchronously instead.
+    *
+    * @param updateNumber the entry's key
+    * @param managerID the manager who made the change
+    * @param storeID the store changed
+    * @param productName the product changed
+    * @param updatedOn when the change was made
+    * @throws java.sql.SQLException when the log is closed and the entry
+    *         cannot be written
+    */
+   public void record(int updateNumber, int managerID, int storeID, String productName, Timestamp updatedOn) throws SQLException {
+      Entry entry = new Entry(updateNumber, managerID, storeID, productName, updatedOn);
+      this.accepting.readLock().lock();
+      try {
+         if (!this.closed) {
+            synchronized (this) {
+               this.pending++;
+            }
+            try {
+               this.queue.put(entry);
+               return;
+            } catch (InterruptedException e) {
+               Thread.currentThread().interrupt();
+               done(1);
+            }
+         }
+      } finally {
+         this.accepting.readLock().unlock();
+      }
+      this.esql.executeUpdate(INSERT_SQL, updateNumber, managerID, storeID, productName, updatedOn);
+   }//end record
+
+   /**
+    * Waits until every entry recorded so far has been written or dropped.
+    *
+    * @throws java.lang.InterruptedException when interrupted while waiting
+    */
+   public synchronized void flush() throws InterruptedException {
+      while (this.pending > 0)
+         wait();
+   }
+
+   /**
+    * Stops accepting entries, writes everything still queued and stops the
+    * writer thread.
+    */
+   public void close() {
+      this.accepting.writeLock().lock();
+      try {
+         this.closed = true;
+      } finally {
+         this.accepting.writeLock().unlock();
+      }
+      try {
+         this.writer.join();
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+      }
+      // entries queued while the writer was exiting.
+      List<Entry> rest = new ArrayList<Entry>();
+      this.queue.drainTo(rest);
+      if (!rest.isEmpty()) {
+         write(rest);
+         done(rest.size());
+      }
+   }//end close
+
+   /**
+    * @return the number of entries committed
+    */
+   public long getWritten() {
+      return this.written.get();
+   }
+
+   /**
+    * @return the number of transactions used to commit them
+    */
+   public long getBatches() {
+      return this.batches.get();
+   }
+
+   /**
+    * @return the number of entries the database refused
+    */
+   public long getDropped() {
+      return this.dropped.get();
+   }
+
+   // writer thread: waits for an entry, then takes whatever else is queued.
+   private void drain() {
+      List<Entry> batch = new ArrayList<Entry>(this.maxBatch);
+      while (true) {
+         Entry first;
+         try {
+            first = this.queue.poll(100, TimeUnit.MILLISECONDS);
+         } catch (InterruptedException e) {
+            first = null;
+         }
+         if (first == null) {
+            if (this.closed && this.queue.isEmpty())
+               return;
+            continue;
+         }
+         batch.add(first);
+         this.queue.drainTo(batch, this.maxBatch - 1);
+         write(batch);
+         done(batch.size());
+         batch.clear();
+      }
+   }//end drain
+
+   private void write(final List<Entry> batch) {
+      for (int attempt = 1; attempt <= BATCH_ATTEMPTS; ++attempt) {
+         try {
+            writeBatch(batch);
+            return;
+         } catch (SQLException e) {
+            System.err.println("Could not write " + batch.size() + " product update audit entries (attempt " + attempt
+               + " of " + BATCH_ATTEMPTS + "): " + e.getMessage());
+         }
+         try {
+            Thread.sleep(RETRY_PAUSE_MS * attempt);
+         } catch (InterruptedException e) {
+            // the entries are still written, one by one.
+            break;
+         }
+      }
+      // one refused entry must not take the rest of the batch with it.
+      for (Entry e : batch) {
+         try {
+            this.esql.executeUpdate(INSERT_SQL, e.updateNumber, e.managerID, e.storeID, e.productName, e.updatedOn);
+            this.written.incrementAndGet();
+         } catch (SQLException x) {
+            this.dropped.incrementAndGet();
+            System.err.println("Dropped product update audit entry " + e.updateNumber + " (manager " + e.managerID
+               + ", store " + e.storeID + ", product " + e.productName + ", " + e.updatedOn + "): " + x.getMessage());
+         }
+      }
+   }//end write
+
+   private void writeBatch(final List<Entry> batch) throws SQLException {
+      this.esql.executeTransaction("audit batch", conn -> {
+         PreparedStatement stmt = conn.prepare(INSERT_SQL);
+         stmt.clearBatch();
+         for (Entry e : batch) {
+            Amazon.bind(stmt, e.updateNumber, e.managerID, e.storeID, e.productName, e.updatedOn);
+            stmt.addBatch();
+         }
+         stmt.executeBatch();
+         return null;
+      });
+      this.written.addAndGet(batch.size());
+      this.batches.incrementAndGet();
+   }//end writeBatch
+
+   private synchronized void done(int entries) {
+      this.pending -= entries;
+      if (this.pending <= 0)
+         notifyAll();
+   }
+
+}//end AuditLog
@@ -0,0 +1,409 @@
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Loads the data/*.csv files into an existing schema (sql/src/create_tables.sql)
+ * from the client side, so no file has to be readable by the server. Rows
+ * can also come from any other Source, e.g. DataGenerator.
+ *
+ * Each file is read by one thread that parses rows and hands chunks of
+ * them to a set of writer threads; a writer inserts a chunk with a single
+ * multi-row INSERT and commits it. Tables with no foreign key between them
+ * load at the same time, level by level:
+ *
+ *    Users, Warehouse
+ *    Store
+ *    Product
+ *    Orders, ProductSupplyRequests, ProductUpdates
+ *
+ * Afterwards the serial sequences are moved past the highest loaded key.
+ * With --replace every table is truncated first.
+ */
+public class BulkLoader {
+
+   // column kinds: int, double, string, timestamp, date.
+   private static final char INT = 'i', DOUBLE = 'd', STRING = 's', TIMESTAMP = 't', DATE = 'D';
+
+   // largest number of parameters one statement may carry.
+   private static final int MAX_PARAMS = 32767;
+
+   /**
+    * One table and the CSV file it is loaded from; the file's columns are
+    * in table column order.
+    */
+   static final class Table {
+      final String name;
+      final String file;
+      final String[] columns;
+      final char[] kinds;
+      // serial key column and its sequence, or null.
+      final String serial;
+      final String sequence;
+
+      Table(String name, String file, String columns, String kinds, String serial, String sequence) {
+         this.name = name;
+         this.file = file;
+         this.columns = columns.split(",");
+         this.kinds = kinds.toCharArray();
+         this.serial = serial;
+         this.sequence = sequence;
+      }
+   }//end Table
+
+   static final Table USERS = new Table("Users", "users.csv",
+      "userID,name,password,latitude,longitude,type", "issdds", "userID", "users_userid_seq");
+   static final Table WAREHOUSE = new Table("Warehouse", "warehouse.csv",
+      "WarehouseID,area,latitude,longitude", "iidd", null, null);
+   static final Table STORE = new Table("Store", "stores.csv",
+      "storeID,latitude,longitude,managerID,dateEstablished", "iddiD", null, null);
+   static final Table PRODUCT = new Table("Product", "products.csv",
+      "storeID,productName,numberOfUnits,pricePerUnit", "isid", null, null);
+   static final Table ORDERS = new Table("Orders", "orders.csv",
+      "orderNumber,customerID,storeID,productName,unitsOrdered,orderTime", "iiisit", "orderNumber", "orders_ordernumber_seq");
+   static final Table SUPPLY_REQUESTS = new Table("ProductSupplyRequests", "productSupplyRequests.csv",
+      "requestNumber,managerID,warehouseID,storeID,productName,unitsRequested", "iiiisi", "requestNumber", "productsupplyrequests_requestnumber_seq");
+   static final Table UPDATES = new Table("ProductUpdates", "productUpdates.csv",
+      "updateNumber,managerID,storeID,productName,updatedOn", "iiist", "updateNumber", "productupdates_updatenumber_seq");
+
+   // tables of one level only reference tables of earlier levels.
+   static final Table[][] LEVELS = {
+      { USERS, WAREHOUSE },
+      { STORE },
+      { PRODUCT },
+      { ORDERS, SUPPLY_REQUESTS, UPDATES }
+   };
+
+   /**
+    * The rows of one table, in table column order, with column values
+    * typed by the table's kinds.
+    */
+   interface Rows extends AutoCloseable {
+      /**
+       * @return the next row, or null after the last one
+       * @throws java.io.IOException when the row cannot be read
+       */
+      Object[] next() throws IOException;
+
+      @Override
+      void close() throws IOException;
+   }
+
+   /**
+    * Where the rows of every table come from.
+    */
+   interface Source {
+      Rows open(Table t) throws IOException;
+   }
+
+   // handed to a writer to tell it the file is exhausted.
+   private static final Object[][] END = new Object[0][];
+
+   private final Amazon esql;
+   private final Source source;
+   private final int writers;
+   private final int batchRows;
+   private final ExecutorService threads = Executors.newCachedThreadPool();
+
+   /**
+    * @param esql the database to load
+    * @param dataDir directory holding the CSV files
+    * @param writers writer threads (and connections) per table
+    * @param batchRows rows per INSERT statement and transaction
+    */
+   public BulkLoader(Amazon esql, File dataDir, int writers, int batchRows) {
+      this(esql, csvSource(dataDir), writers, batchRows);
+   }
+
+   /**
+    * @param esql the database to load
+    * @param source where the rows come from
+    * @param writers writer threads (and connections) per table
+    * @param batchRows rows per INSERT statement and transaction
+    */
+   public BulkLoader(Amazon esql, Source source, int writers, int batchRows) {
+      this.esql = esql;
+      this.source = source;
+      this.writers = Math.max(1, writers);
+      this.batchRows = Math.max(1, batchRows);
+   }//end BulkLoader
+
+   /**
+    * @param dataDir directory holding one CSV file per table
+    * @return a source parsing the table's file
+    */
+   static Source csvSource(final File dataDir) {
+      return t -> {
+         final File file = new File(dataDir, t.file);
+         final CsvReader reader = new CsvReader(new FileReader(file), true);
+         return new Rows() {
+            public Object[] next() throws IOException {
+               String[] f = reader.next();
+               if (f == null)
+                  return null;
+               try {
+                  return parse(t, f);
+               } catch (IllegalArgumentException e) {
+                  throw new IOException(file + ":" + reader.getLineNumber() + ": " + e.getMessage());
+               }
+            }
+
+            public void close() throws IOException {
+               reader.close();
+            }
+         };
+      };
+   }//end csvSource
+
+   /**
+    * Empties every table loaded by this tool.
+    *
+    * @throws java.sql.SQLException when the tables cannot be truncated
+    */
+   public void truncate() throws SQLException {
+      StringBuilder tables = new StringBuilder();
+      for (Table[] level : LEVELS)
+         for (Table t : level)
+            tables.append(tables.length() == 0 ? "" : ", ").append(t.name);
+      this.esql.executeUpdate("TRUNCATE " + tables);
+   }//end truncate
+
+   /**
+    * Loads every table, level by level, then resets the sequences.
+    *
+    * @throws java.lang.Exception when a file cannot be read or a row
+    *         cannot be inserted
+    */
+   public void loadAll() throws Exception {
+      long start = System.nanoTime();
+      long total = 0;
+      for (Table[] level : LEVELS) {
+         List<Future<Long>> loads = new ArrayList<Future<Long>>();
+         for (final Table t : level)
+            loads.add(this.threads.submit(() -> load(t)));
+         for (Future<Long> load : loads)
+            total += await(load);
+      }
+      for (Table[] level : LEVELS)
+         for (Table t : level)
+            if (t.sequence != null)
+               resetSequence(t);
+      double seconds = (System.nanoTime() - start) / 1e9;
+      System.out.printf("%d rows in %.2f s (%.0f rows/s)%n", total, seconds, total / seconds);
+   }//end loadAll
+
+   /**
+    * Stops the loader's threads.
+    */
+   public void shutdown() {
+      this.threads.shutdownNow();
+   }
+
+   // loads one file; returns the number of rows inserted.
+   private long load(final Table t) throws Exception {
+      long start = System.nanoTime();
+      final int chunkRows = Math.max(1, Math.min(this.batchRows, MAX_PARAMS / t.columns.length));
+      final BlockingQueue<Object[][]> chunks = new ArrayBlockingQueue<Object[][]>(this.writers * 2);
+
+      List<Future<Long>> inserted = new ArrayList<Future<Long>>();
+      for (int i = 0; i < this.writers; ++i)
+         inserted.add(this.threads.submit(writer(t, chunks)));
+
+      try (Rows rows = this.source.open(t)) {
+         Object[][] chunk = new Object[chunkRows][];
+         int n = 0;
+         Object[] row;
+         while ((row = rows.next()) != null) {
+            chunk[n++] = row;
+            if (n == chunkRows) {
+               chunks.put(chunk);
+               chunk = new Object[chunkRows][];
+               n = 0;
+            }
+         }
+         if (n > 0)
+            chunks.put(Arrays.copyOf(chunk, n));
+      } finally {
+         for (int i = 0; i < this.writers; ++i)
+            chunks.put(END);
+      }
+
+      long rows = 0;
+      for (Future<Long> w : inserted)
+         rows += await(w);
+      double seconds = (System.nanoTime() - start) / 1e9;
+      System.out.printf("%-22s %10d rows %8.2f s%n", t.name, rows, seconds);
+      return rows;
+   }//end load
+
+   // a writer inserts chunks until told to stop. After a failure it keeps
+   // draining the queue so the reader never blocks, then reports the error.
+   private Callable<Long> writer(final Table t, final BlockingQueue<Object[][]> chunks) {
+      return () -> {
+         long rows = 0;
+         SQLException failure = null;
+         while (true) {
+            final Object[][] chunk = chunks.take();
+            if (chunk == END)
+               break;
+            if (failure != null)
+               continue;
+            try {
+               rows += this.esql.executeTransaction("load " + t.name, conn -> {
+                  PreparedStatement stmt = conn.prepare(insertSql(t, chunk.length));
+                  int p = 1;
+                  for (Object[] row : chunk) {
+                     for (int c = 0; c < row.length; ++c, ++p) {
+                        if (row[c] == null)
+                           stmt.setNull(p, sqlType(t.kinds[c]));
+                        else
+                           stmt.setObject(p, row[c]);
+                     }
+                  }
+                  return stmt.executeUpdate();
+               });
+            } catch (SQLException e) {
+               failure = e;
+            }
+         }
+         if (failure != null)
+            throw failure;
+         return rows;
+      };
+   }//end writer
+
+   // INSERT INTO t (columns) VALUES (?, ...), ... for the given row count.
+   static String insertSql(Table t, int rows) {
+      StringBuilder sql = new StringBuilder("INSERT INTO ").append(t.name).append(" (")
+         .append(String.join(", ", t.columns)).append(") VALUES ");
+      for (int r = 0; r < rows; ++r) {
+         sql.append(r == 0 ? "(" : ", (");
+         for (int c = 0; c < t.columns.length; ++c)
+            sql.append(c == 0 ? "?" : ", ?");
+         sql.append(')');
+      }
+      return sql.toString();
+   }//end insertSql
+
+   static Object[] parse(Table t, String[] fields) {
+      if (fields.length != t.columns.length)
+         throw new IllegalArgumentException("expected " + t.columns.length + " fields, found " + fields.length);
+      Object[] row = new Object[fields.length];
+      for (int c = 0; c < fields.length; ++c) {
+         String v = fields[c].trim();
+         if (v.isEmpty() && t.kinds[c] != STRING)
+            continue;
+         switch (t.kinds[c]) {
+            case INT: row[c] = Integer.valueOf(v); break;
+            case DOUBLE: row[c] = Double.valueOf(v); break;
+            case TIMESTAMP: row[c] = Timestamp.valueOf(v); break;
+            case DATE: row[c] = parseDate(v); break;
+            default: row[c] = v; break;
+         }
+      }
+      return row;
+   }//end parse
+
+   static int sqlType(char kind) {
+      switch (kind) {
+         case INT: return Types.INTEGER;
+         case DOUBLE: return Types.DOUBLE;
+         case TIMESTAMP: return Types.TIMESTAMP;
+         case DATE: return Types.DATE;
+         default: return Types.VARCHAR;
+      }
+   }//end sqlType
+
+   // stores.csv writes dates as M/d/yyyy; yyyy-mm-dd is accepted too.
+   static Date parseDate(String v) {
+      if (v.indexOf('/') < 0)
+         return Date.valueOf(v);
+      String[] mdy = v.split("/");
+      if (mdy.length != 3)
+         throw new IllegalArgumentException("bad date '" + v + "'");
+      return Date.valueOf(String.format("%04d-%02d-%02d",
+         Integer.parseInt(mdy[2]), Integer.parseInt(mdy[0]), Integer.parseInt(mdy[1])));
+   }//end parseDate
+
+   // points the table's sequence just past its highest key.
+   private void resetSequence(Table t) throws SQLException {
+      this.esql.queryForInt("SELECT CAST(setval(CAST(? AS regclass), COALESCE(MAX(" + t.serial + "), 0) + 1, false) AS integer) FROM " + t.name,
+         -1, t.sequence);
+   }
+
+   private static long await(Future<Long> f) throws Exception {
+      try {
+         return f.get();
+      } catch (ExecutionException e) {
+         Throwable cause = e.getCause();
+         throw cause instanceof Exception ? (Exception) cause : new RuntimeException(cause);
+      }
+   }//end await
+
+   public static void main(String[] args) {
+      if (args.length < 3) {
+         System.err.println(
+            "Usage: " +
+            "java [-classpath <classpath>] " +
+            BulkLoader.class.getName() +
+            " <dbname> <port> <user> [--data <dir>] [--threads <n>] [--batch <rows>] [--replace]");
+         return;
+      }
+
+      File dataDir = new File("data");
+      int writers = 4, batch = 1000;
+      boolean replace = false;
+      for (int i = 3; i < args.length; ++i) {
+         if (args[i].equals("--replace"))
+            replace = true;
+         else if (args[i].equals("--data") && i + 1 < args.length)
+            dataDir = new File(args[++i]);
+         else if (args[i].equals("--threads") && i + 1 < args.length)
+            writers = Integer.parseInt(args[++i]);
+         else if (args[i].equals("--batch") && i + 1 < args.length)
+            batch = Integer.parseInt(args[++i]);
+         else {
+            System.err.println("Unknown option " + args[i]);
+            return;
+         }
+      }
+
+      // one connection per writer of the widest level.
+      if (System.getProperty("amazon.pool.size") == null)
+         System.setProperty("amazon.pool.size", String.valueOf(Math.max(writers, 1) * 3));
+
+      Amazon esql = null;
+      BulkLoader loader = null;
+      try {
+         Class.forName("org.postgresql.Driver");
+         esql = new Amazon(args[0], args[1], args[2], "");
+         loader = new BulkLoader(esql, dataDir, writers, batch);
+         if (replace)
+            loader.truncate();
+         loader.loadAll();
+      } catch (Exception e) {
+         System.err.println(e.getMessage());
+      } finally {
+         if (loader != null)
+            loader.shutdown();
+         if (esql != null)
+            esql.cleanup();
+      }
+   }//end main
+
+}//end BulkLoader
@@ -0,0 +1,525 @@
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-memory read replica of the whole Product table, kept current by
+ * following the ProductUpdates log, so catalog reads never leave the
+ * process while it is fresh.
+ *
+ * A background thread polls ProductUpdates for rows past a watermark, an
+ * index range scan that returns nothing while no manager changes
+ * anything, and re-reads the catalog of every store named in the new
+ * rows. The ProductCatalogCache entries of those stores are dropped as
+ * well, so the cache is coherent across instances too.
+ *
+ * Update numbers are reserved in blocks by each instance and the audit
+ * log may commit them late, so they do not appear in order: a poll
+ * starts after the watermark, below which every row has been seen or
+ * given up, and remembers the rows it has seen above it. A missing number
+ * is waited for gapMillis from when a newer row first showed it missing.
+ * After that the watermark moves past it, but the number stays watched:
+ * every poll also asks for the watched numbers, so a quiet instance that
+ * uses an old block long after still has its row applied. The oldest
+ * watched numbers are forgotten once more than slack are watched, which
+ * only happens when many reserved keys are never used (an instance exits
+ * with most of its block left). Applying a row re-reads the store rather
+ * than replaying the change, so rows arriving late or twice do no harm.
+ *
+ * The whole table is reloaded on the first poll, when rows seen before
+ * have disappeared from the log (the table was reloaded or truncated),
+ * when more than slack numbers are missing at once, and when one poll
+ * names more than maxStores stores; only the first two start following
+ * the log over from its newest slack rows. It is also reloaded every
+ * reloadSeconds, because stock taken by orders and added by supply
+ * requests in other instances is not logged, nor are audit entries the
+ * log failed to write. Those changes are therefore up to reloadSeconds old
+ * in the replica, however fresh its last poll; orders always check stock
+ * against Product itself, so this can only make a displayed count stale,
+ * never oversell.
+ *
+ * Writes made through this process are applied to the replica at once,
+ * like they are to the cache, unless the replica's copy of the store had
+ * not been read completely before the write was sent and may already hold
+ * it; that store, like one written while a poll was reading it, is read
+ * again by the next poll instead.
+ */
+public class CatalogReplica {
+
+   private static final class Store {
+      final List<ProductInfo> products;
+      // position + 1 in products by product ID, 0 when not carried.
+      final int[] positions;
+      // System.nanoTime() once the products were all read.
+      final long readFinished;
+
+      Store(List<ProductInfo> products, long readFinished) {
+         int maxID = -1;
+         for (ProductInfo p : products)
+            maxID = Math.max(maxID, p.productID);
+         this.positions = new int[maxID + 1];
+         for (int i = 0; i < products.size(); ++i)
+            this.positions[products.get(i).productID] = i + 1;
+         this.products = Collections.unmodifiableList(products);
+         this.readFinished = readFinished;
+      }
+
+      Store(List<ProductInfo> products, int[] positions, long readFinished) {
+         this.products = Collections.unmodifiableList(products);
+         this.positions = positions;
+         this.readFinished = readFinished;
+      }
+
+      int positionOf(int productID) {
+         return productID >= 0 && productID < this.positions.length ? this.positions[productID] - 1 : -1;
+      }
+   }//end Store
+
+   private static final String STORE_SQL =
+      "SELECT productName, numberOfUnits, pricePerUnit FROM Product WHERE storeID = ?";
+
+   // the rows past the watermark and the watched rows below it, given as
+   // an int[] literal.
+   private static final String LOG_SQL =
+      "SELECT updateNumber, storeID FROM ProductUpdates WHERE updateNumber > ? OR updateNumber = ANY(CAST(? AS int[]))";
+
+   private final Amazon esql;
+   private final ProductCatalogCache cache;
+   private final KeyDictionary keys;
+   private final int slack;
+   private final long gapMillis;
+   private final int maxStores;
+   private final long maxStaleness;
+
+   // catalogs by store, replaced as a whole on a full reload; null until
+   // the first one. Entries are only replaced while holding lock.
+   private volatile Map<Integer, Store> stores = null;
+   // start of the last successful poll or reload.
+   private volatile long syncedAt = 0L;
+   private volatile long reloadedAt = 0L;
+
+   // follower state, only touched by the polling thread (poll and reload
+   // are synchronized): every update number up to watermark has been
+   // seen or is watched, seen holds those above it, missing the time each
+   // number between them and up to top was first found missing.
+   private int watermark = 0;
+   private int top = 0;
+   private final TreeSet<Integer> seen = new TreeSet<Integer>();
+   private final Map<Integer, Long> missing = new HashMap<Integer, Long>();
+   private final TreeSet<Integer> watched = new TreeSet<Integer>();
+
+   // guards the store entries against a poll installing a copy it read
+   // before a local write; dirty stores are read again by the next poll.
+   private final Object lock = new Object();
+   private boolean reading = false;
+   private final Set<Integer> dirty = new HashSet<Integer>();
+
+   private ScheduledExecutorService poller = null;
+
+   private final AtomicLong polls = new AtomicLong();
+   private final AtomicLong changes = new AtomicLong();
+   private final AtomicLong late = new AtomicLong();
+   private final AtomicLong refreshes = new AtomicLong();
+   private final AtomicLong reloads = new AtomicLong();
+   private final AtomicLong failures = new AtomicLong();
+
+   /**
+    * @param esql the database holding Product and ProductUpdates
+    * @param cache the catalog cache to keep coherent, or null
+    * @param slack most update numbers missing or watched at once, and the
+    *        newest rows followed again after a restart
+    * @param gapMillis milliseconds a missing update number is waited for
+    *        before the watermark moves past it
+    * @param maxStores changed stores in one poll beyond which the whole
+    *        table is reloaded instead
+    * @param maxStaleness milliseconds since the last successful poll after
+    *        which isFresh() turns false
+    */
+   public CatalogReplica(Amazon esql, ProductCatalogCache cache, int slack, long gapMillis, int maxStores, long maxStaleness) {
+      this.esql = esql;
+      this.cache = cache;
+      this.keys = esql.getProductKeys();
+      this.slack = Math.max(1, slack);
+      this.gapMillis = Math.max(0L, gapMillis);
+      this.maxStores = Math.max(1, maxStores);
+      this.maxStaleness = maxStaleness;
+   }//end CatalogReplica
+
+   /**
+    * Starts polling in a background thread; the first poll loads the table.
+    *
+    * @param pollMillis milliseconds between the end of a poll and the next
+    * @param reloadSeconds seconds after which the whole table is reloaded,
+    *        never when 0
+    */
+   public synchronized void start(long pollMillis, final long reloadSeconds) {
+      if (this.poller != null || pollMillis <= 0)
+         return;
+      this.poller = Executors.newSingleThreadScheduledExecutor(r -> {
+         Thread t = new Thread(r, "catalog-replica");
+         t.setDaemon(true);
+         return t;
+      });
+      this.poller.scheduleWithFixedDelay(() -> {
+         try {
+            if (reloadSeconds > 0 && System.currentTimeMillis() - this.reloadedAt > reloadSeconds * 1000)
+               reload();
+            else
+               poll();
+         } catch (SQLException e) {
+            this.failures.incrementAndGet();
+            System.err.println("Could not follow ProductUpdates: " + e.getMessage());
+         }
+      }, 0, pollMillis, TimeUnit.MILLISECONDS);
+   }//end start
+
+   /**
+    * Stops polling.
+    */
+   public synchronized void stop() {
+      if (this.poller != null)
+         this.poller.shutdownNow();
+      this.poller = null;
+   }
+
+   /**
+    * Only logged changes are bounded by maxStaleness: stock moved by
+    * orders and supply requests of other instances is not logged and may
+    * be as old as the last full reload (reloadSeconds in start()).
+    *
+    * @return true if the replica is loaded and polled successfully within
+    *         the staleness bound
+    */
+   public boolean isFresh() {
+      return this.stores != null && System.currentTimeMillis() - this.syncedAt <= this.maxStaleness;
+   }
+
+   /**
+    * @param storeID the store
+    * @return the store's products, empty if it carries none or is not
+    *         loaded yet
+    */
+   public List<ProductInfo> get(int storeID) {
+      Map<Integer, Store> map = this.stores;
+      Store store = map == null ? null : map.get(storeID);
+      return store == null ? Collections.<ProductInfo>emptyList() : store.products;
+   }
+
+   /**
+    * @param storeID the store
+    * @param productName the product
+    * @return the product, or null if the store does not carry it
+    */
+   public ProductInfo find(int storeID, String productName) {
+      Map<Integer, Store> map = this.stores;
+      Store store = map == null ? null : map.get(storeID);
+      if (store == null)
+         return null;
+      int i = store.positionOf(this.keys.lookup(productName));
+      return i < 0 ? null : store.products.get(i);
+   }//end find
+
+   /**
+    * Applies a write made through this process to the replica. A product
+    * the replica does not know, or a store whose read had not finished
+    * before the write started, makes the next poll read the store instead.
+    *
+    * @param storeID the store carrying the product
+    * @param productName the product written
+    * @param writeStarted System.nanoTime() before the write was sent
+    * @param change the write
+    */
+   public void update(int storeID, String productName, long writeStarted, ProductCatalogCache.Change change) {
+      synchronized (this.lock) {
+         Map<Integer, Store> map = this.stores;
+         if (map == null)
+            return;
+         if (this.reading)
+            this.dirty.add(storeID);
+         Store store = map.get(storeID);
+         int i = store == null ? -1 : store.positionOf(this.keys.lookup(productName));
+         // a copy whose read had not finished before the write was sent
+         // may hold it already, however long the read waited to start.
+         if (i < 0 || store.readFinished - writeStarted >= 0) {
+            this.dirty.add(storeID);
+            return;
+         }
+         List<ProductInfo> copy = new ArrayList<ProductInfo>(store.products);
+         copy.set(i, change.apply(copy.get(i)));
+         map.put(storeID, new Store(copy, store.positions, store.readFinished));
+      }
+   }//end update
+
+   /**
+    * Makes the next poll read a store again.
+    *
+    * @param storeID the store
+    */
+   public void invalidate(int storeID) {
+      synchronized (this.lock) {
+         this.dirty.add(storeID);
+      }
+   }
+
+   /**
+    * Reads the ProductUpdates rows past the watermark and the watched ones
+    * below it, and re-reads the stores they name, or reloads the whole
+    * table on a gap.
+    *
+    * @throws java.sql.SQLException when the log or a store cannot be read
+    */
+   public synchronized void poll() throws SQLException {
+      if (this.stores == null) {
+         reload(true);
+         return;
+      }
+      long started = System.currentTimeMillis();
+      final List<Integer> numbers = new ArrayList<Integer>();
+      final List<Integer> arrived = new ArrayList<Integer>();
+      final Set<Integer> changed = new TreeSet<Integer>();
+      final int[] reseen = { 0 };
+      this.esql.streamQuery(LOG_SQL,
+         row -> {
+            int updateNumber = row.getInt(1);
+            if (updateNumber <= this.watermark) {
+               // a watched number used after it was given up.
+               arrived.add(updateNumber);
+               changed.add(row.getInt(2));
+            } else if (this.seen.contains(updateNumber)) {
+               ++reseen[0];
+            } else {
+               numbers.add(updateNumber);
+               changed.add(row.getInt(2));
+            }
+         }, this.watermark, arrayLiteral(this.watched));
+      this.polls.incrementAndGet();
+
+      if (reseen[0] < this.seen.size()) {
+         // rows seen before are gone: the log was rewritten.
+         reload(true);
+         return;
+      }
+      if (changed.size() > this.maxStores) {
+         // re-reading would cost more; the reload has these rows.
+         this.watched.removeAll(arrived);
+         saw(numbers);
+         reload(!advance(started));
+         return;
+      }
+
+      Set<Integer> pending;
+      synchronized (this.lock) {
+         pending = new HashSet<Integer>(this.dirty);
+         this.dirty.clear();
+         this.reading = true;
+      }
+      pending.addAll(changed);
+      Map<Integer, List<ProductInfo>> read = new HashMap<Integer, List<ProductInfo>>();
+      try {
+         for (int storeID : pending)
+            read.put(storeID, readStore(storeID));
+      } catch (SQLException e) {
+         synchronized (this.lock) {
+            this.dirty.addAll(pending);
+            this.reading = false;
+         }
+         throw e;
+      }
+      long readFinished = System.nanoTime();
+      synchronized (this.lock) {
+         Map<Integer, Store> map = this.stores;
+         for (Map.Entry<Integer, List<ProductInfo>> e : read.entrySet()) {
+            // written here while being read: keep the write, read it again.
+            if (this.dirty.contains(e.getKey()))
+               continue;
+            if (e.getValue().isEmpty())
+               map.remove(e.getKey());
+            else
+               map.put(e.getKey(), new Store(e.getValue(), readFinished));
+         }
+         this.reading = false;
+      }
+      if (this.cache != null)
+         for (int storeID : changed)
+            this.cache.invalidate(storeID);
+
+      this.watched.removeAll(arrived);
+      saw(numbers);
+      this.changes.addAndGet(numbers.size() + arrived.size());
+      this.late.addAndGet(arrived.size());
+      this.refreshes.addAndGet(read.size());
+      this.syncedAt = started;
+      if (!advance(started))
+         reload(true);
+   }//end poll
+
+   private void saw(List<Integer> numbers) {
+      this.seen.addAll(numbers);
+      this.missing.keySet().removeAll(numbers);
+   }
+
+   // notes the numbers newly found missing below the newest row seen, then
+   // moves the watermark over the rows seen and over the numbers missing
+   // for gapMillis, which stay watched. False when more than slack numbers
+   // are missing at once.
+   private boolean advance(long now) {
+      if (this.seen.isEmpty())
+         return true;
+      for (int n = Math.max(this.top, this.watermark) + 1; n < this.seen.last(); ++n) {
+         if (!this.seen.contains(n))
+            this.missing.put(n, now);
+         if (this.missing.size() > this.slack)
+            return false;
+      }
+      this.top = Math.max(this.top, this.seen.last());
+
+      while (!this.seen.isEmpty()) {
+         int next = this.watermark + 1;
+         if (!this.seen.remove(next)) {
+            Long since = this.missing.get(next);
+            if (since == null || now - since < this.gapMillis)
+               break;
+            this.missing.remove(next);
+            this.watched.add(next);
+         }
+         this.watermark = next;
+      }
+      // numbers never used; the oldest are the likeliest abandoned.
+      while (this.watched.size() > this.slack)
+         this.watched.pollFirst();
+      return true;
+   }//end advance
+
+   private static String arrayLiteral(Set<Integer> numbers) {
+      StringBuilder literal = new StringBuilder("{");
+      for (Iterator<Integer> it = numbers.iterator(); it.hasNext(); ) {
+         literal.append(it.next());
+         if (it.hasNext())
+            literal.append(',');
+      }
+      return literal.append('}').toString();
+   }//end arrayLiteral
+
+   /**
+    * Reloads the whole table, still following the log from where the last
+    * poll left it.
+    *
+    * @throws java.sql.SQLException when the table or the log cannot be read
+    */
+   public synchronized void reload() throws SQLException {
+      reload(this.stores == null);
+   }
+
+   // with restart, follows the log over from its newest slack rows.
+   private void reload(boolean restart) throws SQLException {
+      long started = System.currentTimeMillis();
+      // the newest slack rows of the log are read before Product: their
+      // changes committed before them, so the snapshot below has them, and
+      // anything newer is left to the polls.
+      final TreeSet<Integer> tail = new TreeSet<Integer>();
+      if (restart)
+         this.esql.streamQuery(
+            "SELECT updateNumber FROM ProductUpdates WHERE updateNumber > " +
+            "(SELECT COALESCE(MAX(updateNumber), 0) FROM ProductUpdates) - ?",
+            row -> tail.add(row.getInt(1)), this.slack);
+
+      synchronized (this.lock) {
+         this.reading = true;
+      }
+      final Map<Integer, List<ProductInfo>> loaded = new HashMap<Integer, List<ProductInfo>>();
+      try {
+         this.esql.streamQuery("SELECT storeID, productName, numberOfUnits, pricePerUnit FROM Product", this.esql.getFetchSize(),
+            row -> {
+               int storeID = row.getInt(1);
+               int productID = row.getKey(2, this.keys);
+               List<ProductInfo> products = loaded.get(storeID);
+               if (products == null) {
+                  products = new ArrayList<ProductInfo>();
+                  loaded.put(storeID, products);
+               }
+               products.add(new ProductInfo(storeID, productID, this.keys.name(productID), row.getInt(3), row.getDouble(4)));
+            });
+      } catch (SQLException e) {
+         synchronized (this.lock) {
+            this.reading = false;
+         }
+         throw e;
+      }
+
+      long readFinished = System.nanoTime();
+      Map<Integer, Store> map = new ConcurrentHashMap<Integer, Store>(loaded.size() * 2);
+      for (Map.Entry<Integer, List<ProductInfo>> e : loaded.entrySet())
+         map.put(e.getKey(), new Store(e.getValue(), readFinished));
+      synchronized (this.lock) {
+         Map<Integer, Store> old = this.stores;
+         // stores written here while being read keep the written copy.
+         if (old != null)
+            for (int storeID : this.dirty) {
+               Store store = old.get(storeID);
+               if (store != null)
+                  map.put(storeID, store);
+            }
+         this.stores = map;
+         this.reading = false;
+      }
+      if (this.cache != null)
+         this.cache.invalidateAll();
+
+      if (restart) {
+         this.seen.clear();
+         this.missing.clear();
+         this.watched.clear();
+         this.seen.addAll(tail);
+         this.watermark = tail.isEmpty() ? 0 : Math.max(0, tail.last() - this.slack);
+         this.top = this.watermark;
+         advance(started);
+      }
+      this.reloads.incrementAndGet();
+      this.syncedAt = started;
+      this.reloadedAt = started;
+   }//end reload
+
+   private List<ProductInfo> readStore(final int storeID) throws SQLException {
+      final List<ProductInfo> products = new ArrayList<ProductInfo>();
+      this.esql.streamQuery(STORE_SQL, row -> {
+         int productID = row.getKey(1, this.keys);
+         products.add(new ProductInfo(storeID, productID, this.keys.name(productID), row.getInt(2), row.getDouble(3)));
+      }, storeID);
+      return products;
+   }//end readStore
+
+   /**
+    * @return the highest update number below which every row has been
+    *         applied or is watched for
+    */
+   public synchronized int getWatermark() {
+      return this.watermark;
+   }
+
+   /**
+    * @return milliseconds since the start of the last successful poll
+    */
+   public long getStaleness() {
+      return System.currentTimeMillis() - this.syncedAt;
+   }
+
+   @Override
+   public String toString() {
+      return String.format("catalog replica: %d polls, %d changes (%d late), %d stores re-read, %d full reloads, "
+         + "%d failed polls, %d ms stale", this.polls.get(), this.changes.get(), this.late.get(), this.refreshes.get(),
+         this.reloads.get(), this.failures.get(), getStaleness());
+   }
+
+}//end CatalogReplica
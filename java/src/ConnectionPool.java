@@ -0,0 +1,186 @@
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A bounded pool of physical PostgreSQL connections. Connections are opened
+ * lazily up to the configured size and handed out as PooledConnection
+ * leases, each of which keeps its own prepared statement cache.
+ *
+ */
+public class ConnectionPool {
+
+   private final String url;
+   private final String user;
+   private final String passwd;
+   private final int size;
+   private final int statementCacheSize;
+   private final long acquireTimeoutMillis;
+
+   // idle connections ready to be leased.
+   private final BlockingQueue<PooledConnection> idle;
+
+   // number of physical connections currently open (idle or leased).
+   private final AtomicInteger opened = new AtomicInteger();
+
+   private volatile boolean closed = false;
+
+   /**
+    * Creates a new pool. The first connection is opened eagerly so that a
+    * bad URL or an unreachable server is reported at startup.
+    *
+    * @param url the JDBC connection URL
+    * @param user the user name used to login to the database
+    * @param passwd the user login password
+    * @param size the maximum number of physical connections
+    * @param statementCacheSize prepared statements kept per connection
+    * @param acquireTimeoutMillis how long acquire() waits for a free connection
+    * @throws java.sql.SQLException when failed to make a connection.
+    */
+   public ConnectionPool(String url, String user, String passwd, int size,
+                         int statementCacheSize, long acquireTimeoutMillis) throws SQLException {
+      if (size < 1)
+         throw new IllegalArgumentException("pool size must be positive: " + size);
+      this.url = url;
+      this.user = user;
+      this.passwd = passwd;
+      this.size = size;
+      this.statementCacheSize = statementCacheSize;
+      this.acquireTimeoutMillis = acquireTimeoutMillis;
+      this.idle = new ArrayBlockingQueue<PooledConnection>(size);
+
+      this.opened.incrementAndGet();
+      try {
+         this.idle.add(open());
+      } catch (SQLException e) {
+         this.opened.decrementAndGet();
+         throw e;
+      }
+   }//end ConnectionPool
+
+   private PooledConnection open() throws SQLException {
+      Connection conn = DriverManager.getConnection(this.url, this.user, this.passwd);
+      return new PooledConnection(this, conn, this.statementCacheSize);
+   }
+
+   /**
+    * Leases a connection, opening a new one if the pool has not reached its
+    * size yet, otherwise waiting for one to be released.
+    *
+    * @return a connection lease; close() it to hand it back
+    * @throws java.sql.SQLException when the pool is closed, exhausted for
+    *         longer than the acquire timeout, or a connection cannot be opened
+    */
+   public PooledConnection acquire() throws SQLException {
+      if (this.closed)
+         throw new SQLException("connection pool is closed");
+
+      PooledConnection conn = this.idle.poll();
+      if (conn != null)
+         return conn;
+
+      // grow the pool while below its bound.
+      while (true) {
+         int n = this.opened.get();
+         if (n >= this.size)
+            break;
+         if (this.opened.compareAndSet(n, n + 1)) {
+            try {
+               return open();
+            } catch (SQLException e) {
+               this.opened.decrementAndGet();
+               throw e;
+            }
+         }
+      }
+
+      try {
+         conn = this.idle.poll(this.acquireTimeoutMillis, TimeUnit.MILLISECONDS);
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         throw new SQLException("interrupted while waiting for a connection");
+      }
+      if (conn == null)
+         throw new SQLException("timed out waiting for a database connection (pool size " + this.size + ")");
+      return conn;
+   }//end acquire
+
+   /**
+    * Leases a connection only if one is free or the pool can still grow,
+    * without waiting; for optional work that must not compete with
+    * callers for a busy pool.
+    *
+    * @return a connection lease, or null when every connection is leased
+    * @throws java.sql.SQLException when the pool is closed or a connection
+    *         cannot be opened
+    */
+   public PooledConnection tryAcquire() throws SQLException {
+      if (this.closed)
+         throw new SQLException("connection pool is closed");
+
+      PooledConnection conn = this.idle.poll();
+      if (conn != null)
+         return conn;
+      while (true) {
+         int n = this.opened.get();
+         if (n >= this.size)
+            return null;
+         if (this.opened.compareAndSet(n, n + 1)) {
+            try {
+               return open();
+            } catch (SQLException e) {
+               this.opened.decrementAndGet();
+               throw e;
+            }
+         }
+      }
+   }//end tryAcquire
+
+   /**
+    * Returns a leased connection to the pool. Connections left inside a
+    * transaction are rolled back; broken connections are discarded.
+    */
+   void release(PooledConnection conn) {
+      boolean healthy;
+      try {
+         healthy = !conn.getConnection().isClosed();
+         if (healthy && !conn.getConnection().getAutoCommit()) {
+            conn.getConnection().rollback();
+            conn.getConnection().setAutoCommit(true);
+         }
+      } catch (SQLException e) {
+         healthy = false;
+      }
+
+      if (healthy && !this.closed && this.idle.offer(conn))
+         return;
+
+      conn.closePhysical();
+      this.opened.decrementAndGet();
+   }//end release
+
+   /**
+    * @return the maximum number of physical connections
+    */
+   public int getSize() {
+      return this.size;
+   }
+
+   /**
+    * Closes every idle connection and refuses further leases. Connections
+    * still leased are closed as they are released.
+    */
+   public void close() {
+      this.closed = true;
+      PooledConnection conn;
+      while ((conn = this.idle.poll()) != null) {
+         conn.closePhysical();
+         this.opened.decrementAndGet();
+      }
+   }//end close
+
+}//end ConnectionPool
@@ -0,0 +1,86 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Minimal streaming reader for the comma separated files under data/.
+ * Fields may be double-quoted, with "" standing for a literal quote;
+ * quoted fields may not span lines. Blank lines are skipped.
+ *
+ */
+public class CsvReader implements AutoCloseable {
+
+   private final BufferedReader in;
+   private final List<String> fields = new ArrayList<String>();
+   private long lineNumber = 0;
+
+   /**
+    * @param in the CSV text
+    * @param skipHeader true to drop the first line
+    * @throws java.io.IOException when the header cannot be read
+    */
+   public CsvReader(Reader in, boolean skipHeader) throws IOException {
+      this.in = in instanceof BufferedReader ? (BufferedReader) in : new BufferedReader(in, 1 << 16);
+      if (skipHeader && this.in.readLine() != null)
+         this.lineNumber++;
+   }
+
+   /**
+    * @return the fields of the next record, or null at end of input
+    * @throws java.io.IOException when reading fails or a quote is unbalanced
+    */
+   public String[] next() throws IOException {
+      String line;
+      do {
+         line = this.in.readLine();
+         if (line == null)
+            return null;
+         this.lineNumber++;
+      } while (line.isEmpty());
+
+      this.fields.clear();
+      StringBuilder field = new StringBuilder();
+      boolean quoted = false;
+      for (int i = 0; i < line.length(); ++i) {
+         char c = line.charAt(i);
+         if (quoted) {
+            if (c == '"') {
+               if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                  field.append('"');
+                  i++;
+               } else {
+                  quoted = false;
+               }
+            } else {
+               field.append(c);
+            }
+         } else if (c == '"') {
+            quoted = true;
+         } else if (c == ',') {
+            this.fields.add(field.toString());
+            field.setLength(0);
+         } else {
+            field.append(c);
+         }
+      }
+      if (quoted)
+         throw new IOException("unterminated quote on line " + this.lineNumber);
+      this.fields.add(field.toString());
+      return this.fields.toArray(new String[this.fields.size()]);
+   }//end next
+
+   /**
+    * @return the number of the line last read, counting from 1
+    */
+   public long getLineNumber() {
+      return this.lineNumber;
+   }
+
+   @Override
+   public void close() throws IOException {
+      this.in.close();
+   }
+
+}//end CsvReader
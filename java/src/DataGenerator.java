@@ -0,0 +1,455 @@
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.sql.Date;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * Seeded generator of synthetic datasets shaped like data/*.csv, at any
+ * scale: scale 1 matches the shipped row counts (100 users, 20 stores, 10
+ * products per store, 5 warehouses, 500 orders, 10 supply requests, 50
+ * product updates) and every count grows linearly with it, so scale 200000
+ * yields 10^8 orders. A given seed and set of options always yields the
+ * same rows.
+ *
+ * The rows keep the keys and foreign keys of create_tables.sql: user 1 is
+ * the admin, every 17th user a manager, the rest customers; store s is run
+ * by manager 17 * (1 + (s - 1) % managers) and carries the same products
+ * as every other store, so every (storeID, productName) drawn exists.
+ *
+ * Skew:
+ *    products are drawn from a Zipf law (--zipf, default 1.0) over their
+ *    rank, so the first few names dominate orders, supply and updates;
+ *    customers are drawn from the same law over a scrambled ranking, so a
+ *    few heavy buyers place a large share of the orders without being
+ *    the lowest user IDs;
+ *    users, stores and warehouses are placed around sqrt(stores) city
+ *    centers of Zipf-distributed size, and customers mostly buy from a
+ *    store of their own city.
+ *
+ * Rows are produced one at a time, so memory use does not depend on the
+ * scale. They are either written as CSV files (--out) that load_data.sh
+ * can load, or handed straight to a BulkLoader.
+ */
+public class DataGenerator implements BulkLoader.Source {
+
+   // the shipped product names, used for the most popular ranks.
+   private static final String[] PRODUCT_NAMES = { "7up", "Brisk", "Donuts", "Egg", "Hot and Sour Soup",
+      "Ice Cream", "Lemonade", "Orange Juice", "Pepsi", "Pudding" };
+
+   private static final String[] USER_NAMES = { "Amy", "Bob", "Marshall", "Natalie", "Sid", "Ebba", "Ruthie",
+      "Reilly", "Paige", "Kobe", "Ellis", "Twila", "Katherine", "Laverna", "Amina", "Glenna", "Mckenna",
+      "Karianne", "Jeanie", "Myrtice" };
+
+   // every MANAGER_EVERY-th user is a manager, as in the shipped data.
+   private static final int MANAGER_EVERY = 17;
+
+   // share of orders placed at a store in the customer's own city.
+   private static final double LOCAL_ORDERS = 0.9;
+
+   // spread of points around their city center.
+   private static final double CITY_SIGMA = 4.0;
+
+   // city sizes fall off with this exponent of their rank.
+   private static final double CITY_SKEW = 0.7;
+
+   private final long seed;
+   private final double zipf;
+   private final int users;
+   private final int stores;
+   private final int products;
+   private final int warehouses;
+   private final int orders;
+   private final int supplyRequests;
+   private final int updates;
+   private final long startMillis;
+   private final long spanMillis;
+
+   private final int managers;
+   private final int customers;
+   // customer ranks are spread over the customers by this stride.
+   private final long customerStride;
+
+   // city centers, and the last store ID and user ID of each city.
+   private final double[] cityLat;
+   private final double[] cityLon;
+   private final int[] cityLastStore;
+   private final int[] cityLastUser;
+
+   /**
+    * @param scale multiple of the shipped row counts
+    * @param seed random seed
+    * @param zipf exponent of the product and customer popularity laws
+    * @param products products carried by every store
+    * @param start time of the first order and update
+    * @param days days the orders and updates are spread over
+    */
+   public DataGenerator(double scale, long seed, double zipf, int products, LocalDate start, int days) {
+      this.seed = seed;
+      this.zipf = zipf;
+      this.users = count(100, scale, 2 * MANAGER_EVERY);
+      this.stores = count(20, scale, 1);
+      this.products = Math.max(1, products);
+      this.warehouses = count(5, scale, 1);
+      this.orders = count(500, scale, 1);
+      this.supplyRequests = count(10, scale, 1);
+      this.updates = count(50, scale, 1);
+      this.startMillis = Timestamp.valueOf(start.atTime(13, 1)).getTime();
+      this.spanMillis = Math.max(1, days) * 86400000L;
+
+      this.managers = this.users / MANAGER_EVERY;
+      this.customers = this.users - this.managers - 1;
+      long stride = 1000003 % this.customers;
+      while (gcd(Math.max(stride, 1), this.customers) != 1)
+         ++stride;
+      this.customerStride = Math.max(stride, 1);
+
+      int cities = (int) Math.max(1, Math.min(1000, Math.round(Math.sqrt(this.stores))));
+      SplittableRandom random = random(0);
+      this.cityLat = new double[cities];
+      this.cityLon = new double[cities];
+      for (int c = 0; c < cities; ++c) {
+         this.cityLat[c] = 5 + random.nextDouble() * 90;
+         this.cityLon[c] = 5 + random.nextDouble() * 90;
+      }
+      this.cityLastStore = cityRanges(cities, this.stores);
+      this.cityLastUser = cityRanges(cities, this.users);
+   }//end DataGenerator
+
+   // base * scale rows, at least min, within the range of an int key.
+   private static int count(int base, double scale, int min) {
+      double n = Math.rint(base * scale);
+      if (n > Integer.MAX_VALUE - 1)
+         throw new IllegalArgumentException("scale " + scale + " needs more than 2^31 keys");
+      return (int) Math.max(min, n);
+   }
+
+   private static long gcd(long a, long b) {
+      return b == 0 ? a : gcd(b, a % b);
+   }
+
+   // splits IDs 1..n into consecutive ranges, one per city, sized by a
+   // power law of the city's rank; returns the last ID of each range.
+   private static int[] cityRanges(int cities, int n) {
+      double total = 0;
+      for (int c = 0; c < cities; ++c)
+         total += Math.pow(c + 1, -CITY_SKEW);
+      int[] last = new int[cities];
+      double cumulative = 0;
+      int previous = 0;
+      for (int c = 0; c < cities; ++c) {
+         cumulative += Math.pow(c + 1, -CITY_SKEW);
+         int end = (int) Math.round(cumulative / total * n);
+         // every city gets an ID while there are enough to go round.
+         end = Math.max(end, Math.min(previous + 1, n));
+         end = Math.min(end, Math.max(previous, n - (cities - 1 - c)));
+         last[c] = c == cities - 1 ? n : end;
+         previous = last[c];
+      }
+      return last;
+   }//end cityRanges
+
+   private static int cityOf(int[] last, int id) {
+      int i = Arrays.binarySearch(last, id);
+      return i >= 0 ? i : -i - 1;
+   }
+
+   // one independent stream per table, so tables can be generated in any
+   // order and at the same time.
+   private SplittableRandom random(int stream) {
+      return new SplittableRandom(this.seed * 0x9E3779B97F4A7C15L + stream);
+   }
+
+   private double[] near(SplittableRandom random, int city) {
+      // Box-Muller.
+      double r = CITY_SIGMA * Math.sqrt(-2 * Math.log(1 - random.nextDouble()));
+      double a = 2 * Math.PI * random.nextDouble();
+      return new double[] { coordinate(this.cityLat[city] + r * Math.cos(a)),
+                            coordinate(this.cityLon[city] + r * Math.sin(a)) };
+   }
+
+   // within the decimal(8,6) columns, rounded like the shipped data.
+   private static double coordinate(double v) {
+      return Math.round(Math.max(0, Math.min(99.99999, v)) * 1e5) / 1e5;
+   }
+
+   /**
+    * @param rank a popularity rank, from 0
+    * @return the name of the product of that rank
+    */
+   String productName(int rank) {
+      if (rank < PRODUCT_NAMES.length)
+         return PRODUCT_NAMES[rank];
+      return String.format("Product %05d", rank + 1);
+   }
+
+   int managerOf(int storeID) {
+      return MANAGER_EVERY * (1 + (storeID - 1) % this.managers);
+   }
+
+   // the userID of the customer with the given popularity rank (from 1):
+   // the ranks are scrambled over the customers, which are the users that
+   // are neither the admin (1) nor a manager (multiples of 17).
+   int customerOf(int rank) {
+      long index = rank * this.customerStride % this.customers;
+      long m = index + 2;
+      return (int) (m + (m - 1) / (MANAGER_EVERY - 1));
+   }
+
+   private Timestamp timeOf(SplittableRandom random, int i, int n) {
+      long slot = this.spanMillis / n;
+      long t = this.startMillis + (long) ((double) this.spanMillis * i / n) + (slot > 0 ? random.nextLong(slot) : 0);
+      return new Timestamp(t / 1000 * 1000);
+   }
+
+   /**
+    * Generates the rows of one table.
+    */
+   private abstract class Generated implements BulkLoader.Rows {
+      final SplittableRandom random;
+      final int n;
+      int i = 0;
+
+      Generated(int stream, int n) {
+         this.random = random(stream);
+         this.n = n;
+      }
+
+      public Object[] next() {
+         return this.i < this.n ? row(++this.i) : null;
+      }
+
+      abstract Object[] row(int id);
+
+      public void close() {
+      }
+   }//end Generated
+
+   @Override
+   public BulkLoader.Rows open(BulkLoader.Table t) {
+      final ZipfSampler productRanks = new ZipfSampler(this.products, this.zipf);
+      if (t == BulkLoader.USERS) {
+         return new Generated(1, this.users) {
+            Object[] row(int u) {
+               double[] at = near(this.random, cityOf(cityLastUser, u));
+               String type = u == 1 ? "admin" : u % MANAGER_EVERY == 0 ? "manager" : "customer";
+               String name = u == 1 ? "Admin" : USER_NAMES[u % USER_NAMES.length] + u;
+               return new Object[] { u, name, "xyz", at[0], at[1], type };
+            }
+         };
+      }
+      if (t == BulkLoader.WAREHOUSE) {
+         return new Generated(2, this.warehouses) {
+            Object[] row(int w) {
+               double[] at = near(this.random, (w - 1) % cityLat.length);
+               return new Object[] { w, 10000 + this.random.nextInt(20001), at[0], at[1] };
+            }
+         };
+      }
+      if (t == BulkLoader.STORE) {
+         final LocalDate first = LocalDate.of(1950, 1, 1);
+         return new Generated(3, this.stores) {
+            Object[] row(int s) {
+               double[] at = near(this.random, cityOf(cityLastStore, s));
+               return new Object[] { s, at[0], at[1], managerOf(s), Date.valueOf(first.plusDays(this.random.nextInt(25000))) };
+            }
+         };
+      }
+      if (t == BulkLoader.PRODUCT) {
+         // row i is product (i - 1) % products of store (i - 1) / products + 1.
+         return new Generated(4, (int) Math.min(Integer.MAX_VALUE, (long) this.stores * this.products)) {
+            Object[] row(int i) {
+               int s = (i - 1) / products + 1;
+               return new Object[] { s, productName((i - 1) % products), this.random.nextInt(101),
+                                     (double) (1 + this.random.nextInt(10)) };
+            }
+         };
+      }
+      if (t == BulkLoader.ORDERS) {
+         final ZipfSampler customerRanks = new ZipfSampler(this.customers, this.zipf);
+         return new Generated(5, this.orders) {
+            Object[] row(int o) {
+               int customer = customerOf(customerRanks.sample(this.random));
+               int store;
+               if (this.random.nextDouble() < LOCAL_ORDERS) {
+                  int city = cityOf(cityLastUser, customer);
+                  int from = city == 0 ? 1 : cityLastStore[city - 1] + 1;
+                  store = from + this.random.nextInt(Math.max(1, cityLastStore[city] - from + 1));
+               } else {
+                  store = 1 + this.random.nextInt(stores);
+               }
+               String product = productName(productRanks.sample(this.random) - 1);
+               // mostly small orders with a long tail.
+               int units = (int) Math.min(100, 1 - 5 * Math.log(1 - this.random.nextDouble()));
+               return new Object[] { o, customer, store, product, units, timeOf(this.random, o - 1, this.n) };
+            }
+         };
+      }
+      if (t == BulkLoader.SUPPLY_REQUESTS) {
+         return new Generated(6, this.supplyRequests) {
+            Object[] row(int r) {
+               int store = 1 + this.random.nextInt(stores);
+               return new Object[] { r, managerOf(store), 1 + this.random.nextInt(warehouses), store,
+                                     productName(productRanks.sample(this.random) - 1), 1 + this.random.nextInt(100) };
+            }
+         };
+      }
+      if (t == BulkLoader.UPDATES) {
+         return new Generated(7, this.updates) {
+            Object[] row(int u) {
+               int store = 1 + this.random.nextInt(stores);
+               return new Object[] { u, managerOf(store), store, productName(productRanks.sample(this.random) - 1),
+                                     timeOf(this.random, u - 1, this.n) };
+            }
+         };
+      }
+      throw new IllegalArgumentException("no generator for " + t.name);
+   }//end open
+
+   /**
+    * Writes every table as a CSV file, named and laid out like data/*.csv.
+    *
+    * @param dir the output directory, created if missing
+    * @throws java.io.IOException when a file cannot be written
+    */
+   public void writeCsv(File dir) throws IOException {
+      if (!dir.isDirectory() && !dir.mkdirs())
+         throw new IOException("cannot create " + dir);
+      for (BulkLoader.Table[] level : BulkLoader.LEVELS) {
+         for (BulkLoader.Table t : level) {
+            long start = System.nanoTime();
+            long rows = 0;
+            try (Writer out = new BufferedWriter(new FileWriter(new File(dir, t.file)), 1 << 16);
+                 BulkLoader.Rows generated = open(t)) {
+               out.write(String.join(",", t.columns));
+               out.write('\n');
+               StringBuilder line = new StringBuilder();
+               Object[] row;
+               while ((row = generated.next()) != null) {
+                  line.setLength(0);
+                  for (int c = 0; c < row.length; ++c) {
+                     if (c > 0)
+                        line.append(',');
+                     append(line, row[c]);
+                  }
+                  out.write(line.append('\n').toString());
+                  ++rows;
+               }
+            }
+            System.out.printf("%-26s %10d rows %8.2f s%n", t.file, rows, (System.nanoTime() - start) / 1e9);
+         }
+      }
+   }//end writeCsv
+
+   private static void append(StringBuilder line, Object v) {
+      if (v instanceof Timestamp) {
+         // whole seconds: drop the ".0" of Timestamp.toString().
+         line.append(v.toString(), 0, 19);
+      } else if (v instanceof String && (((String) v).indexOf(',') >= 0 || ((String) v).indexOf('"') >= 0)) {
+         line.append('"').append(((String) v).replace("\"", "\"\"")).append('"');
+      } else {
+         line.append(v);
+      }
+   }//end append
+
+   @Override
+   public String toString() {
+      return String.format("%d users (%d managers), %d stores in %d cities, %d products per store, %d warehouses, "
+         + "%d orders, %d supply requests, %d product updates", this.users, this.managers, this.stores,
+         this.cityLat.length, this.products, this.warehouses, this.orders, this.supplyRequests, this.updates);
+   }
+
+   public static void main(String[] args) {
+      if (args.length < 3) {
+         System.err.println(
+            "Usage: " +
+            "java [-classpath <classpath>] " +
+            DataGenerator.class.getName() +
+            " <dbname> <port> <user> [--scale <f>] [--seed <n>] [--zipf <s>] [--products <n>]" +
+            " [--start <yyyy-mm-dd>] [--days <n>] (--out <dir> | [--threads <n>] [--batch <rows>] [--replace])");
+         return;
+      }
+
+      double scale = 1, zipf = 1.0;
+      long seed = 166;
+      int products = PRODUCT_NAMES.length, days = 365, writers = 4, batch = 1000;
+      LocalDate start = LocalDate.of(2016, 9, 10);
+      File out = null;
+      boolean replace = false;
+      for (int i = 3; i < args.length; ++i) {
+         if (args[i].equals("--replace"))
+            replace = true;
+         else if (i + 1 >= args.length) {
+            System.err.println("Missing value for " + args[i]);
+            return;
+         } else if (args[i].equals("--scale"))
+            scale = Double.parseDouble(args[++i]);
+         else if (args[i].equals("--seed"))
+            seed = Long.parseLong(args[++i]);
+         else if (args[i].equals("--zipf"))
+            zipf = Double.parseDouble(args[++i]);
+         else if (args[i].equals("--products"))
+            products = Integer.parseInt(args[++i]);
+         else if (args[i].equals("--start"))
+            start = LocalDate.parse(args[++i]);
+         else if (args[i].equals("--days"))
+            days = Integer.parseInt(args[++i]);
+         else if (args[i].equals("--out"))
+            out = new File(args[++i]);
+         else if (args[i].equals("--threads"))
+            writers = Integer.parseInt(args[++i]);
+         else if (args[i].equals("--batch"))
+            batch = Integer.parseInt(args[++i]);
+         else {
+            System.err.println("Unknown option " + args[i]);
+            return;
+         }
+      }
+
+      DataGenerator generator;
+      try {
+         generator = new DataGenerator(scale, seed, zipf, products, start, days);
+      } catch (IllegalArgumentException e) {
+         System.err.println(e.getMessage());
+         return;
+      }
+      System.out.println(generator);
+
+      if (out != null) {
+         try {
+            generator.writeCsv(out);
+         } catch (IOException e) {
+            System.err.println(e.getMessage());
+         }
+         return;
+      }
+
+      // one connection per writer of the widest level.
+      if (System.getProperty("amazon.pool.size") == null)
+         System.setProperty("amazon.pool.size", String.valueOf(Math.max(writers, 1) * 3));
+
+      Amazon esql = null;
+      BulkLoader loader = null;
+      try {
+         Class.forName("org.postgresql.Driver");
+         esql = new Amazon(args[0], args[1], args[2], "");
+         loader = new BulkLoader(esql, generator, writers, batch);
+         if (replace)
+            loader.truncate();
+         loader.loadAll();
+      } catch (Exception e) {
+         System.err.println(e.getMessage());
+      } finally {
+         if (loader != null)
+            loader.shutdown();
+         if (esql != null)
+            esql.cleanup();
+      }
+   }//end main
+
+}//end DataGenerator
@@ -0,0 +1,81 @@
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Hands out primary keys drawn from a database sequence. Keys are reserved
+ * from the sequence a block at a time in one round trip, then handed out
+ * in-process without locking; only the thread that finds a block exhausted
+ * goes back to the database. Threads finding it exhausted meanwhile wait
+ * on a ReentrantLock rather than a monitor, so virtual threads waiting
+ * out the round trip do not pin their carriers.
+ *
+ * Every key comes from nextval(), so keys never collide with other
+ * processes or with rows inserted through the column's serial default. Keys
+ * left in a block when the process exits are simply never used.
+ */
+public class IdAllocator {
+
+   private static final class Block {
+      final int[] ids;
+      final AtomicInteger next = new AtomicInteger();
+
+      Block(int[] ids) {
+         this.ids = ids;
+      }
+   }//end Block
+
+   private final Amazon esql;
+   private final String sequence;
+   private final int blockSize;
+
+   private volatile Block current = new Block(new int[0]);
+   private final ReentrantLock refilling = new ReentrantLock();
+
+   /**
+    * @param esql the database the sequence lives in
+    * @param sequence name of the sequence, e.g. orders_ordernumber_seq
+    * @param blockSize number of keys reserved per round trip
+    */
+   public IdAllocator(Amazon esql, String sequence, int blockSize) {
+      if (blockSize < 1)
+         throw new IllegalArgumentException("block size must be positive: " + blockSize);
+      this.esql = esql;
+      this.sequence = sequence;
+      this.blockSize = blockSize;
+   }
+
+   /**
+    * @return the next unused key
+    * @throws java.sql.SQLException when a new block cannot be reserved
+    */
+   public int next() throws SQLException {
+      while (true) {
+         Block block = this.current;
+         int i = block.next.getAndIncrement();
+         if (i < block.ids.length)
+            return block.ids[i];
+         refill(block);
+      }
+   }//end next
+
+   // replaces the exhausted block unless another thread already did.
+   private void refill(Block exhausted) throws SQLException {
+      this.refilling.lock();
+      try {
+         if (this.current != exhausted)
+            return;
+
+         final int[] ids = new int[this.blockSize];
+         final int[] n = { 0 };
+         this.esql.streamQuery("SELECT nextval(CAST(? AS regclass)) FROM generate_series(1, ?)",
+            row -> ids[n[0]++] = row.getInt(1), this.sequence, this.blockSize);
+         Arrays.sort(ids, 0, n[0]);
+         this.current = new Block(n[0] == ids.length ? ids : Arrays.copyOf(ids, n[0]));
+      } finally {
+         this.refilling.unlock();
+      }
+   }//end refill
+
+}//end IdAllocator
@@ -0,0 +1,92 @@
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Maps the blank-padded char(n) keys of the schema (product names) to
+ * dense int IDs, 0, 1, 2, ... in the order they are first seen, and back.
+ * In-memory structures key on the ID, so lookups hash and compare one int
+ * instead of a 30 character string, arrays can be indexed by it, and each
+ * name is kept once however many stores carry the product.
+ *
+ * IDs are local to the process and never reused. The dictionary only
+ * grows: every row read through Row.getKey is interned as it is read,
+ * which keeps it in step with the database without reloading it.
+ */
+public class KeyDictionary {
+
+   private final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<String, Integer>();
+
+   // names by ID; replaced by a longer copy when full, under the lock.
+   private volatile String[] names = new String[256];
+   private int size = 0;
+
+   /**
+    * Returns the ID of a key, assigning the next one if it is new.
+    *
+    * @param key the key, with or without its blank padding
+    * @return the key's ID
+    */
+   public int id(String key) {
+      Integer id = this.ids.get(key);
+      if (id != null)
+         return id;
+      String name = stripPadding(key);
+      id = this.ids.get(name);
+      if (id == null)
+         id = assign(name);
+      // padded spellings resolve without stripping next time.
+      if (!name.equals(key))
+         this.ids.putIfAbsent(key, id);
+      return id;
+   }//end id
+
+   private synchronized int assign(String name) {
+      Integer id = this.ids.get(name);
+      if (id != null)
+         return id;
+      if (this.size == this.names.length)
+         this.names = Arrays.copyOf(this.names, this.size * 2);
+      this.names[this.size] = name;
+      this.ids.put(name, this.size);
+      return this.size++;
+   }//end assign
+
+   /**
+    * Looks a key up without assigning an ID.
+    *
+    * @param key the key, with or without its blank padding
+    * @return the key's ID, or -1 if it has never been seen
+    */
+   public int lookup(String key) {
+      Integer id = this.ids.get(key);
+      if (id == null)
+         id = this.ids.get(stripPadding(key));
+      return id == null ? -1 : id;
+   }//end lookup
+
+   /**
+    * @param id an ID handed out by this dictionary
+    * @return the key without its padding
+    */
+   public String name(int id) {
+      return this.names[id];
+   }
+
+   /**
+    * @return the number of IDs handed out
+    */
+   public synchronized int size() {
+      return this.size;
+   }
+
+   // char(n) values come back blank padded; user input may carry blanks too.
+   private static String stripPadding(String key) {
+      int begin = 0, end = key.length();
+      while (begin < end && key.charAt(begin) <= ' ')
+         ++begin;
+      while (end > begin && key.charAt(end - 1) <= ' ')
+         --end;
+      return key.substring(begin, end);
+   }//end stripPadding
+
+}//end KeyDictionary
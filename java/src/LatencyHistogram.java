@@ -0,0 +1,103 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free log-linear histogram of latencies in microseconds. Values below
+ * 128 are counted exactly; above that every power of two is split into 64
+ * linear buckets, so any recorded value is reported within about 1.6%.
+ * Recording is a single atomic increment and safe from any thread.
+ */
+public class LatencyHistogram {
+
+   private static final int SUB_BITS = 6;
+   private static final int SUB_COUNT = 1 << SUB_BITS;
+   private static final int EXACT = 2 * SUB_COUNT;
+   private static final int BUCKETS = EXACT + (64 - SUB_BITS - 1) * SUB_COUNT;
+
+   private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+   static int bucketOf(long micros) {
+      if (micros < EXACT)
+         return (int) Math.max(micros, 0);
+      int shift = 63 - Long.numberOfLeadingZeros(micros) - SUB_BITS;
+      int top = (int) (micros >>> shift);
+      return EXACT + (shift - 1) * SUB_COUNT + (top - SUB_COUNT);
+   }
+
+   // largest value counted in the bucket.
+   static long highestValueIn(int bucket) {
+      if (bucket < EXACT)
+         return bucket;
+      int shift = (bucket - EXACT) / SUB_COUNT + 1;
+      long top = (bucket - EXACT) % SUB_COUNT + SUB_COUNT;
+      return ((top + 1) << shift) - 1;
+   }
+
+   /**
+    * @param micros a latency in microseconds
+    */
+   public void record(long micros) {
+      this.counts.incrementAndGet(bucketOf(micros));
+   }
+
+   /**
+    * Records the time elapsed since a System.nanoTime() reading.
+    *
+    * @param startNanos the reading taken when the operation started
+    */
+   public void recordSince(long startNanos) {
+      record((System.nanoTime() - startNanos) / 1000);
+   }
+
+   /**
+    * @return the number of recorded values
+    */
+   public long count() {
+      long n = 0;
+      for (int i = 0; i < BUCKETS; ++i)
+         n += this.counts.get(i);
+      return n;
+   }
+
+   /**
+    * @param percentile between 0 and 100
+    * @return the latency in microseconds at or below which the given share
+    *         of recorded values falls, or 0 if nothing was recorded
+    */
+   public long percentile(double percentile) {
+      long[] snapshot = new long[BUCKETS];
+      long total = 0;
+      for (int i = 0; i < BUCKETS; ++i) {
+         snapshot[i] = this.counts.get(i);
+         total += snapshot[i];
+      }
+      if (total == 0)
+         return 0;
+      long rank = (long) Math.ceil(percentile / 100.0 * total);
+      long seen = 0;
+      for (int i = 0; i < BUCKETS; ++i) {
+         seen += snapshot[i];
+         if (seen >= Math.max(rank, 1))
+            return highestValueIn(i);
+      }
+      return highestValueIn(BUCKETS - 1);
+   }//end percentile
+
+   /**
+    * @return the highest recorded latency bucket in microseconds
+    */
+   public long max() {
+      for (int i = BUCKETS - 1; i >= 0; --i)
+         if (this.counts.get(i) > 0)
+            return highestValueIn(i);
+      return 0;
+   }
+
+   /**
+    * Clears all recorded values.
+    */
+   public void reset() {
+      for (int i = 0; i < BUCKETS; ++i)
+         this.counts.set(i, 0);
+   }
+
+}//end LatencyHistogram
@@ -0,0 +1,303 @@
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Multi-threaded load generator simulating concurrent customers and managers
+ * against the same Amazon operations the menus use, recording per-operation
+ * latency histograms and throughput.
+ *
+ * Customers pick among viewStores, viewProducts, placeOrder and
+ * viewRecentOrders; managers among updateProduct, viewPopularProducts,
+ * viewPopularCustomers and placeProductSupplyRequests. Each simulated user
+ * is a thread that draws its next operation from a weighted mix, runs it,
+ * waits the think time and repeats until the run ends. Latencies recorded
+ * during the warmup are discarded.
+ *
+ * Each customer acts through a Session, like a logged-in menu user, so
+ * viewStores and the store picked for viewProducts and placeOrder come
+ * from the session's nearby stores as they do in the menus.
+ */
+public class LoadGenerator {
+
+   /**
+    * One simulated operation.
+    */
+   interface Operation {
+      void run(ThreadLocalRandom random) throws SQLException;
+   }
+
+   private static final class OperationStats {
+      final LatencyHistogram latency = new LatencyHistogram();
+      final AtomicLong errors = new AtomicLong();
+   }
+
+   private static final String DEFAULT_CUSTOMER_MIX = "viewStores=25,viewProducts=30,placeOrder=25,viewRecentOrders=20";
+   private static final String DEFAULT_MANAGER_MIX = "updateProduct=30,viewPopularProducts=30,viewPopularCustomers=30,placeProductSupplyRequests=10";
+
+   private final Amazon esql;
+   private final Map<String, OperationStats> stats = new LinkedHashMap<String, OperationStats>();
+
+   // customers as logged in; managers: ID and one of their stores.
+   private final List<Session> customers = new ArrayList<Session>();
+   private final List<int[]> managedStores = new ArrayList<int[]>();
+   private final List<Integer> warehouses = new ArrayList<Integer>();
+
+   private volatile boolean running = true;
+   private volatile boolean recording = false;
+
+   public LoadGenerator(Amazon esql) throws SQLException {
+      this.esql = esql;
+      for (String op : new String[] { "viewStores", "viewProducts", "placeOrder", "viewRecentOrders",
+                                      "updateProduct", "viewPopularProducts", "viewPopularCustomers",
+                                      "placeProductSupplyRequests" })
+         this.stats.put(op, new OperationStats());
+
+      esql.streamQuery("SELECT userID, name, latitude, longitude FROM Users WHERE type = 'customer'", esql.getFetchSize(),
+         row -> this.customers.add(new Session(esql, row.getInt(1), row.getTrimmedString(2), Role.CUSTOMER,
+            row.getDouble(3), row.getDouble(4), new int[0])));
+      esql.streamQuery("SELECT managerID, storeID FROM Store", esql.getFetchSize(),
+         row -> this.managedStores.add(new int[] { row.getInt(1), row.getInt(2) }));
+      esql.streamQuery("SELECT WarehouseID FROM Warehouse",
+         row -> this.warehouses.add(row.getInt(1)));
+      if (this.customers.isEmpty() || this.managedStores.isEmpty() || this.warehouses.isEmpty())
+         throw new SQLException("load generation needs customers, stores and warehouses in the database");
+   }//end LoadGenerator
+
+   // a store near the customer, or any store if none is in range.
+   private int pickStore(Session customer, ThreadLocalRandom random) throws SQLException {
+      SpatialIndex.Hits nearby = customer.getNearbyStores();
+      if (nearby.size > 0)
+         return nearby.ids[random.nextInt(nearby.size)];
+      return this.managedStores.get(random.nextInt(this.managedStores.size()))[1];
+   }
+
+   private Operation customerOperation(String name, final Session customer) {
+      final int customerID = customer.userID;
+      switch (name) {
+         case "viewStores":
+            return random -> customer.getNearbyStores();
+         case "viewProducts":
+            return random -> this.esql.listProducts(pickStore(customer, random));
+         case "placeOrder":
+            return random -> {
+               int storeID = pickStore(customer, random);
+               List<ProductInfo> products = this.esql.listProducts(storeID);
+               if (products.isEmpty())
+                  return;
+               ProductInfo product = products.get(random.nextInt(products.size()));
+               this.esql.submitOrder(customerID, storeID, product.productName, 1 + random.nextInt(3));
+            };
+         case "viewRecentOrders":
+            return random -> this.esql.recentOrders(customerID, 5);
+         default:
+            throw new IllegalArgumentException("unknown customer operation '" + name + "'");
+      }
+   }//end customerOperation
+
+   private Operation managerOperation(String name, final int[] managed) {
+      final int managerID = managed[0];
+      final int storeID = managed[1];
+      switch (name) {
+         case "updateProduct":
+            return random -> {
+               List<ProductInfo> products = this.esql.listProducts(storeID);
+               if (products.isEmpty())
+                  return;
+               ProductInfo product = products.get(random.nextInt(products.size()));
+               this.esql.applyProductUpdate(managerID, storeID, product.productName,
+                  product.numberOfUnits + random.nextInt(10), 1 + random.nextInt(10));
+            };
+         case "viewPopularProducts":
+            return random -> this.esql.popularProducts(storeID, 5);
+         case "viewPopularCustomers":
+            return random -> this.esql.popularCustomers(storeID, 5);
+         case "placeProductSupplyRequests":
+            return random -> {
+               List<ProductInfo> products = this.esql.listProducts(storeID);
+               if (products.isEmpty())
+                  return;
+               ProductInfo product = products.get(random.nextInt(products.size()));
+               int warehouseID = this.warehouses.get(random.nextInt(this.warehouses.size()));
+               this.esql.submitSupplyRequest(managerID, warehouseID, storeID, product.productName, 10 + random.nextInt(40));
+            };
+         default:
+            throw new IllegalArgumentException("unknown manager operation '" + name + "'");
+      }
+   }//end managerOperation
+
+   // parses "name=weight,name=weight" into cumulative weights.
+   private static LinkedHashMap<String, Integer> parseMix(String mix) {
+      LinkedHashMap<String, Integer> cumulative = new LinkedHashMap<String, Integer>();
+      int total = 0;
+      for (String part : mix.split(",")) {
+         String[] kv = part.split("=");
+         int weight = Integer.parseInt(kv[1].trim());
+         if (weight <= 0)
+            continue;
+         total += weight;
+         cumulative.put(kv[0].trim(), total);
+      }
+      if (cumulative.isEmpty())
+         throw new IllegalArgumentException("empty operation mix '" + mix + "'");
+      return cumulative;
+   }//end parseMix
+
+   // one simulated user: draws operations from its mix until stopped.
+   private Thread user(String threadName, final Map<String, Operation> ops,
+                       final LinkedHashMap<String, Integer> mix, final long thinkMillis) {
+      final int total = (Integer) mix.values().toArray()[mix.size() - 1];
+      Thread t = new Thread(() -> {
+         ThreadLocalRandom random = ThreadLocalRandom.current();
+         while (this.running) {
+            int draw = random.nextInt(total);
+            String name = null;
+            for (Map.Entry<String, Integer> e : mix.entrySet()) {
+               if (draw < e.getValue()) {
+                  name = e.getKey();
+                  break;
+               }
+            }
+            OperationStats s = this.stats.get(name);
+            long start = System.nanoTime();
+            try {
+               ops.get(name).run(random);
+               if (this.recording)
+                  s.latency.recordSince(start);
+            } catch (Exception e) {
+               if (this.recording)
+                  s.errors.incrementAndGet();
+            }
+            if (thinkMillis > 0) {
+               try {
+                  Thread.sleep(random.nextLong(thinkMillis * 2 + 1));
+               } catch (InterruptedException e) {
+                  return;
+               }
+            }
+         }
+      }, threadName);
+      t.setDaemon(true);
+      return t;
+   }//end user
+
+   /**
+    * Runs the load and prints a per-operation report.
+    *
+    * @param customerThreads number of simulated customers
+    * @param managerThreads number of simulated managers
+    * @param customerMix weights of customer operations, "name=weight,..."
+    * @param managerMix weights of manager operations, "name=weight,..."
+    * @param thinkMillis mean pause between operations of one user
+    * @param warmupSeconds seconds run before recording starts
+    * @param seconds seconds recorded
+    */
+   public void run(int customerThreads, int managerThreads, String customerMix, String managerMix,
+                   long thinkMillis, int warmupSeconds, int seconds) throws InterruptedException {
+      LinkedHashMap<String, Integer> cMix = parseMix(customerMix);
+      LinkedHashMap<String, Integer> mMix = parseMix(managerMix);
+
+      List<Thread> threads = new ArrayList<Thread>();
+      for (int i = 0; i < customerThreads; ++i) {
+         Session customer = this.customers.get(i % this.customers.size());
+         Map<String, Operation> ops = new LinkedHashMap<String, Operation>();
+         for (String name : cMix.keySet())
+            ops.put(name, customerOperation(name, customer));
+         threads.add(user("customer-" + i, ops, cMix, thinkMillis));
+      }
+      for (int i = 0; i < managerThreads; ++i) {
+         int[] managed = this.managedStores.get(i % this.managedStores.size());
+         Map<String, Operation> ops = new LinkedHashMap<String, Operation>();
+         for (String name : mMix.keySet())
+            ops.put(name, managerOperation(name, managed));
+         threads.add(user("manager-" + i, ops, mMix, thinkMillis));
+      }
+
+      for (Thread t : threads)
+         t.start();
+      Thread.sleep(warmupSeconds * 1000L);
+      this.recording = true;
+      long start = System.nanoTime();
+      Thread.sleep(seconds * 1000L);
+      this.recording = false;
+      double elapsed = (System.nanoTime() - start) / 1e9;
+      this.running = false;
+      for (Thread t : threads)
+         t.join(10000);
+
+      report(customerThreads, managerThreads, elapsed);
+   }//end run
+
+   private void report(int customerThreads, int managerThreads, double elapsed) {
+      System.out.printf("%n%d customers, %d managers, %.1f s recorded%n", customerThreads, managerThreads, elapsed);
+      System.out.printf("%-28s %9s %9s %7s %9s %9s %9s %9s%n",
+         "operation", "count", "ops/s", "errors", "p50 us", "p99 us", "p999 us", "max us");
+      long total = 0;
+      for (Map.Entry<String, OperationStats> e : this.stats.entrySet()) {
+         LatencyHistogram h = e.getValue().latency;
+         long n = h.count();
+         long errors = e.getValue().errors.get();
+         if (n == 0 && errors == 0)
+            continue;
+         total += n;
+         System.out.printf("%-28s %9d %9.1f %7d %9d %9d %9d %9d%n", e.getKey(), n, n / elapsed, errors,
+            h.percentile(50), h.percentile(99), h.percentile(99.9), h.max());
+      }
+      System.out.printf("total %.1f ops/s%n", total / elapsed);
+      System.out.println(this.esql.getCatalogCache());
+      if (this.esql.getCatalogReplica() != null)
+         System.out.println(this.esql.getCatalogReplica());
+   }//end report
+
+   public static void main(String[] args) {
+      if (args.length < 3 || args.length % 2 == 0) {
+         System.err.println(
+            "Usage: " +
+            "java [-classpath <classpath>] " +
+            LoadGenerator.class.getName() +
+            " <dbname> <port> <user> [--customers <n>] [--managers <n>] [--seconds <n>]" +
+            " [--warmup <n>] [--think <ms>] [--customer-mix <op=w,...>] [--manager-mix <op=w,...>]");
+         return;
+      }
+
+      int customers = 16, managers = 2, seconds = 60, warmup = 10;
+      long think = 0;
+      String customerMix = DEFAULT_CUSTOMER_MIX, managerMix = DEFAULT_MANAGER_MIX;
+      for (int i = 3; i + 1 < args.length; i += 2) {
+         String value = args[i + 1];
+         switch (args[i]) {
+            case "--customers": customers = Integer.parseInt(value); break;
+            case "--managers": managers = Integer.parseInt(value); break;
+            case "--seconds": seconds = Integer.parseInt(value); break;
+            case "--warmup": warmup = Integer.parseInt(value); break;
+            case "--think": think = Long.parseLong(value); break;
+            case "--customer-mix": customerMix = value; break;
+            case "--manager-mix": managerMix = value; break;
+            default:
+               System.err.println("Unknown option " + args[i]);
+               return;
+         }
+      }
+
+      // one connection per simulated user unless sized explicitly.
+      if (System.getProperty("amazon.pool.size") == null)
+         System.setProperty("amazon.pool.size", String.valueOf(Math.max(customers + managers, 1)));
+
+      Amazon esql = null;
+      try {
+         Class.forName("org.postgresql.Driver");
+         esql = new Amazon(args[0], args[1], args[2], "");
+         new LoadGenerator(esql).run(customers, managers, customerMix, managerMix, think, warmup, seconds);
+      } catch (Exception e) {
+         System.err.println(e.getMessage());
+      } finally {
+         if (esql != null)
+            esql.cleanup();
+      }
+   }//end main
+
+}//end LoadGenerator
@@ -0,0 +1,349 @@
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Counters and latency histograms for every SQL statement and every
+ * top-level operation (menu action, server command) of an Amazon
+ * instance.
+ *
+ * Each timer is published as an MBean under "amazon:type=Statement" or
+ * "amazon:type=Operation" (amazon.metrics.jmx, on by default), each timed
+ * call is also a JFR event (amazon.Statement, amazon.Operation) when a
+ * recording has them enabled, and a text report can be printed every
+ * amazon.metrics.dump.s seconds to standard error.
+ *
+ * An operation counts as failed if it throws or if any statement it ran
+ * failed, so menu handlers that only print their errors still show up in
+ * the error rate. An operation turned down for a business reason (marked
+ * with reject()) is counted as a rejection instead. Statements can also be
+ * passed on to a SlowQueryLog.
+ */
+public class Metrics {
+
+   /**
+    * The attributes of one timer as seen through JMX.
+    */
+   public interface TimerMBean {
+      long getCount();
+      long getErrors();
+      long getRejections();
+      long getRows();
+      long getP50Micros();
+      long getP99Micros();
+      long getP999Micros();
+      long getMaxMicros();
+      void reset();
+   }
+
+   /**
+    * Calls, failures, rows and latency of one statement or operation.
+    */
+   public static final class Timer implements TimerMBean {
+      final String name;
+      final LatencyHistogram latency = new LatencyHistogram();
+      final AtomicLong errors = new AtomicLong();
+      final AtomicLong rejections = new AtomicLong();
+      final AtomicLong rows = new AtomicLong();
+
+      Timer(String name) {
+         this.name = name;
+      }
+
+      public long getCount() { return this.latency.count(); }
+      public long getErrors() { return this.errors.get(); }
+      public long getRejections() { return this.rejections.get(); }
+      public long getRows() { return this.rows.get(); }
+      public long getP50Micros() { return this.latency.percentile(50); }
+      public long getP99Micros() { return this.latency.percentile(99); }
+      public long getP999Micros() { return this.latency.percentile(99.9); }
+      public long getMaxMicros() { return this.latency.max(); }
+
+      public void reset() {
+         this.latency.reset();
+         this.errors.set(0);
+         this.rejections.set(0);
+         this.rows.set(0);
+      }
+   }//end Timer
+
+   @Name("amazon.Statement")
+   @Label("SQL Statement")
+   @Category("Amazon")
+   static final class StatementEvent extends Event {
+      @Label("SQL")
+      String sql;
+      @Label("Rows")
+      long rows;
+      @Label("Failed")
+      boolean failed;
+   }//end StatementEvent
+
+   @Name("amazon.Operation")
+   @Label("Operation")
+   @Category("Amazon")
+   static final class OperationEvent extends Event {
+      @Label("Operation")
+      String operation;
+      @Label("Failed")
+      boolean failed;
+   }//end OperationEvent
+
+   // checked before creating an event, so nothing is allocated for JFR
+   // while no recording asks for these events.
+   private static final EventType STATEMENT_EVENTS = EventType.getEventType(StatementEvent.class);
+   private static final EventType OPERATION_EVENTS = EventType.getEventType(OperationEvent.class);
+
+   /**
+    * One timed statement; end it exactly once.
+    */
+   public final class Sample {
+      private final Timer timer;
+      private final String sql;
+      private final Object[] params;
+      private final long start = System.nanoTime();
+      // null while no recording wants statement events.
+      private final StatementEvent event = STATEMENT_EVENTS.isEnabled() ? new StatementEvent() : null;
+
+      Sample(Timer timer, String sql, Object[] params) {
+         this.timer = timer;
+         this.sql = sql;
+         this.params = params;
+         if (this.event != null)
+            this.event.begin();
+      }
+
+      /**
+       * @param rows rows returned or affected
+       */
+      public void success(long rows) {
+         end(rows, false);
+      }
+
+      public void failure() {
+         end(0, true);
+      }
+
+      private void end(long rows, boolean failed) {
+         long micros = (System.nanoTime() - this.start) / 1000;
+         this.timer.latency.record(micros);
+         this.timer.rows.addAndGet(rows);
+         if (failed) {
+            this.timer.errors.incrementAndGet();
+            Operation op = current.get();
+            if (op != null)
+               op.failed = true;
+         }
+         if (this.event != null && this.event.shouldCommit()) {
+            this.event.sql = this.timer.name;
+            this.event.rows = rows;
+            this.event.failed = failed;
+            this.event.commit();
+         }
+         SlowQueryLog log = slowLog;
+         if (log != null)
+            log.offer(this.sql, this.params, rows, micros, failed);
+      }
+   }//end Sample
+
+   /**
+    * One timed operation, closed when it ends.
+    */
+   public final class Operation implements AutoCloseable {
+      private final Timer timer;
+      private final Operation outer;
+      private final long start = System.nanoTime();
+      // null while no recording wants operation events.
+      private final OperationEvent event = OPERATION_EVENTS.isEnabled() ? new OperationEvent() : null;
+      boolean failed = false;
+      boolean rejected = false;
+
+      Operation(Timer timer) {
+         this.timer = timer;
+         this.outer = current.get();
+         current.set(this);
+         if (this.event != null)
+            this.event.begin();
+      }
+
+      /**
+       * Marks the operation failed.
+       */
+      public void fail() {
+         this.failed = true;
+      }
+
+      /**
+       * Marks the operation turned down for a business reason (bad input,
+       * short stock, no permission): counted apart from failures.
+       */
+      public void reject() {
+         this.rejected = true;
+      }
+
+      @Override
+      public void close() {
+         this.timer.latency.recordSince(this.start);
+         if (this.failed)
+            this.timer.errors.incrementAndGet();
+         else if (this.rejected)
+            this.timer.rejections.incrementAndGet();
+         if (this.outer == null)
+            current.remove();
+         else
+            current.set(this.outer);
+         if (this.event != null && this.event.shouldCommit()) {
+            this.event.operation = this.timer.name;
+            this.event.failed = this.failed;
+            this.event.commit();
+         }
+      }
+   }//end Operation
+
+   // longest statement text kept as a timer name.
+   private static final int MAX_NAME = 160;
+
+   private final Map<String, Timer> statements = new ConcurrentHashMap<String, Timer>();
+   private final Map<String, Timer> operations = new ConcurrentHashMap<String, Timer>();
+   private final ThreadLocal<Operation> current = new ThreadLocal<Operation>();
+   private final boolean jmx;
+   private ScheduledExecutorService dumper = null;
+   private volatile SlowQueryLog slowLog = null;
+
+   /**
+    * @param jmx true to publish every timer as an MBean
+    */
+   public Metrics(boolean jmx) {
+      this.jmx = jmx;
+   }
+
+   /**
+    * Starts timing one statement.
+    *
+    * @param sql the statement text
+    * @param params the values bound to its placeholders, for the slow
+    *        query log
+    * @return the sample to end when the statement is done
+    */
+   public Sample statement(String sql, Object... params) {
+      return new Sample(timer(this.statements, "Statement", sql), sql, params);
+   }
+
+   /**
+    * Hands every ended statement to the given slow query log.
+    *
+    * @param log the log, or null to stop logging
+    */
+   public void setSlowQueryLog(SlowQueryLog log) {
+      this.slowLog = log;
+   }
+
+   /**
+    * Starts timing a top-level operation on the current thread; use with
+    * try-with-resources.
+    *
+    * @param name the operation, e.g. placeOrder
+    * @return the operation to close when it is done
+    */
+   public Operation operation(String name) {
+      return new Operation(timer(this.operations, "Operation", name));
+   }
+
+   private Timer timer(Map<String, Timer> timers, String type, String key) {
+      Timer t = timers.get(key);
+      if (t != null)
+         return t;
+      String name = key.replaceAll("\\s+", " ").trim();
+      if (name.length() > MAX_NAME)
+         name = name.substring(0, MAX_NAME - 3) + "...";
+      Timer created = new Timer(name);
+      t = timers.putIfAbsent(key, created);
+      if (t != null)
+         return t;
+      if (this.jmx)
+         register(type, created);
+      return created;
+   }//end timer
+
+   private static void register(String type, Timer t) {
+      try {
+         MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+         ObjectName name = new ObjectName("amazon:type=" + type + ",name=" + ObjectName.quote(t.name));
+         if (!server.isRegistered(name))
+            server.registerMBean(new StandardMBean(t, TimerMBean.class), name);
+      } catch (Exception e) {
+         // metrics stay available through report().
+      }
+   }//end register
+
+   /**
+    * Prints every timer that has been used, slowest p99 first.
+    *
+    * @param out where to print
+    */
+   public void report(PrintStream out) {
+      report(out, "operation", this.operations);
+      report(out, "statement", this.statements);
+   }
+
+   private static void report(PrintStream out, String kind, Map<String, Timer> timers) {
+      List<Timer> used = new ArrayList<Timer>();
+      for (Timer t : timers.values())
+         if (t.getCount() > 0)
+            used.add(t);
+      if (used.isEmpty())
+         return;
+      Collections.sort(used, (a, b) -> Long.compare(b.getP99Micros(), a.getP99Micros()));
+      out.printf("%9s %7s %8s %10s %9s %9s %9s  %s%n", "count", "errors", "rejected", "rows", "p50 us", "p99 us", "max us", kind);
+      for (Timer t : used)
+         out.printf("%9d %7d %8d %10d %9d %9d %9d  %s%n", t.getCount(), t.getErrors(), t.getRejections(), t.getRows(),
+            t.getP50Micros(), t.getP99Micros(), t.getMaxMicros(), t.name);
+   }//end report
+
+   /**
+    * Prints the report to standard error at a fixed rate until stopped.
+    *
+    * @param seconds the period
+    */
+   public synchronized void startDump(long seconds) {
+      if (this.dumper != null || seconds <= 0)
+         return;
+      this.dumper = Executors.newSingleThreadScheduledExecutor(r -> {
+         Thread t = new Thread(r, "metrics-dump");
+         t.setDaemon(true);
+         return t;
+      });
+      this.dumper.scheduleAtFixedRate(() -> {
+         System.err.printf("%n-- metrics at %tT --%n", System.currentTimeMillis());
+         report(System.err);
+      }, seconds, seconds, TimeUnit.SECONDS);
+   }//end startDump
+
+   /**
+    * Stops the periodic report.
+    */
+   public synchronized void stopDump() {
+      if (this.dumper != null)
+         this.dumper.shutdownNow();
+      this.dumper = null;
+   }
+
+}//end Metrics
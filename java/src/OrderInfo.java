@@ -0,0 +1,23 @@
+import java.sql.Timestamp;
+
+/**
+ * One order of a customer, as shown in the order history.
+ *
+ */
+public class OrderInfo {
+
+   public final int orderNumber;
+   public final int storeID;
+   public final String productName;
+   public final int unitsOrdered;
+   public final Timestamp orderTime;
+
+   public OrderInfo(int orderNumber, int storeID, String productName, int unitsOrdered, Timestamp orderTime) {
+      this.orderNumber = orderNumber;
+      this.storeID = storeID;
+      this.productName = productName;
+      this.unitsOrdered = unitsOrdered;
+      this.orderTime = orderTime;
+   }
+
+}//end OrderInfo
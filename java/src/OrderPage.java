@@ -0,0 +1,63 @@
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * One page of a customer's order history, newest first, with the cursor
+ * that continues it.
+ *
+ * A cursor is the (orderTime, orderNumber) of the last order shown,
+ * encoded as an opaque URL-safe token. The next page starts strictly
+ * after that position, so it stays correct while new orders arrive and
+ * costs the same however deep the customer has paged.
+ */
+public class OrderPage {
+
+   public final List<OrderInfo> orders;
+   // null after the last page.
+   public final String nextCursor;
+
+   public OrderPage(List<OrderInfo> orders, String nextCursor) {
+      this.orders = orders;
+      this.nextCursor = nextCursor;
+   }
+
+   /**
+    * @return true if there is another page
+    */
+   public boolean hasMore() {
+      return this.nextCursor != null;
+   }
+
+   /**
+    * @param order the last order of a page
+    * @return the cursor of the page after it
+    */
+   static String cursorAfter(OrderInfo order) {
+      // Timestamp.toString keeps the microseconds and no time zone, so the
+      // token means the same to every client.
+      String position = order.orderTime + "|" + order.orderNumber;
+      return Base64.getUrlEncoder().withoutPadding().encodeToString(position.getBytes(StandardCharsets.UTF_8));
+   }//end cursorAfter
+
+   /**
+    * Reads the position back out of a cursor.
+    *
+    * @param cursor a cursor handed out with a previous page
+    * @param orderTime receives the orderTime of the position
+    * @return the orderNumber of the position
+    * @throws IllegalArgumentException when the cursor is malformed
+    */
+   static int parseCursor(String cursor, Timestamp[] orderTime) {
+      try {
+         String position = new String(Base64.getUrlDecoder().decode(cursor.trim()), StandardCharsets.UTF_8);
+         int bar = position.lastIndexOf('|');
+         orderTime[0] = Timestamp.valueOf(position.substring(0, bar));
+         return Integer.parseInt(position.substring(bar + 1));
+      } catch (RuntimeException e) {
+         throw new IllegalArgumentException("invalid cursor '" + cursor + "'");
+      }
+   }//end parseCursor
+
+}//end OrderPage
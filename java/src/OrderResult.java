@@ -0,0 +1,44 @@
+/**
+ * Outcome of Amazon.submitOrder: either the number of the placed order or
+ * the reason it was rejected.
+ *
+ */
+public class OrderResult {
+
+   public enum Status {
+      PLACED,
+      INSUFFICIENT_STOCK,
+      UNKNOWN_PRODUCT,
+      INVALID_QUANTITY
+   }
+
+   public final Status status;
+
+   // number of the new order, or -1 when it was not placed.
+   public final int orderNumber;
+
+   // units left in stock when the order was rejected, or -1 when unknown.
+   public final int availableUnits;
+
+   private OrderResult(Status status, int orderNumber, int availableUnits) {
+      this.status = status;
+      this.orderNumber = orderNumber;
+      this.availableUnits = availableUnits;
+   }
+
+   public static OrderResult placed(int orderNumber) {
+      return new OrderResult(Status.PLACED, orderNumber, -1);
+   }
+
+   public static OrderResult rejected(Status status, int availableUnits) {
+      return new OrderResult(status, -1, availableUnits);
+   }
+
+   /**
+    * @return true if the order was placed
+    */
+   public boolean isPlaced() {
+      return this.status == Status.PLACED;
+   }
+
+}//end OrderResult
@@ -0,0 +1,262 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Maintenance of the monthly range partitions of Orders (by orderTime) and
+ * ProductUpdates (by updatedOn); see create_tables.sql.
+ *
+ * Each table has a DEFAULT partition, so an insert never fails for want
+ * of a partition. Running the manager (daily, e.g. from cron) keeps the
+ * current month and the next --ahead months partitioned, and moves any
+ * rows that landed in the default partition (e.g. a bulk load of old
+ * history) into partitions of their own month. Each month is one
+ * transaction: the new table is filled from the default partition and then
+ * attached.
+ *
+ * --keep-months n detaches the partitions of months more than n months
+ * before the current month and moves them to the --archive-schema schema
+ * (default "archive"), or drops them with --drop. Archived months leave the
+ * reports, the indexes and the partition pruning of the live tables.
+ *
+ * Monthly partitions are named <table>_pYYYY_MM; other partitions are
+ * left alone.
+ */
+public class PartitionManager {
+
+   /**
+    * A range-partitioned table and its partition key.
+    */
+   static final class Table {
+      final String name;
+      final String column;
+
+      Table(String name, String column) {
+         this.name = name;
+         this.column = column;
+      }
+
+      String partition(YearMonth month) {
+         return String.format("%s_p%04d_%02d", this.name, month.getYear(), month.getMonthValue());
+      }
+
+      String defaultPartition() {
+         return this.name + "_default";
+      }
+   }//end Table
+
+   static final Table[] TABLES = {
+      new Table("orders", "orderTime"),
+      new Table("productupdates", "updatedOn"),
+   };
+
+   private final Amazon esql;
+
+   public PartitionManager(Amazon esql) {
+      this.esql = esql;
+   }
+
+   /**
+    * @param table a partitioned table
+    * @return its monthly partitions by month
+    * @throws java.sql.SQLException when the catalog cannot be read
+    */
+   public TreeMap<YearMonth, String> partitions(final Table table) throws SQLException {
+      final TreeMap<YearMonth, String> months = new TreeMap<YearMonth, String>();
+      final String prefix = table.name + "_p";
+      this.esql.streamQuery(
+         "SELECT c.relname FROM pg_inherits i JOIN pg_class c ON c.oid = i.inhrelid " +
+         "WHERE i.inhparent = CAST(? AS regclass)",
+         row -> {
+            String name = row.getString(1);
+            if (name.startsWith(prefix) && name.length() == prefix.length() + 7) {
+               try {
+                  months.put(YearMonth.of(Integer.parseInt(name.substring(prefix.length(), prefix.length() + 4)),
+                                          Integer.parseInt(name.substring(prefix.length() + 5))), name);
+               } catch (RuntimeException e) {
+                  // not one of ours.
+               }
+            }
+         }, table.name);
+      return months;
+   }//end partitions
+
+   /**
+    * Creates the partitions of the current and the next monthsAhead months
+    * and of every month with rows in the default partition.
+    *
+    * @param table the table
+    * @param monthsAhead months partitioned in advance
+    * @return the number of partitions created
+    * @throws java.sql.SQLException when a partition cannot be created
+    */
+   public int ensure(Table table, int monthsAhead) throws SQLException {
+      TreeMap<YearMonth, String> existing = partitions(table);
+      final TreeSet<YearMonth> wanted = new TreeSet<YearMonth>();
+      YearMonth now = YearMonth.now();
+      for (int i = 0; i <= monthsAhead; ++i)
+         wanted.add(now.plusMonths(i));
+      this.esql.streamQuery("SELECT DISTINCT date_trunc('month', " + table.column + ") FROM " + table.defaultPartition(),
+         row -> wanted.add(YearMonth.from(row.getTimestamp(1).toLocalDateTime())));
+
+      int created = 0;
+      for (YearMonth month : wanted) {
+         if (existing.containsKey(month))
+            continue;
+         int moved = create(table, month);
+         System.out.printf("%s: created %s (%d rows moved from %s)%n",
+            table.name, table.partition(month), moved, table.defaultPartition());
+         ++created;
+      }
+      return created;
+   }//end ensure
+
+   // creates one month's partition, taking over its rows from the default
+   // partition, which attaching would otherwise refuse.
+   private int create(final Table table, final YearMonth month) throws SQLException {
+      final String partition = table.partition(month);
+      final Timestamp from = Timestamp.valueOf(month.atDay(1).atStartOfDay());
+      final Timestamp to = Timestamp.valueOf(month.plusMonths(1).atDay(1).atStartOfDay());
+      return this.esql.executeTransaction("create partition", conn -> {
+         Connection connection = conn.getConnection();
+         int moved;
+         try (Statement s = connection.createStatement()) {
+            s.execute("CREATE TABLE " + partition + " (LIKE " + table.name + " INCLUDING DEFAULTS INCLUDING CONSTRAINTS)");
+         }
+         try (PreparedStatement stmt = connection.prepareStatement(
+                 "INSERT INTO " + partition + " SELECT * FROM " + table.defaultPartition() +
+                 " WHERE " + table.column + " >= ? AND " + table.column + " < ?")) {
+            Amazon.bind(stmt, from, to);
+            moved = stmt.executeUpdate();
+         }
+         try (PreparedStatement stmt = connection.prepareStatement(
+                 "DELETE FROM " + table.defaultPartition() +
+                 " WHERE " + table.column + " >= ? AND " + table.column + " < ?")) {
+            Amazon.bind(stmt, from, to);
+            stmt.executeUpdate();
+         }
+         try (Statement s = connection.createStatement()) {
+            s.execute("ALTER TABLE " + table.name + " ATTACH PARTITION " + partition +
+                      " FOR VALUES FROM ('" + from + "') TO ('" + to + "')");
+         }
+         return moved;
+      });
+   }//end create
+
+   /**
+    * Detaches the partitions of months before the cutoff, then moves them
+    * to the archive schema or drops them.
+    *
+    * @param table the table
+    * @param before the first month kept
+    * @param archiveSchema schema the detached partitions are moved to, or
+    *        null to drop them
+    * @return the number of partitions archived or dropped
+    * @throws java.sql.SQLException when a partition cannot be detached
+    */
+   public int archive(final Table table, YearMonth before, final String archiveSchema) throws SQLException {
+      List<String> cold = new ArrayList<String>(partitions(table).headMap(before).values());
+      for (final String partition : cold) {
+         this.esql.executeTransaction("archive partition", conn -> {
+            try (Statement s = conn.getConnection().createStatement()) {
+               s.execute("ALTER TABLE " + table.name + " DETACH PARTITION " + partition);
+               if (archiveSchema == null) {
+                  s.execute("DROP TABLE " + partition);
+               } else {
+                  s.execute("CREATE SCHEMA IF NOT EXISTS " + archiveSchema);
+                  s.execute("ALTER TABLE " + partition + " SET SCHEMA " + archiveSchema);
+               }
+            }
+            return null;
+         });
+         System.out.printf("%s: %s %s%n", table.name,
+            archiveSchema == null ? "dropped" : "archived to " + archiveSchema + ":", partition);
+      }
+      return cold.size();
+   }//end archive
+
+   /**
+    * Prints every monthly partition with its estimated row count.
+    *
+    * @param table the table
+    * @throws java.sql.SQLException when the catalog cannot be read
+    */
+   public void list(Table table) throws SQLException {
+      System.out.println(table.name + ":");
+      this.esql.streamQuery(
+         "SELECT c.relname, c.reltuples, pg_get_expr(c.relpartbound, c.oid) " +
+         "FROM pg_inherits i JOIN pg_class c ON c.oid = i.inhrelid " +
+         "WHERE i.inhparent = CAST(? AS regclass) ORDER BY c.relname",
+         row -> System.out.printf("   %-26s %12.0f  %s%n", row.getString(1), row.getDouble(2), row.getString(3)),
+         table.name);
+   }//end list
+
+   public static void main(String[] args) {
+      if (args.length < 3) {
+         System.err.println(
+            "Usage: " +
+            "java [-classpath <classpath>] " +
+            PartitionManager.class.getName() +
+            " <dbname> <port> <user> [--ahead <months>] [--keep-months <n> [--archive-schema <name> | --drop]]" +
+            " [--list]");
+         return;
+      }
+
+      int ahead = 3, keepMonths = -1;
+      String archiveSchema = "archive";
+      boolean list = false;
+      for (int i = 3; i < args.length; ++i) {
+         if (args[i].equals("--drop"))
+            archiveSchema = null;
+         else if (args[i].equals("--list"))
+            list = true;
+         else if (i + 1 >= args.length) {
+            System.err.println("Missing value for " + args[i]);
+            return;
+         } else if (args[i].equals("--ahead"))
+            ahead = Integer.parseInt(args[++i]);
+         else if (args[i].equals("--keep-months"))
+            keepMonths = Integer.parseInt(args[++i]);
+         else if (args[i].equals("--archive-schema"))
+            archiveSchema = args[++i];
+         else {
+            System.err.println("Unknown option " + args[i]);
+            return;
+         }
+      }
+      if (archiveSchema != null && !archiveSchema.matches("[A-Za-z_][A-Za-z0-9_]*")) {
+         System.err.println("Invalid schema name " + archiveSchema);
+         return;
+      }
+
+      if (System.getProperty("amazon.pool.size") == null)
+         System.setProperty("amazon.pool.size", "1");
+
+      Amazon esql = null;
+      try {
+         Class.forName("org.postgresql.Driver");
+         esql = new Amazon(args[0], args[1], args[2], "");
+         PartitionManager manager = new PartitionManager(esql);
+         for (Table table : TABLES) {
+            manager.ensure(table, ahead);
+            if (keepMonths >= 0)
+               manager.archive(table, YearMonth.now().minusMonths(keepMonths), archiveSchema);
+            if (list)
+               manager.list(table);
+         }
+      } catch (Exception e) {
+         System.err.println(e.getMessage());
+      } finally {
+         if (esql != null)
+            esql.cleanup();
+      }
+   }//end main
+
+}//end PartitionManager
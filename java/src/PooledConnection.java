@@ -0,0 +1,92 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A physical connection leased from a ConnectionPool. Prepared statements
+ * are cached per connection (least recently used ones are closed once the
+ * cache is full). The driver turns a statement into a named server-side
+ * statement once it has run prepareThreshold times (see Amazon), so only
+ * a statement object that lives across calls is parsed and planned by
+ * the server once per connection rather than once per call; with a
+ * threshold of 0 every statement is parsed on each execution and the
+ * cache saves only the client-side preparation.
+ *
+ * Closing the lease hands the connection back to its pool.
+ */
+public class PooledConnection implements AutoCloseable {
+
+   private final ConnectionPool pool;
+   private final Connection connection;
+   private final Map<String, PreparedStatement> statements;
+
+   PooledConnection(ConnectionPool pool, Connection connection, final int cacheSize) {
+      this.pool = pool;
+      this.connection = connection;
+      this.statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+         @Override
+         protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+            if (size() <= cacheSize)
+               return false;
+            try {
+               eldest.getValue().close();
+            } catch (SQLException e) {
+               // ignored.
+            }
+            return true;
+         }
+      };
+   }//end PooledConnection
+
+   /**
+    * @return the underlying physical connection
+    */
+   public Connection getConnection() {
+      return this.connection;
+   }
+
+   /**
+    * Returns the cached prepared statement for the given SQL, preparing it
+    * on first use. The statement stays owned by the cache; callers must not
+    * close it.
+    *
+    * @param sql the SQL text with '?' placeholders
+    * @return the prepared statement
+    * @throws java.sql.SQLException when the statement cannot be prepared
+    */
+   public PreparedStatement prepare(String sql) throws SQLException {
+      PreparedStatement stmt = this.statements.get(sql);
+      if (stmt == null) {
+         stmt = this.connection.prepareStatement(sql);
+         this.statements.put(sql, stmt);
+      }
+      return stmt;
+   }//end prepare
+
+   /**
+    * Hands the connection back to its pool.
+    */
+   @Override
+   public void close() {
+      this.pool.release(this);
+   }
+
+   void closePhysical() {
+      for (PreparedStatement stmt : this.statements.values()) {
+         try {
+            stmt.close();
+         } catch (SQLException e) {
+            // ignored.
+         }
+      }
+      this.statements.clear();
+      try {
+         this.connection.close();
+      } catch (SQLException e) {
+         // ignored.
+      }
+   }//end closePhysical
+
+}//end PooledConnection
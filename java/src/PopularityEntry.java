@@ -0,0 +1,19 @@
+/**
+ * One line of a store popularity ranking: a product with the units sold,
+ * or a customer with the number of orders placed.
+ *
+ */
+public class PopularityEntry {
+
+   // customer ID, or -1 for products.
+   public final int id;
+   public final String name;
+   public final long count;
+
+   public PopularityEntry(int id, String name, long count) {
+      this.id = id;
+      this.name = name;
+      this.count = count;
+   }
+
+}//end PopularityEntry
@@ -0,0 +1,310 @@
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Per-store popularity rankings kept in memory: units sold per product and
+ * orders placed per customer. Each ranking keeps its counters in a set
+ * sorted by count, so an order moves one entry (O(log n)) and reading the
+ * top K walks K entries instead of aggregating the store's Orders.
+ *
+ * A store's counters are seeded from Orders on first use; from then on
+ * orders placed through this process are counted as they happen through
+ * orderPlaced(). A time to live (0 for none) re-seeds them periodically,
+ * which folds in orders placed by other processes.
+ *
+ * A seed reads Orders in one REPEATABLE READ snapshot, taken while no
+ * order of this process is between its commit and its orderPlaced() (see
+ * orderLock()). Orders counted while the seed runs are held back and added
+ * afterwards only if they committed after that snapshot, so no order is
+ * counted twice or missed.
+ *
+ * With a window, seeding only aggregates the orders of the last window
+ * days, so on the month-partitioned Orders table it reads the recent
+ * partitions instead of the whole history; the window needs a time to
+ * live, since counted orders never age out in between.
+ *
+ * Products are counted by their ID in Amazon.getProductKeys() and
+ * customers by user ID, so every counter is keyed by an int; names are
+ * only looked up for the entries handed out.
+ */
+public class PopularityTracker {
+
+   private static final class Counter {
+      final int key;
+      long count;
+
+      Counter(int key) {
+         this.key = key;
+      }
+   }//end Counter
+
+   // highest count first, ties by key so every counter has one place.
+   private static final Comparator<Counter> BY_COUNT = (a, b) -> {
+      int c = Long.compare(b.count, a.count);
+      return c != 0 ? c : Integer.compare(a.key, b.key);
+   };
+
+   private static final class Ranking {
+      final Map<Integer, Counter> counters = new HashMap<Integer, Counter>();
+      final TreeSet<Counter> byCount = new TreeSet<Counter>(BY_COUNT);
+
+      void add(int key, long delta) {
+         Counter c = this.counters.get(key);
+         if (c == null) {
+            c = new Counter(key);
+            this.counters.put(key, c);
+         } else {
+            // re-keyed entries must leave the sorted set before they change.
+            this.byCount.remove(c);
+         }
+         c.count += delta;
+         this.byCount.add(c);
+      }
+
+      List<Counter> top(int limit) {
+         List<Counter> top = new ArrayList<Counter>(Math.min(limit, this.byCount.size()));
+         Iterator<Counter> it = this.byCount.iterator();
+         while (top.size() < limit && it.hasNext())
+            top.add(it.next());
+         return top;
+      }
+   }//end Ranking
+
+   // both rankings of one store; guarded by the instance's lock.
+   private static final class StoreStats {
+      Ranking products = null;
+      Ranking customers = null;
+      long loadedAt = 0L;
+      // while a seed runs: orders counted after its snapshot, as
+      // { productID, customerID, units }.
+      boolean seeding = false;
+      List<int[]> pending = null;
+   }//end StoreStats
+
+   private final Amazon esql;
+   private final KeyDictionary keys;
+   private final long ttl;
+   private final int windowDays;
+   private final ConcurrentHashMap<Integer, StoreStats> stores = new ConcurrentHashMap<Integer, StoreStats>();
+
+   // read-held by order placement, write-held by a seed taking its snapshot.
+   private final ReentrantReadWriteLock fence = new ReentrantReadWriteLock();
+
+   // names of customers that made it into a ranking.
+   private final ConcurrentHashMap<Integer, String> customerNames = new ConcurrentHashMap<Integer, String>();
+
+   /**
+    * @param esql the database holding Orders
+    * @param ttl milliseconds after which a store's counters are re-seeded,
+    *        never when 0
+    * @param windowDays days of orders counted, or 0 for all of them
+    */
+   public PopularityTracker(Amazon esql, long ttl, int windowDays) {
+      this.esql = esql;
+      this.keys = esql.getProductKeys();
+      this.ttl = ttl;
+      this.windowDays = windowDays;
+   }
+
+   /**
+    * The lock order placement holds from before its statement until after
+    * orderPlaced(), so a seed never takes its snapshot between an order's
+    * commit and its count. A seed waits for it while holding a pooled
+    * connection, so it must only be taken with the order's connection
+    * already acquired.
+    *
+    * @return the lock to hold while placing an order
+    */
+   public Lock orderLock() {
+      return this.fence.readLock();
+   }
+
+   /**
+    * Counts an order placed through this process. Stores not seeded yet are
+    * skipped; their first read picks the order up from the database.
+    *
+    * @param storeID the store the order was placed at
+    * @param customerID the ordering customer
+    * @param productName the product ordered
+    * @param units the units ordered
+    */
+   public void orderPlaced(int storeID, int customerID, String productName, int units) {
+      StoreStats s = this.stores.get(storeID);
+      if (s == null)
+         return;
+      synchronized (s) {
+         int productID = this.keys.id(productName);
+         if (s.seeding)
+            s.pending.add(new int[] { productID, customerID, units });
+         else if (s.products != null)
+            count(s.products, s.customers, productID, customerID, units);
+      }
+   }//end orderPlaced
+
+   private static void count(Ranking products, Ranking customers, int productID, int customerID, int units) {
+      products.add(productID, units);
+      customers.add(customerID, 1);
+   }
+
+   /**
+    * @param storeID the store
+    * @param limit the number of products wanted
+    * @return the store's products ranked by units ordered
+    * @throws java.sql.SQLException when the counters cannot be seeded
+    */
+   public List<PopularityEntry> topProducts(int storeID, int limit) throws SQLException {
+      StoreStats s = stats(storeID);
+      List<PopularityEntry> ranking = new ArrayList<PopularityEntry>();
+      synchronized (s) {
+         for (Counter c : s.products.top(limit))
+            ranking.add(new PopularityEntry(-1, this.keys.name(c.key), c.count));
+      }
+      return ranking;
+   }//end topProducts
+
+   /**
+    * @param storeID the store
+    * @param limit the number of customers wanted
+    * @return the store's customers ranked by number of orders
+    * @throws java.sql.SQLException when the counters cannot be seeded or a
+    *         name cannot be looked up
+    */
+   public List<PopularityEntry> topCustomers(int storeID, int limit) throws SQLException {
+      StoreStats s = stats(storeID);
+      List<PopularityEntry> counted = new ArrayList<PopularityEntry>();
+      synchronized (s) {
+         for (Counter c : s.customers.top(limit))
+            counted.add(new PopularityEntry(c.key, null, c.count));
+      }
+      // names are resolved outside the lock, from the cache when possible.
+      List<PopularityEntry> ranking = new ArrayList<PopularityEntry>(counted.size());
+      for (PopularityEntry e : counted)
+         ranking.add(new PopularityEntry(e.id, customerName(e.id), e.count));
+      return ranking;
+   }//end topCustomers
+
+   /**
+    * Drops every store's counters so the next read re-seeds them.
+    */
+   public void invalidate() {
+      this.stores.clear();
+   }
+
+   private boolean expired(StoreStats s) {
+      return this.ttl > 0 && System.currentTimeMillis() - s.loadedAt > this.ttl;
+   }
+
+   // the store's counters, seeded first if they are missing or expired.
+   // One reader seeds; the others wait for a first seed, or keep reading
+   // the old counters during a re-seed.
+   private StoreStats stats(int storeID) throws SQLException {
+      StoreStats s = this.stores.computeIfAbsent(storeID, id -> new StoreStats());
+      synchronized (s) {
+         while (s.products == null && s.seeding) {
+            try {
+               s.wait();
+            } catch (InterruptedException e) {
+               Thread.currentThread().interrupt();
+               throw new SQLException("interrupted while waiting for the popularity of store " + storeID);
+            }
+         }
+         if (s.seeding || (s.products != null && !expired(s)))
+            return s;
+         s.seeding = true;
+         s.pending = new ArrayList<int[]>();
+      }
+
+      Ranking[] seeded = null;
+      try {
+         seeded = seed(storeID, s);
+      } finally {
+         synchronized (s) {
+            if (seeded != null) {
+               for (int[] order : s.pending)
+                  count(seeded[0], seeded[1], order[0], order[1], order[2]);
+               s.products = seeded[0];
+               s.customers = seeded[1];
+               s.loadedAt = System.currentTimeMillis();
+            }
+            s.pending = null;
+            s.seeding = false;
+            s.notifyAll();
+         }
+      }
+      return s;
+   }//end stats
+
+   // fresh aggregates of the store's Orders: the product and customer
+   // rankings, as of a snapshot taken behind the order fence.
+   private Ranking[] seed(final int storeID, final StoreStats s) throws SQLException {
+      final Ranking products = new Ranking();
+      final Ranking customers = new Ranking();
+      final Timestamp since = this.windowDays > 0
+         ? new Timestamp(System.currentTimeMillis() - this.windowDays * 86400000L) : null;
+      this.esql.executeTransaction("popularity seed", conn -> {
+         try (Statement stmt = conn.getConnection().createStatement()) {
+            stmt.execute("SET TRANSACTION ISOLATION LEVEL REPEATABLE READ, READ ONLY");
+            this.fence.writeLock().lock();
+            try {
+               // the first query fixes the snapshot: every order counted
+               // before it is in it, every order counted after it is not.
+               stmt.executeQuery("SELECT 1").close();
+               synchronized (s) {
+                  s.pending.clear();
+               }
+            } finally {
+               this.fence.writeLock().unlock();
+            }
+         }
+         if (since != null) {
+            aggregate(conn, "SELECT productName, SUM(unitsOrdered) FROM Orders WHERE storeID = ? AND orderTime >= ? GROUP BY productName",
+               row -> products.add(row.getKey(1, this.keys), row.getLong(2)), storeID, since);
+            aggregate(conn, "SELECT customerID, COUNT(*) FROM Orders WHERE storeID = ? AND orderTime >= ? GROUP BY customerID",
+               row -> customers.add(row.getInt(1), row.getLong(2)), storeID, since);
+         } else {
+            // served by index-only scans of the (storeID, ...) Orders indexes.
+            aggregate(conn, "SELECT productName, SUM(unitsOrdered) FROM Orders WHERE storeID = ? GROUP BY productName",
+               row -> products.add(row.getKey(1, this.keys), row.getLong(2)), storeID);
+            aggregate(conn, "SELECT customerID, COUNT(*) FROM Orders WHERE storeID = ? GROUP BY customerID",
+               row -> customers.add(row.getInt(1), row.getLong(2)), storeID);
+         }
+         return null;
+      });
+      return new Ranking[] { products, customers };
+   }//end seed
+
+   private static void aggregate(PooledConnection conn, String sql, RowHandler handler, Object... params) throws SQLException {
+      PreparedStatement stmt = conn.prepare(sql);
+      Amazon.bind(stmt, params);
+      try (ResultSet rs = stmt.executeQuery()) {
+         Row row = new Row(rs);
+         while (rs.next())
+            handler.handle(row);
+      }
+   }//end aggregate
+
+   private String customerName(int customerID) throws SQLException {
+      String name = this.customerNames.get(customerID);
+      if (name != null)
+         return name;
+      final String[] found = { "" };
+      this.esql.streamQuery("SELECT name FROM Users WHERE userID = ?",
+         row -> found[0] = row.getTrimmedString(1), customerID);
+      this.customerNames.put(customerID, found[0]);
+      return found[0];
+   }//end customerName
+
+}//end PopularityTracker
@@ -0,0 +1,286 @@
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Size-bounded cache of store catalogs (the Product rows of a store),
+ * evicting the least recently used store once full.
+ *
+ * Cached lists are immutable and replaced as a whole, so readers never
+ * see a half-applied change. Writes made through this process update the
+ * cached list in place of the database row they changed; entries older
+ * than the time to live are reloaded to pick up changes made elsewhere.
+ *
+ * Products are found by their product key ID through a per-store array,
+ * so a write or a lookup by name costs one array read instead of a scan
+ * comparing names.
+ *
+ * A catalog is loaded outside the cache lock, by the first reader that
+ * misses; readers that miss while the load is in flight wait for it
+ * instead of issuing loads of their own. A write patches a catalog only
+ * if its load had finished before the write was sent, so the load cannot
+ * hold the write; any other catalog (still loading, or loaded since) is
+ * dropped, since its snapshot may or may not hold it, however long the
+ * load waited for a connection. A dropped load is handed to its caller
+ * but not cached, so a write is never lost to an older read nor applied
+ * twice.
+ */
+public class ProductCatalogCache {
+
+   /**
+    * Changes one cached product.
+    */
+   interface Change {
+      /**
+       * @param product the cached product
+       * @return the product as it is after the write
+       */
+      ProductInfo apply(ProductInfo product);
+   }
+
+   private static final class Entry {
+      // null while the load is in flight.
+      List<ProductInfo> products = null;
+      // position + 1 in products by product ID, 0 when not carried; shared
+      // by every copy of the list, since writes never move a product.
+      int[] positions = null;
+      long loadedAt = 0L;
+      // System.nanoTime() once the load's rows were all read.
+      long readFinished = 0L;
+      boolean stale = false;
+      // the load, for readers that miss while it is in flight; completed
+      // with null if a write dropped it.
+      final CompletableFuture<List<ProductInfo>> load = new CompletableFuture<List<ProductInfo>>();
+   }//end Entry
+
+   private final Amazon esql;
+   private final KeyDictionary keys;
+   private final long ttl;
+   private final Map<Integer, Entry> entries;
+
+   private final AtomicLong hits = new AtomicLong();
+   private final AtomicLong misses = new AtomicLong();
+   private final AtomicLong evictions = new AtomicLong();
+
+   /**
+    * @param esql the database holding Product
+    * @param capacity maximum number of stores cached
+    * @param ttl milliseconds after which a cached catalog is reloaded
+    */
+   public ProductCatalogCache(Amazon esql, final int capacity, long ttl) {
+      this.esql = esql;
+      this.keys = esql.getProductKeys();
+      this.ttl = ttl;
+      this.entries = new LinkedHashMap<Integer, Entry>(16, 0.75f, true) {
+         @Override
+         protected boolean removeEldestEntry(Map.Entry<Integer, Entry> eldest) {
+            if (size() <= capacity)
+               return false;
+            evictions.incrementAndGet();
+            return true;
+         }
+      };
+   }//end ProductCatalogCache
+
+   /**
+    * @param storeID the store
+    * @return the store's products, from the cache when possible
+    * @throws java.sql.SQLException when the catalog cannot be loaded
+    */
+   public List<ProductInfo> get(final int storeID) throws SQLException {
+      while (true) {
+         Entry entry;
+         synchronized (this) {
+            entry = this.entries.get(storeID);
+            if (entry != null && entry.products != null
+                && System.currentTimeMillis() - entry.loadedAt <= this.ttl) {
+               this.hits.incrementAndGet();
+               return entry.products;
+            }
+            if (entry == null || entry.products != null) {
+               // missing or expired: this reader loads it.
+               entry = new Entry();
+               this.entries.put(storeID, entry);
+               this.misses.incrementAndGet();
+               return load(storeID, entry);
+            }
+         }
+         // another reader's load is in flight.
+         List<ProductInfo> loaded = await(entry.load);
+         if (loaded != null)
+            return loaded;
+         // a write dropped that load: look again.
+      }
+   }//end get
+
+   private static List<ProductInfo> await(CompletableFuture<List<ProductInfo>> load) throws SQLException {
+      try {
+         return load.get();
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         throw new SQLException("interrupted while waiting for a catalog");
+      } catch (ExecutionException e) {
+         if (e.getCause() instanceof SQLException)
+            throw (SQLException) e.getCause();
+         throw new SQLException(e.getCause());
+      }
+   }//end await
+
+   private List<ProductInfo> load(final int storeID, Entry entry) throws SQLException {
+      final List<ProductInfo> products = new ArrayList<ProductInfo>();
+      try {
+         this.esql.streamQuery("SELECT productName, numberOfUnits, pricePerUnit FROM Product WHERE storeID = ?",
+            row -> {
+               int productID = row.getKey(1, this.keys);
+               products.add(new ProductInfo(storeID, productID, this.keys.name(productID), row.getInt(2), row.getDouble(3)));
+            },
+            storeID);
+      } catch (SQLException | RuntimeException e) {
+         synchronized (this) {
+            if (this.entries.get(storeID) == entry)
+               this.entries.remove(storeID);
+         }
+         entry.load.completeExceptionally(e);
+         throw e;
+      }
+
+      long readFinished = System.nanoTime();
+      int maxID = -1;
+      for (ProductInfo p : products)
+         maxID = Math.max(maxID, p.productID);
+      int[] positions = new int[maxID + 1];
+      for (int i = 0; i < products.size(); ++i)
+         positions[products.get(i).productID] = i + 1;
+
+      List<ProductInfo> loaded = Collections.unmodifiableList(products);
+      boolean cached = false;
+      synchronized (this) {
+         if (!entry.stale && this.entries.get(storeID) == entry) {
+            entry.positions = positions;
+            entry.products = loaded;
+            entry.loadedAt = System.currentTimeMillis();
+            entry.readFinished = readFinished;
+            cached = true;
+         }
+      }
+      entry.load.complete(cached ? loaded : null);
+      return loaded;
+   }//end load
+
+   /**
+    * @param storeID the store
+    * @param productName the product
+    * @return the product from the store's catalog, or null if the store
+    *         does not carry it
+    * @throws java.sql.SQLException when the catalog cannot be loaded
+    */
+   public ProductInfo find(int storeID, String productName) throws SQLException {
+      List<ProductInfo> products = get(storeID);
+      // loading the catalog added its names to the dictionary.
+      int productID = this.keys.lookup(productName);
+      if (productID < 0)
+         return null;
+      synchronized (this) {
+         Entry entry = this.entries.get(storeID);
+         if (entry != null && entry.products == products) {
+            int i = positionIn(entry.positions, productID);
+            return i < 0 ? null : products.get(i);
+         }
+      }
+      // the catalog was not cached or has changed since: search the copy.
+      for (ProductInfo product : products)
+         if (product.productID == productID)
+            return product;
+      return null;
+   }//end find
+
+   private static int positionIn(int[] positions, int productID) {
+      return productID < positions.length ? positions[productID] - 1 : -1;
+   }
+
+   /**
+    * Applies a write made to one product to the cached catalog of its
+    * store. Uncached stores are left alone; a catalog still loading, or
+    * whose load had not finished when the write started, or missing the
+    * product, is dropped.
+    *
+    * @param storeID the store carrying the product
+    * @param productName the product written
+    * @param writeStarted System.nanoTime() before the write was sent
+    * @param change the write
+    */
+   public synchronized void update(int storeID, String productName, long writeStarted, Change change) {
+      Entry entry = this.entries.get(storeID);
+      if (entry == null)
+         return;
+      if (entry.products == null || entry.readFinished - writeStarted >= 0) {
+         invalidate(storeID);
+         return;
+      }
+      // a name the dictionary has never seen is in no loaded catalog.
+      int productID = this.keys.lookup(productName);
+      int i = productID < 0 ? -1 : positionIn(entry.positions, productID);
+      if (i < 0) {
+         this.entries.remove(storeID);
+         return;
+      }
+      List<ProductInfo> copy = new ArrayList<ProductInfo>(entry.products);
+      copy.set(i, change.apply(copy.get(i)));
+      entry.products = Collections.unmodifiableList(copy);
+   }//end update
+
+   /**
+    * Drops a store's cached catalog.
+    *
+    * @param storeID the store
+    */
+   public synchronized void invalidate(int storeID) {
+      Entry entry = this.entries.remove(storeID);
+      if (entry != null)
+         entry.stale = true;
+   }
+
+   /**
+    * Drops every cached catalog.
+    */
+   public synchronized void invalidateAll() {
+      for (Entry entry : this.entries.values())
+         entry.stale = true;
+      this.entries.clear();
+   }
+
+   /**
+    * @return the number of lookups served from the cache
+    */
+   public long getHits() {
+      return this.hits.get();
+   }
+
+   /**
+    * @return the number of lookups that went to the database
+    */
+   public long getMisses() {
+      return this.misses.get();
+   }
+
+   /**
+    * @return the number of catalogs evicted to make room
+    */
+   public long getEvictions() {
+      return this.evictions.get();
+   }
+
+   @Override
+   public String toString() {
+      long h = getHits(), m = getMisses();
+      return String.format("catalog cache: %d hits, %d misses (%.1f%% hit rate), %d evictions",
+         h, m, h + m == 0 ? 0.0 : 100.0 * h / (h + m), getEvictions());
+   }
+
+}//end ProductCatalogCache
@@ -0,0 +1,39 @@
+/**
+ * One row of a store's catalog: a product with its stock and price.
+ * productID is the product name's ID in Amazon.getProductKeys().
+ *
+ */
+public class ProductInfo {
+
+   public final int storeID;
+   public final int productID;
+   public final String productName;
+   public final int numberOfUnits;
+   public final double pricePerUnit;
+
+   public ProductInfo(int storeID, int productID, String productName, int numberOfUnits, double pricePerUnit) {
+      this.storeID = storeID;
+      this.productID = productID;
+      this.productName = productName;
+      this.numberOfUnits = numberOfUnits;
+      this.pricePerUnit = pricePerUnit;
+   }
+
+   /**
+    * @param numberOfUnits the new stock
+    * @return this product with the given stock
+    */
+   public ProductInfo withUnits(int numberOfUnits) {
+      return new ProductInfo(this.storeID, this.productID, this.productName, numberOfUnits, this.pricePerUnit);
+   }
+
+   /**
+    * @param numberOfUnits the new stock
+    * @param pricePerUnit the new price
+    * @return this product with the given stock and price
+    */
+   public ProductInfo withStock(int numberOfUnits, double pricePerUnit) {
+      return new ProductInfo(this.storeID, this.productID, this.productName, numberOfUnits, pricePerUnit);
+   }
+
+}//end ProductInfo
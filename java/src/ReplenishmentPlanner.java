@@ -0,0 +1,271 @@
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Automatic restocking. For every store, the products whose stock would
+ * not last the lead time at the recent sales rate get a supply request
+ * from the closest warehouse, sized to cover the coverage period.
+ *
+ * The sales rate of a product is the units ordered over the last window
+ * days, per day. A product is low when
+ *
+ *    numberOfUnits < max(minStock, rate * leadDays)
+ *
+ * and is then topped up to max(2 * minStock, rate * coverDays).
+ *
+ * Stores are split by ID range with fork/join; each leaf range reads its
+ * stock and its sales in two queries, plans, and submits its supply
+ * requests grouped by manager, one transaction per manager.
+ */
+public class ReplenishmentPlanner {
+
+   // stores planned by one fork/join leaf.
+   private static final int LEAF_STORES = 64;
+
+   private final Amazon esql;
+   private final int windowDays;
+   private final double leadDays;
+   private final double coverDays;
+   private final int minStock;
+   private final boolean dryRun;
+
+   // stores ordered by ID: coordinates and manager.
+   private int[] storeIDs;
+   private double[] storeLats;
+   private double[] storeLons;
+   private int[] managers;
+   private SpatialIndex warehouses;
+
+   private final AtomicLong lowProducts = new AtomicLong();
+   private final AtomicLong unitsRequested = new AtomicLong();
+   private final AtomicLong failedStores = new AtomicLong();
+
+   /**
+    * @param esql the database to plan for
+    * @param windowDays days of Orders the sales rate is taken over
+    * @param leadDays days of sales the stock must cover
+    * @param coverDays days of sales a supply request tops up to
+    * @param minStock stock below which a product is always low
+    * @param dryRun true to print the plan instead of submitting it
+    */
+   public ReplenishmentPlanner(Amazon esql, int windowDays, double leadDays, double coverDays, int minStock, boolean dryRun) {
+      this.esql = esql;
+      this.windowDays = Math.max(1, windowDays);
+      this.leadDays = leadDays;
+      this.coverDays = Math.max(coverDays, leadDays);
+      this.minStock = minStock;
+      this.dryRun = dryRun;
+   }//end ReplenishmentPlanner
+
+   /**
+    * Plans and, unless dry running, submits supply requests for every store.
+    *
+    * @param parallelism fork/join worker threads
+    * @throws java.sql.SQLException when the stores or warehouses cannot be read
+    */
+   public void run(int parallelism) throws SQLException {
+      long start = System.nanoTime();
+      loadStores();
+      loadWarehouses();
+      if (this.storeIDs.length == 0 || this.warehouses.size() == 0) {
+         System.out.println("Nothing to plan: no stores or no warehouses.");
+         return;
+      }
+
+      final Timestamp since = new Timestamp(System.currentTimeMillis() - this.windowDays * 86400000L);
+      ForkJoinPool pool = new ForkJoinPool(Math.max(1, parallelism));
+      try {
+         pool.invoke(new Plan(0, this.storeIDs.length, since));
+      } finally {
+         pool.shutdown();
+      }
+
+      System.out.printf("%d stores, %d low products, %d units %s, %d store ranges failed, %.2f s%n",
+         this.storeIDs.length, this.lowProducts.get(), this.unitsRequested.get(),
+         this.dryRun ? "planned" : "requested", this.failedStores.get(), (System.nanoTime() - start) / 1e9);
+   }//end run
+
+   private void loadStores() throws SQLException {
+      final List<double[]> rows = new ArrayList<double[]>();
+      this.esql.streamQuery("SELECT storeID, latitude, longitude, managerID FROM Store ORDER BY storeID", this.esql.getFetchSize(),
+         row -> rows.add(new double[] { row.getInt(1), row.getDouble(2), row.getDouble(3), row.getInt(4) }));
+      int n = rows.size();
+      this.storeIDs = new int[n];
+      this.storeLats = new double[n];
+      this.storeLons = new double[n];
+      this.managers = new int[n];
+      for (int i = 0; i < n; ++i) {
+         double[] r = rows.get(i);
+         this.storeIDs[i] = (int) r[0];
+         this.storeLats[i] = r[1];
+         this.storeLons[i] = r[2];
+         this.managers[i] = (int) r[3];
+      }
+   }//end loadStores
+
+   private void loadWarehouses() throws SQLException {
+      final List<double[]> rows = new ArrayList<double[]>();
+      this.esql.streamQuery("SELECT WarehouseID, latitude, longitude FROM Warehouse",
+         row -> rows.add(new double[] { row.getInt(1), row.getDouble(2), row.getDouble(3) }));
+      int n = rows.size();
+      int[] ids = new int[n];
+      double[] lats = new double[n], lons = new double[n];
+      for (int i = 0; i < n; ++i) {
+         ids[i] = (int) rows.get(i)[0];
+         lats[i] = rows.get(i)[1];
+         lons[i] = rows.get(i)[2];
+      }
+      this.warehouses = SpatialIndex.build(ids, lats, lons, n);
+   }//end loadWarehouses
+
+   /**
+    * Plans the stores at positions [from, to) of the store arrays.
+    */
+   private final class Plan extends RecursiveTask<Void> {
+      private static final long serialVersionUID = 1L;
+
+      private final int from;
+      private final int to;
+      private final Timestamp since;
+
+      Plan(int from, int to, Timestamp since) {
+         this.from = from;
+         this.to = to;
+         this.since = since;
+      }
+
+      @Override
+      protected Void compute() {
+         if (this.to - this.from > LEAF_STORES) {
+            int mid = (this.from + this.to) >>> 1;
+            invokeAll(new Plan(this.from, mid, this.since), new Plan(mid, this.to, this.since));
+            return null;
+         }
+         try {
+            planRange(this.from, this.to, this.since);
+         } catch (SQLException e) {
+            failedStores.addAndGet(this.to - this.from);
+            System.err.printf("Stores %d..%d: %s%n", storeIDs[this.from], storeIDs[this.to - 1], e.getMessage());
+         }
+         return null;
+      }
+   }//end Plan
+
+   private void planRange(int from, int to, Timestamp since) throws SQLException {
+      final int firstID = this.storeIDs[from], lastID = this.storeIDs[to - 1];
+
+      // units ordered per store and product over the window, keyed by
+      // storeID in the high and product ID in the low 32 bits.
+      final KeyDictionary keys = this.esql.getProductKeys();
+      final Map<Long, Long> sold = new HashMap<Long, Long>();
+      this.esql.streamQuery(
+         "SELECT storeID, productName, SUM(unitsOrdered) FROM Orders " +
+         "WHERE storeID BETWEEN ? AND ? AND orderTime >= ? GROUP BY storeID, productName", this.esql.getFetchSize(),
+         row -> sold.put(((long) row.getInt(1) << 32) | row.getKey(2, keys), row.getLong(3)),
+         firstID, lastID, since);
+
+      // supply lines per manager.
+      final Map<Integer, List<SupplyLine>> orders = new HashMap<Integer, List<SupplyLine>>();
+      final Map<Integer, Integer> nearestWarehouse = new HashMap<Integer, Integer>();
+      this.esql.streamQuery(
+         "SELECT storeID, productName, numberOfUnits FROM Product WHERE storeID BETWEEN ? AND ?", this.esql.getFetchSize(),
+         row -> {
+            int storeID = row.getInt(1);
+            int productID = row.getKey(2, keys);
+            int stock = row.getInt(3);
+            Long units = sold.get(((long) storeID << 32) | productID);
+            double rate = units == null ? 0 : units / (double) this.windowDays;
+            if (stock >= Math.max(this.minStock, rate * this.leadDays))
+               return;
+            int target = (int) Math.ceil(Math.max(2.0 * this.minStock, rate * this.coverDays));
+            if (target <= stock)
+               return;
+
+            int i = Arrays.binarySearch(this.storeIDs, storeID);
+            Integer warehouseID = nearestWarehouse.get(storeID);
+            if (warehouseID == null) {
+               warehouseID = this.warehouses.nearest(this.storeLats[i], this.storeLons[i], 1).ids[0];
+               nearestWarehouse.put(storeID, warehouseID);
+            }
+            orders.computeIfAbsent(this.managers[i], m -> new ArrayList<SupplyLine>())
+               .add(new SupplyLine(storeID, keys.name(productID), target - stock, warehouseID));
+         },
+         firstID, lastID);
+
+      for (Map.Entry<Integer, List<SupplyLine>> order : orders.entrySet()) {
+         List<SupplyLine> lines = order.getValue();
+         if (this.dryRun) {
+            for (SupplyLine line : lines)
+               System.out.printf("store %d: %d x %s from warehouse %d%n",
+                  line.storeID, line.units, line.productName, line.warehouseID);
+         } else {
+            this.esql.submitSupplyRequests(order.getKey(), lines);
+         }
+         this.lowProducts.addAndGet(lines.size());
+         for (SupplyLine line : lines)
+            this.unitsRequested.addAndGet(line.units);
+      }
+   }//end planRange
+
+   public static void main(String[] args) {
+      if (args.length < 3) {
+         System.err.println(
+            "Usage: " +
+            "java [-classpath <classpath>] " +
+            ReplenishmentPlanner.class.getName() +
+            " <dbname> <port> <user> [--window-days <n>] [--lead-days <n>] [--cover-days <n>]" +
+            " [--min-stock <n>] [--threads <n>] [--dry-run]");
+         return;
+      }
+
+      int window = 7, minStock = 10, threads = Runtime.getRuntime().availableProcessors();
+      double lead = 3, cover = 14;
+      boolean dryRun = false;
+      for (int i = 3; i < args.length; ++i) {
+         if (args[i].equals("--dry-run"))
+            dryRun = true;
+         else if (i + 1 >= args.length) {
+            System.err.println("Missing value for " + args[i]);
+            return;
+         } else if (args[i].equals("--window-days"))
+            window = Integer.parseInt(args[++i]);
+         else if (args[i].equals("--lead-days"))
+            lead = Double.parseDouble(args[++i]);
+         else if (args[i].equals("--cover-days"))
+            cover = Double.parseDouble(args[++i]);
+         else if (args[i].equals("--min-stock"))
+            minStock = Integer.parseInt(args[++i]);
+         else if (args[i].equals("--threads"))
+            threads = Integer.parseInt(args[++i]);
+         else {
+            System.err.println("Unknown option " + args[i]);
+            return;
+         }
+      }
+
+      // one connection per fork/join worker.
+      if (System.getProperty("amazon.pool.size") == null)
+         System.setProperty("amazon.pool.size", String.valueOf(Math.max(threads, 1)));
+
+      Amazon esql = null;
+      try {
+         Class.forName("org.postgresql.Driver");
+         esql = new Amazon(args[0], args[1], args[2], "");
+         new ReplenishmentPlanner(esql, window, lead, cover, minStock, dryRun).run(threads);
+      } catch (Exception e) {
+         System.err.println(e.getMessage());
+      } finally {
+         if (esql != null)
+            esql.cleanup();
+      }
+   }//end main
+
+}//end ReplenishmentPlanner
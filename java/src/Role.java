@@ -0,0 +1,41 @@
+/**
+ * The values of Users.type. Sessions carry the role instead of the padded
+ * char(10) column, so permission checks compare a constant rather than
+ * trimming and comparing strings.
+ *
+ */
+public enum Role {
+
+   CUSTOMER("customer"),
+   MANAGER("manager"),
+   ADMIN("admin");
+
+   // the value stored in Users.type.
+   private final String column;
+
+   Role(String column) {
+      this.column = column;
+   }
+
+   /**
+    * @param type a Users.type value, with or without its padding
+    * @return the role
+    * @throws IllegalArgumentException when the value is not a known role
+    */
+   public static Role of(String type) {
+      String t = type.trim();
+      for (Role r : values())
+         if (r.column.equalsIgnoreCase(t))
+            return r;
+      throw new IllegalArgumentException("unknown user type '" + t + "'");
+   }//end of
+
+   /**
+    * @return the value stored in Users.type
+    */
+   @Override
+   public String toString() {
+      return this.column;
+   }
+
+}//end Role
@@ -0,0 +1,63 @@
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+
+/**
+ * Typed, read-only view of the current row of a streamed query. A single
+ * Row is reused for every row of a result, so columns are read straight
+ * into primitives without allocating a String per cell.
+ *
+ * Columns are numbered from 1, as in JDBC.
+ */
+public final class Row {
+
+   private final ResultSet rs;
+
+   Row(ResultSet rs) {
+      this.rs = rs;
+   }
+
+   public int getInt(int column) throws SQLException {
+      return this.rs.getInt(column);
+   }
+
+   public long getLong(int column) throws SQLException {
+      return this.rs.getLong(column);
+   }
+
+   public double getDouble(int column) throws SQLException {
+      return this.rs.getDouble(column);
+   }
+
+   public String getString(int column) throws SQLException {
+      return this.rs.getString(column);
+   }
+
+   /**
+    * Reads a char(n) column without its blank padding.
+    */
+   public String getTrimmedString(int column) throws SQLException {
+      String value = this.rs.getString(column);
+      return value == null ? null : value.trim();
+   }
+
+   /**
+    * Reads a key column as its ID in the given dictionary, adding the key
+    * if it is new.
+    */
+   public int getKey(int column, KeyDictionary keys) throws SQLException {
+      return keys.id(this.rs.getString(column));
+   }
+
+   public Timestamp getTimestamp(int column) throws SQLException {
+      return this.rs.getTimestamp(column);
+   }
+
+   /**
+    * @return true if the last column read was SQL NULL
+    */
+   public boolean wasNull() throws SQLException {
+      return this.rs.wasNull();
+   }
+
+}//end Row
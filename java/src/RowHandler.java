@@ -0,0 +1,19 @@
+import java.sql.SQLException;
+
+/**
+ * Callback receiving the rows of a query streamed by Amazon.streamQuery,
+ * one at a time.
+ *
+ */
+public interface RowHandler {
+
+   /**
+    * Called once per row, in result order. The Row is only valid for the
+    * duration of the call.
+    *
+    * @param row the current row
+    * @throws java.sql.SQLException when a column cannot be read
+    */
+   void handle(Row row) throws SQLException;
+
+}//end RowHandler
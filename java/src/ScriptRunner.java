@@ -0,0 +1,323 @@
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Headless driver pushing operations through the same write paths as the
+ * interactive menus (Amazon.submitOrder, applyProductUpdate and
+ * submitSupplyRequest), either from a command script or by replaying the
+ * data/*.csv files, and reporting throughput and error counts.
+ *
+ * A command script has one comma separated command per line; '#' starts a
+ * comment line:
+ *
+ *    order,<customerID>,<storeID>,<productName>,<units>
+ *    update,<managerID>,<storeID>,<productName>,<units>,<price>
+ *    supply,<managerID>,<warehouseID>,<storeID>,<productName>,<units>
+ *    sleep,<milliseconds>
+ *
+ * A replay first applies productSupplyRequests.csv (it has no timestamps),
+ * then orders.csv and productUpdates.csv merged by time. The CSV files do
+ * not carry new stock or prices, so a replayed product update re-applies
+ * the product's current units and price.
+ *
+ * With --speed the original spacing of events (sleep commands or CSV
+ * timestamps) is kept, divided by the given factor; without it events run
+ * back to back. --pipeline keeps up to n operations in flight at once.
+ */
+public class ScriptRunner {
+
+   /**
+    * One replayed operation.
+    */
+   interface Operation {
+      /**
+       * @return true if applied, false if rejected by business rules
+       */
+      boolean run() throws SQLException;
+   }
+
+   private static final class Counters {
+      final AtomicLong applied = new AtomicLong();
+      final AtomicLong rejected = new AtomicLong();
+      final AtomicLong failed = new AtomicLong();
+   }
+
+   // only the first few failures are printed in full.
+   private static final int MAX_REPORTED_ERRORS = 10;
+
+   private final Amazon esql;
+   private final double speed;
+   private final int pipeline;
+   private final Semaphore inFlight;
+   private final ExecutorService workers;
+   private final Map<String, Counters> counters = new TreeMap<String, Counters>();
+   private final AtomicLong reportedErrors = new AtomicLong();
+
+   // pacing: event time of the first paced event and the wall time it ran at.
+   private long firstEventTime = -1;
+   private long paceStartNanos;
+   private final long startNanos;
+
+   /**
+    * @param esql the database to drive
+    * @param speed time compression factor, or 0 to run at full speed
+    * @param pipeline maximum number of operations in flight
+    */
+   public ScriptRunner(Amazon esql, double speed, int pipeline) {
+      this.esql = esql;
+      this.speed = speed;
+      this.pipeline = Math.max(1, pipeline);
+      this.inFlight = new Semaphore(this.pipeline);
+      this.workers = this.pipeline > 1 ? Executors.newFixedThreadPool(this.pipeline) : null;
+      for (String kind : new String[] { "order", "update", "supply" })
+         this.counters.put(kind, new Counters());
+      this.startNanos = System.nanoTime();
+   }//end ScriptRunner
+
+   /**
+    * Runs a command script.
+    *
+    * @param script the script file
+    * @throws java.io.IOException when the script cannot be read
+    */
+   public void runScript(File script) throws IOException, InterruptedException {
+      long clock = 0;
+      try (CsvReader reader = new CsvReader(new FileReader(script), false)) {
+         String[] f;
+         while ((f = reader.next()) != null) {
+            String command = f[0].trim();
+            if (command.isEmpty() || command.startsWith("#"))
+               continue;
+            try {
+               if (command.equals("sleep"))
+                  clock += Long.parseLong(f[1].trim());
+               else
+                  dispatch(clock, command, parse(command, f));
+            } catch (RuntimeException e) {
+               throw new IOException(script + ":" + reader.getLineNumber() + ": bad command: " + e.getMessage());
+            }
+         }
+      }
+      await();
+   }//end runScript
+
+   // builds the operation for one command line.
+   private Operation parse(String command, final String[] f) {
+      if (command.equals("order")) {
+         final int customerID = Integer.parseInt(f[1].trim());
+         final int storeID = Integer.parseInt(f[2].trim());
+         final String product = f[3].trim();
+         final int units = Integer.parseInt(f[4].trim());
+         return () -> this.esql.submitOrder(customerID, storeID, product, units).isPlaced();
+      }
+      if (command.equals("update")) {
+         final int managerID = Integer.parseInt(f[1].trim());
+         final int storeID = Integer.parseInt(f[2].trim());
+         final String product = f[3].trim();
+         final int units = Integer.parseInt(f[4].trim());
+         final double price = Double.parseDouble(f[5].trim());
+         return () -> this.esql.applyProductUpdate(managerID, storeID, product, units, price);
+      }
+      if (command.equals("supply")) {
+         final int managerID = Integer.parseInt(f[1].trim());
+         final int warehouseID = Integer.parseInt(f[2].trim());
+         final int storeID = Integer.parseInt(f[3].trim());
+         final String product = f[4].trim();
+         final int units = Integer.parseInt(f[5].trim());
+         return () -> {
+            this.esql.submitSupplyRequest(managerID, warehouseID, storeID, product, units);
+            return true;
+         };
+      }
+      throw new IllegalArgumentException("unknown command '" + command + "'");
+   }//end parse
+
+   /**
+    * Replays productSupplyRequests.csv, then orders.csv and
+    * productUpdates.csv in timestamp order.
+    *
+    * @param dataDir directory holding the CSV files
+    * @throws java.io.IOException when a file cannot be read
+    */
+   public void replay(File dataDir) throws IOException, InterruptedException {
+      try (CsvReader supply = new CsvReader(new FileReader(new File(dataDir, "productSupplyRequests.csv")), true)) {
+         String[] f;
+         while ((f = supply.next()) != null) {
+            // requestNumber,managerID,warehouseID,storeID,productName,unitsRequested
+            dispatch(-1, "supply", parse("supply", new String[] { "supply", f[1], f[2], f[3], f[4], f[5] }));
+         }
+      }
+      await();
+
+      try (CsvReader orders = new CsvReader(new FileReader(new File(dataDir, "orders.csv")), true);
+           CsvReader updates = new CsvReader(new FileReader(new File(dataDir, "productUpdates.csv")), true)) {
+         // orderNumber,customerID,storeID,productName,unitsOrdered,orderTime
+         String[] order = orders.next();
+         // updateNumber,managerID,storeID,productName,updatedOn
+         String[] update = updates.next();
+         while (order != null || update != null) {
+            long orderTime = order == null ? Long.MAX_VALUE : Timestamp.valueOf(order[5].trim()).getTime();
+            long updateTime = update == null ? Long.MAX_VALUE : Timestamp.valueOf(update[4].trim()).getTime();
+            if (orderTime <= updateTime) {
+               dispatch(orderTime, "order", parse("order", new String[] { "order", order[1], order[2], order[3], order[4] }));
+               order = orders.next();
+            } else {
+               dispatch(updateTime, "update", reapply(Integer.parseInt(update[1].trim()),
+                  Integer.parseInt(update[2].trim()), update[3].trim()));
+               update = updates.next();
+            }
+         }
+      }
+      await();
+   }//end replay
+
+   // an update that rewrites the product's current stock and price.
+   private Operation reapply(final int managerID, final int storeID, final String product) {
+      return () -> {
+         final int[] units = { -1 };
+         final double[] price = { 0 };
+         this.esql.streamQuery("SELECT numberOfUnits, pricePerUnit FROM Product WHERE storeID = ? AND productName = ?",
+            row -> {
+               units[0] = row.getInt(1);
+               price[0] = row.getDouble(2);
+            }, storeID, product);
+         return units[0] >= 0 && this.esql.applyProductUpdate(managerID, storeID, product, units[0], price[0]);
+      };
+   }//end reapply
+
+   // waits for the event's turn, then runs it inline or on a worker.
+   private void dispatch(long eventTime, final String kind, final Operation op) throws InterruptedException {
+      pace(eventTime);
+      this.inFlight.acquire();
+      if (this.workers == null) {
+         execute(kind, op);
+         return;
+      }
+      this.workers.execute(() -> execute(kind, op));
+   }//end dispatch
+
+   private void pace(long eventTime) throws InterruptedException {
+      if (this.speed <= 0 || eventTime < 0)
+         return;
+      if (this.firstEventTime < 0) {
+         this.firstEventTime = eventTime;
+         this.paceStartNanos = System.nanoTime();
+      }
+      long dueNanos = this.paceStartNanos + (long) ((eventTime - this.firstEventTime) * 1e6 / this.speed);
+      long waitNanos = dueNanos - System.nanoTime();
+      if (waitNanos > 0)
+         Thread.sleep(waitNanos / 1000000, (int) (waitNanos % 1000000));
+   }//end pace
+
+   private void execute(String kind, Operation op) {
+      Counters c = this.counters.get(kind);
+      try {
+         if (op.run())
+            c.applied.incrementAndGet();
+         else
+            c.rejected.incrementAndGet();
+      } catch (Exception e) {
+         c.failed.incrementAndGet();
+         if (this.reportedErrors.incrementAndGet() <= MAX_REPORTED_ERRORS)
+            System.err.println(kind + " failed: " + e.getMessage());
+      } finally {
+         this.inFlight.release();
+      }
+   }//end execute
+
+   // blocks until every dispatched operation has finished.
+   private void await() throws InterruptedException {
+      this.inFlight.acquire(this.pipeline);
+      this.inFlight.release(this.pipeline);
+   }
+
+   /**
+    * Prints per-command counts and the overall throughput.
+    */
+   public void report() {
+      double seconds = (System.nanoTime() - this.startNanos) / 1e9;
+      long total = 0, errors = 0;
+      System.out.println();
+      System.out.printf("%-8s %10s %10s %10s%n", "command", "applied", "rejected", "failed");
+      for (Map.Entry<String, Counters> e : this.counters.entrySet()) {
+         Counters c = e.getValue();
+         System.out.printf("%-8s %10d %10d %10d%n", e.getKey(), c.applied.get(), c.rejected.get(), c.failed.get());
+         total += c.applied.get() + c.rejected.get() + c.failed.get();
+         errors += c.failed.get();
+      }
+      System.out.printf("%d operations in %.2f s (%.1f ops/s), %d errors, pipeline %d%n",
+         total, seconds, total / seconds, errors, this.pipeline);
+   }//end report
+
+   /**
+    * Stops the worker threads.
+    */
+   public void shutdown() {
+      if (this.workers != null)
+         this.workers.shutdown();
+   }
+
+   public static void main(String[] args) {
+      if (args.length < 5) {
+         System.err.println(
+            "Usage: " +
+            "java [-classpath <classpath>] " +
+            ScriptRunner.class.getName() +
+            " <dbname> <port> <user> (--script <file> | --replay <dataDir>)" +
+            " [--speed <factor>] [--pipeline <n>]");
+         return;
+      }
+
+      File script = null, dataDir = null;
+      double speed = 0;
+      int pipeline = 1;
+      for (int i = 3; i + 1 < args.length; i += 2) {
+         if (args[i].equals("--script"))
+            script = new File(args[i + 1]);
+         else if (args[i].equals("--replay"))
+            dataDir = new File(args[i + 1]);
+         else if (args[i].equals("--speed"))
+            speed = Double.parseDouble(args[i + 1]);
+         else if (args[i].equals("--pipeline"))
+            pipeline = Integer.parseInt(args[i + 1]);
+         else {
+            System.err.println("Unknown option " + args[i]);
+            return;
+         }
+      }
+
+      // one connection per operation in flight.
+      if (System.getProperty("amazon.pool.size") == null)
+         System.setProperty("amazon.pool.size", String.valueOf(Math.max(pipeline, 1)));
+
+      Amazon esql = null;
+      ScriptRunner runner = null;
+      try {
+         Class.forName("org.postgresql.Driver");
+         esql = new Amazon(args[0], args[1], args[2], "");
+         runner = new ScriptRunner(esql, speed, pipeline);
+         if (script != null)
+            runner.runScript(script);
+         if (dataDir != null)
+            runner.replay(dataDir);
+         runner.report();
+      } catch (Exception e) {
+         System.err.println(e.getMessage());
+      } finally {
+         if (runner != null)
+            runner.shutdown();
+         if (esql != null)
+            esql.cleanup();
+      }
+   }//end main
+
+}//end ScriptRunner
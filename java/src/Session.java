@@ -0,0 +1,95 @@
+import java.sql.SQLException;
+import java.util.Arrays;
+
+/**
+ * The logged-in user: identity, role, location and, for managers, the
+ * stores they run. Built once by Amazon.logIn, so menu actions do not go
+ * back to Users or Store for data that does not change while logged in.
+ *
+ * The stores near the user are computed on first use and recomputed only
+ * when the store index they came from has been reloaded.
+ */
+public class Session {
+
+   public final int userID;
+   public final String name;
+   public final Role role;
+   public final double latitude;
+   public final double longitude;
+
+   private final Amazon esql;
+   // sorted
+   private final int[] managedStores;
+
+   private SpatialIndex nearbyFrom = null;
+   private SpatialIndex.Hits nearbyStores = null;
+
+   Session(Amazon esql, int userID, String name, Role role, double latitude, double longitude, int[] managedStores) {
+      this.esql = esql;
+      this.userID = userID;
+      this.name = name;
+      this.role = role;
+      this.latitude = latitude;
+      this.longitude = longitude;
+      this.managedStores = managedStores.clone();
+      Arrays.sort(this.managedStores);
+   }//end Session
+
+   /**
+    * @return true if the user may use the manager actions
+    */
+   public boolean isManager() {
+      return this.role == Role.MANAGER;
+   }
+
+   /**
+    * @return the IDs of the stores the user manages, in ascending order
+    */
+   public int[] getManagedStores() {
+      return this.managedStores.clone();
+   }
+
+   /**
+    * @param storeID a store
+    * @return true if the user manages the store
+    */
+   public boolean manages(int storeID) {
+      return Arrays.binarySearch(this.managedStores, storeID) >= 0;
+   }
+
+   /**
+    * @return the stores within Amazon.STORE_RADIUS of the user, nearest first
+    * @throws java.sql.SQLException when the store index cannot be loaded
+    */
+   public SpatialIndex.Hits getNearbyStores() throws SQLException {
+      // a (re)load of the index happens outside the monitor.
+      SpatialIndex index = this.esql.getStoreIndex();
+      synchronized (this) {
+         if (index != this.nearbyFrom) {
+            this.nearbyStores = index.withinRadius(this.latitude, this.longitude, Amazon.STORE_RADIUS);
+            this.nearbyFrom = index;
+         }
+         return this.nearbyStores;
+      }
+   }//end getNearbyStores
+
+   /**
+    * @param storeID a store
+    * @return the distance from the user to the store, or NaN if there is
+    *         no such store
+    * @throws java.sql.SQLException when the store cannot be read
+    */
+   public double distanceTo(int storeID) throws SQLException {
+      SpatialIndex index = this.esql.getStoreIndex();
+      if (index.contains(storeID))
+         return index.distanceTo(storeID, this.latitude, this.longitude);
+      // the store may be newer than the cached index: look up just that
+      // one rather than reloading every store for any unknown ID.
+      final double[] distance = { Double.NaN };
+      this.esql.streamQuery("SELECT latitude, longitude FROM Store WHERE storeID = ?",
+         row -> distance[0] = Amazon.calculateDistance(this.latitude, this.longitude, row.getDouble(1), row.getDouble(2)),
+         storeID);
+      return distance[0];
+   }//end distanceTo
+
+}//end Session
@@ -0,0 +1,216 @@
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * Log of statements slower than a threshold, with their bound parameters,
+ * row count and elapsed time. A sampled share of the slow SELECTs is run
+ * again under EXPLAIN (ANALYZE, BUFFERS) and the plan is written along
+ * with the entry.
+ *
+ * Entries are queued and written, and plans captured, by one background
+ * thread, so the statement that was slow does not also wait for the log.
+ * When the queue is full further entries are dropped and counted.
+ *
+ * A plan is only captured when the connection pool has a connection to
+ * spare: EXPLAIN ANALYZE re-runs a statement that was slow, so it never
+ * waits for a connection client traffic is waiting for; otherwise the
+ * entry is logged without its plan.
+ *
+ * Only plain reads are explained: EXPLAIN ANALYZE executes the statement,
+ * so anything that writes or draws from a sequence is logged without a
+ * plan. Statements mentioning a password column are logged without their
+ * parameters and never explained.
+ */
+public class SlowQueryLog {
+
+   // entries waiting for the writer thread.
+   private static final int QUEUE_SIZE = 1000;
+
+   // longest parameter value written in full.
+   private static final int MAX_PARAM = 80;
+
+   // statements that may be re-run by EXPLAIN ANALYZE.
+   private static final Pattern READ_ONLY = Pattern.compile("^\\s*(select|with)\\b.*", Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+   private static final Pattern HAS_SIDE_EFFECTS = Pattern.compile(
+      "\\b(insert|update|delete|nextval|setval|for\\s+update|for\\s+share)\\b", Pattern.CASE_INSENSITIVE);
+   private static final Pattern SECRET = Pattern.compile("password", Pattern.CASE_INSENSITIVE);
+
+   private final Amazon esql;
+   private final long thresholdMicros;
+   private final double explainRate;
+   private final long explainIntervalMillis;
+   private final PrintWriter out;
+   private final ThreadPoolExecutor writer;
+
+   // when each statement was last explained, so a statement that is slow
+   // on every call is not explained on every call.
+   private final Map<String, Long> lastExplained = new ConcurrentHashMap<String, Long>();
+
+   private final AtomicLong logged = new AtomicLong();
+   private final AtomicLong explained = new AtomicLong();
+   private final AtomicLong dropped = new AtomicLong();
+
+   /**
+    * @param esql the database explained statements are run against
+    * @param thresholdMillis statements taking at least this long are logged
+    * @param file the log file, appended to
+    * @param explainRate share of slow SELECTs to explain, between 0 and 1
+    * @param explainIntervalSeconds minimum time between two plans of the
+    *        same statement
+    * @throws java.io.IOException when the log file cannot be opened
+    */
+   public SlowQueryLog(Amazon esql, double thresholdMillis, String file, double explainRate,
+                       long explainIntervalSeconds) throws IOException {
+      this.esql = esql;
+      this.thresholdMicros = (long) (thresholdMillis * 1000);
+      this.explainRate = explainRate;
+      this.explainIntervalMillis = explainIntervalSeconds * 1000;
+      this.out = new PrintWriter(new FileWriter(file, true));
+      this.writer = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+         new ArrayBlockingQueue<Runnable>(QUEUE_SIZE), r -> {
+            Thread t = new Thread(r, "slow-query-log");
+            t.setDaemon(true);
+            return t;
+         }, (r, executor) -> this.dropped.incrementAndGet());
+   }//end SlowQueryLog
+
+   /**
+    * Logs the statement if it was slow; called for every timed statement.
+    *
+    * @param sql the statement text
+    * @param params the values bound to its placeholders
+    * @param rows rows returned or affected
+    * @param micros elapsed time in microseconds
+    * @param failed true if the statement failed
+    */
+   public void offer(final String sql, final Object[] params, final long rows, final long micros, final boolean failed) {
+      if (micros < this.thresholdMicros)
+         return;
+      final long at = System.currentTimeMillis();
+      final boolean explain = !failed && shouldExplain(sql, at);
+      this.writer.execute(() -> write(at, sql, params, rows, micros, failed, explain));
+   }//end offer
+
+   private boolean shouldExplain(String sql, long now) {
+      if (this.explainRate <= 0 || ThreadLocalRandom.current().nextDouble() >= this.explainRate)
+         return false;
+      if (!READ_ONLY.matcher(sql).matches() || HAS_SIDE_EFFECTS.matcher(sql).find() || SECRET.matcher(sql).find())
+         return false;
+      Long last = this.lastExplained.get(sql);
+      if (last != null && now - last < this.explainIntervalMillis)
+         return false;
+      this.lastExplained.put(sql, now);
+      return true;
+   }//end shouldExplain
+
+   private void write(long at, String sql, Object[] params, long rows, long micros, boolean failed, boolean explain) {
+      StringBuilder entry = new StringBuilder();
+      entry.append(String.format("%tF %<tT.%<tL %.1f ms, %d rows%s%n", at, micros / 1000.0, rows,
+         failed ? ", failed" : ""));
+      entry.append("  sql: ").append(sql.replaceAll("\\s+", " ").trim()).append('\n');
+      entry.append("  params: ").append(formatParams(sql, params)).append('\n');
+      if (explain) {
+         try {
+            String plan = explain(sql, params);
+            if (plan == null) {
+               entry.append("  plan: skipped, no free connection\n");
+            } else {
+               entry.append("  plan:\n");
+               for (String line : plan.split("\n"))
+                  entry.append("    ").append(line).append('\n');
+               this.explained.incrementAndGet();
+            }
+         } catch (SQLException e) {
+            entry.append("    EXPLAIN failed: ").append(e.getMessage()).append('\n');
+         }
+      }
+      this.out.print(entry);
+      this.out.flush();
+      this.logged.incrementAndGet();
+   }//end write
+
+   private static String formatParams(String sql, Object[] params) {
+      if (params == null || params.length == 0)
+         return "none";
+      if (SECRET.matcher(sql).find())
+         return "withheld";
+      StringBuilder s = new StringBuilder("[");
+      for (int i = 0; i < params.length; ++i) {
+         if (i > 0)
+            s.append(", ");
+         Object p = params[i];
+         String value = String.valueOf(p);
+         if (value.length() > MAX_PARAM)
+            value = value.substring(0, MAX_PARAM - 3) + "...";
+         if (p instanceof String || p instanceof java.util.Date)
+            s.append('\'').append(value).append('\'');
+         else
+            s.append(value);
+      }
+      return s.append(']').toString();
+   }//end formatParams
+
+   // runs the statement under EXPLAIN in a read-only transaction that is
+   // rolled back, on a pooled connection only if one is free (null if
+   // not), prepared outside its statement cache so the plan is not cached.
+   private String explain(String sql, Object[] params) throws SQLException {
+      PooledConnection conn = this.esql.tryAcquire();
+      if (conn == null)
+         return null;
+      try (conn) {
+         Connection connection = conn.getConnection();
+         connection.setAutoCommit(false);
+         try {
+            try (Statement s = connection.createStatement()) {
+               s.execute("SET TRANSACTION READ ONLY");
+            }
+            StringBuilder plan = new StringBuilder();
+            try (PreparedStatement stmt = connection.prepareStatement("EXPLAIN (ANALYZE, BUFFERS) " + sql)) {
+               Amazon.bind(stmt, params == null ? new Object[0] : params);
+               try (ResultSet rs = stmt.executeQuery()) {
+                  while (rs.next())
+                     plan.append(rs.getString(1)).append('\n');
+               }
+            }
+            return plan.toString();
+         } finally {
+            connection.rollback();
+            connection.setAutoCommit(true);
+         }
+      }
+   }//end explain
+
+   /**
+    * Waits for queued entries to be written and closes the file.
+    */
+   public void close() {
+      this.writer.shutdown();
+      try {
+         this.writer.awaitTermination(10, TimeUnit.SECONDS);
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+      }
+      this.out.close();
+   }//end close
+
+   @Override
+   public String toString() {
+      return String.format("slow query log: %d logged, %d explained, %d dropped",
+         this.logged.get(), this.explained.get(), this.dropped.get());
+   }
+
+}//end SlowQueryLog
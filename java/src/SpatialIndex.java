@@ -0,0 +1,321 @@
+import java.util.Arrays;
+
+/**
+ * An immutable uniform-grid index over points (stores, warehouses) keyed by
+ * an integer ID. Points are bucketed by grid cell and laid out cell by cell
+ * in primitive arrays, so radius and nearest-N queries only visit the cells
+ * around the query point instead of every point.
+ *
+ * Distances use the same euclidean metric as Amazon.calculateDistance.
+ */
+public class SpatialIndex {
+
+   // aim for this many points per grid cell on average.
+   private static final int POINTS_PER_CELL = 4;
+
+   // upper bound on the number of grid cells, whatever the spread of points.
+   private static final int MAX_CELLS = 1 << 22;
+
+   /**
+    * Result of a radius or nearest-N query: point IDs and their distances,
+    * ordered nearest first.
+    */
+   public static final class Hits {
+      public final int[] ids;
+      public final double[] distances;
+      public final int size;
+
+      Hits(int[] ids, double[] distances, int size) {
+         this.ids = ids;
+         this.distances = distances;
+         this.size = size;
+      }
+   }//end Hits
+
+   private final double minLat;
+   private final double minLon;
+   private final double cellSize;
+   private final int rows;
+   private final int cols;
+
+   // points ordered by cell; cellStart[c] .. cellStart[c + 1] are the points of cell c.
+   private final int[] cellStart;
+   private final int[] ids;
+   private final double[] lats;
+   private final double[] lons;
+
+   // ids sorted ascending, with the matching position in the arrays above.
+   private final int[] sortedIds;
+   private final int[] sortedPos;
+
+   private SpatialIndex(double minLat, double minLon, double cellSize, int rows, int cols,
+                        int[] cellStart, int[] ids, double[] lats, double[] lons,
+                        int[] sortedIds, int[] sortedPos) {
+      this.minLat = minLat;
+      this.minLon = minLon;
+      this.cellSize = cellSize;
+      this.rows = rows;
+      this.cols = cols;
+      this.cellStart = cellStart;
+      this.ids = ids;
+      this.lats = lats;
+      this.lons = lons;
+      this.sortedIds = sortedIds;
+      this.sortedPos = sortedPos;
+   }
+
+   /**
+    * Builds an index over the first n entries of the given arrays. The cell
+    * size is chosen from the point density.
+    *
+    * @param ids point IDs
+    * @param lats point latitudes
+    * @param lons point longitudes
+    * @param n number of points
+    * @return the index
+    */
+   public static SpatialIndex build(int[] ids, double[] lats, double[] lons, int n) {
+      double minLat = Double.POSITIVE_INFINITY, maxLat = Double.NEGATIVE_INFINITY;
+      double minLon = Double.POSITIVE_INFINITY, maxLon = Double.NEGATIVE_INFINITY;
+      for (int i = 0; i < n; ++i) {
+         minLat = Math.min(minLat, lats[i]);
+         maxLat = Math.max(maxLat, lats[i]);
+         minLon = Math.min(minLon, lons[i]);
+         maxLon = Math.max(maxLon, lons[i]);
+      }
+      if (n == 0) {
+         minLat = maxLat = minLon = maxLon = 0;
+      }
+
+      double spanLat = Math.max(maxLat - minLat, 1e-9);
+      double spanLon = Math.max(maxLon - minLon, 1e-9);
+      double cells = Math.min(Math.max(1, n / POINTS_PER_CELL), MAX_CELLS);
+      double cellSize = Math.sqrt(spanLat * spanLon / cells);
+      // degenerate spreads (all points on a line) fall back to the longer span.
+      cellSize = Math.max(cellSize, Math.max(spanLat, spanLon) / cells);
+      int rows = (int) (spanLat / cellSize) + 1;
+      int cols = (int) (spanLon / cellSize) + 1;
+
+      // counting sort of the points by cell.
+      int[] cellOf = new int[n];
+      int[] cellStart = new int[rows * cols + 1];
+      for (int i = 0; i < n; ++i) {
+         int r = (int) ((lats[i] - minLat) / cellSize);
+         int c = (int) ((lons[i] - minLon) / cellSize);
+         cellOf[i] = r * cols + c;
+         cellStart[cellOf[i] + 1]++;
+      }
+      for (int c = 0; c < rows * cols; ++c)
+         cellStart[c + 1] += cellStart[c];
+
+      int[] fill = Arrays.copyOf(cellStart, rows * cols);
+      int[] sIds = new int[n];
+      double[] sLats = new double[n];
+      double[] sLons = new double[n];
+      for (int i = 0; i < n; ++i) {
+         int pos = fill[cellOf[i]]++;
+         sIds[pos] = ids[i];
+         sLats[pos] = lats[i];
+         sLons[pos] = lons[i];
+      }
+
+      // id -> position lookup via a sorted key array.
+      long[] keyed = new long[n];
+      for (int pos = 0; pos < n; ++pos)
+         keyed[pos] = ((long) sIds[pos] << 32) | pos;
+      Arrays.sort(keyed);
+      int[] sortedIds = new int[n];
+      int[] sortedPos = new int[n];
+      for (int i = 0; i < n; ++i) {
+         sortedIds[i] = (int) (keyed[i] >> 32);
+         sortedPos[i] = (int) keyed[i];
+      }
+
+      return new SpatialIndex(minLat, minLon, cellSize, rows, cols, cellStart,
+                              sIds, sLats, sLons, sortedIds, sortedPos);
+   }//end build
+
+   /**
+    * @return the number of indexed points
+    */
+   public int size() {
+      return this.ids.length;
+   }
+
+   /**
+    * @param id a point ID
+    * @return true if the point is indexed
+    */
+   public boolean contains(int id) {
+      return Arrays.binarySearch(this.sortedIds, id) >= 0;
+   }
+
+   /**
+    * Distance from a point in the index to the given coordinates.
+    *
+    * @param id the point ID
+    * @return the distance, or NaN if the point is not indexed
+    */
+   public double distanceTo(int id, double lat, double lon) {
+      int i = Arrays.binarySearch(this.sortedIds, id);
+      if (i < 0)
+         return Double.NaN;
+      int pos = this.sortedPos[i];
+      return distance(this.lats[pos], this.lons[pos], lat, lon);
+   }
+
+   private static double distance(double lat1, double lon1, double lat2, double lon2) {
+      return Amazon.calculateDistance(lat1, lon1, lat2, lon2);
+   }
+
+   private int rowOf(double lat) {
+      return (int) Math.floor((lat - this.minLat) / this.cellSize);
+   }
+
+   private int colOf(double lon) {
+      return (int) Math.floor((lon - this.minLon) / this.cellSize);
+   }
+
+   /**
+    * Finds every point strictly closer than the radius.
+    *
+    * @param lat query latitude
+    * @param lon query longitude
+    * @param radius search radius
+    * @return the matching points, nearest first
+    */
+   public Hits withinRadius(double lat, double lon, double radius) {
+      int r0 = Math.max(0, rowOf(lat - radius));
+      int r1 = Math.min(this.rows - 1, rowOf(lat + radius));
+      int c0 = Math.max(0, colOf(lon - radius));
+      int c1 = Math.min(this.cols - 1, colOf(lon + radius));
+
+      int[] hitPos = new int[16];
+      double[] hitDist = new double[16];
+      int n = 0;
+      for (int r = r0; r <= r1; ++r) {
+         for (int c = c0; c <= c1; ++c) {
+            int cell = r * this.cols + c;
+            for (int pos = this.cellStart[cell]; pos < this.cellStart[cell + 1]; ++pos) {
+               double d = distance(this.lats[pos], this.lons[pos], lat, lon);
+               if (d < radius) {
+                  if (n == hitPos.length) {
+                     hitPos = Arrays.copyOf(hitPos, n * 2);
+                     hitDist = Arrays.copyOf(hitDist, n * 2);
+                  }
+                  hitPos[n] = pos;
+                  hitDist[n] = d;
+                  n++;
+               }
+            }
+         }
+      }
+      return sorted(hitPos, hitDist, n);
+   }//end withinRadius
+
+   /**
+    * Finds the k points closest to the query coordinates by searching rings
+    * of cells outward until no closer point can remain.
+    *
+    * @param lat query latitude
+    * @param lon query longitude
+    * @param k number of points wanted
+    * @return up to k points, nearest first
+    */
+   public Hits nearest(double lat, double lon, int k) {
+      k = Math.min(k, size());
+      // max-heap on distance holding the best k candidates so far.
+      int[] heapPos = new int[Math.max(k, 1)];
+      double[] heapDist = new double[Math.max(k, 1)];
+      int n = 0;
+      if (k == 0)
+         return sorted(heapPos, heapDist, 0);
+
+      // clamp the query cell so far-away queries do not walk empty rings.
+      long qrRaw = (long) Math.floor((lat - this.minLat) / this.cellSize);
+      long qcRaw = (long) Math.floor((lon - this.minLon) / this.cellSize);
+      int qr = (int) Math.max(0, Math.min(this.rows - 1, qrRaw));
+      int qc = (int) Math.max(0, Math.min(this.cols - 1, qcRaw));
+      // rings are counted from the clamped cell, so the distance bound below
+      // is measured from there plus the offset of the query to the grid.
+      double offset = distance(qr, qc, qrRaw, qcRaw) * this.cellSize;
+      int maxRing = Math.max(Math.max(qr, this.rows - 1 - qr), Math.max(qc, this.cols - 1 - qc));
+      for (int ring = 0; ring <= maxRing; ++ring) {
+         for (int r = Math.max(0, qr - ring); r <= Math.min(this.rows - 1, qr + ring); ++r) {
+            boolean edgeRow = (r == qr - ring || r == qr + ring);
+            int step = edgeRow || ring == 0 ? 1 : 2 * ring;
+            for (int c = qc - ring; c <= qc + ring; c += step) {
+               if (c < 0 || c >= this.cols)
+                  continue;
+               int cell = r * this.cols + c;
+               for (int pos = this.cellStart[cell]; pos < this.cellStart[cell + 1]; ++pos) {
+                  double d = distance(this.lats[pos], this.lons[pos], lat, lon);
+                  if (n < k) {
+                     heapPos[n] = pos;
+                     heapDist[n] = d;
+                     siftUp(heapPos, heapDist, n++);
+                  } else if (d < heapDist[0]) {
+                     heapPos[0] = pos;
+                     heapDist[0] = d;
+                     siftDown(heapPos, heapDist, n);
+                  }
+               }
+            }
+         }
+         // every point beyond this ring is at least ring * cellSize away
+         // from the clamped cell, less the offset of the query to it.
+         if (n == k && heapDist[0] <= ring * this.cellSize - offset)
+            break;
+      }
+      return sorted(heapPos, heapDist, n);
+   }//end nearest
+
+   private static void siftUp(int[] pos, double[] dist, int i) {
+      while (i > 0) {
+         int parent = (i - 1) >>> 1;
+         if (dist[parent] >= dist[i])
+            break;
+         swap(pos, dist, parent, i);
+         i = parent;
+      }
+   }
+
+   private static void siftDown(int[] pos, double[] dist, int n) {
+      int i = 0;
+      while (true) {
+         int largest = i;
+         int l = 2 * i + 1, r = l + 1;
+         if (l < n && dist[l] > dist[largest])
+            largest = l;
+         if (r < n && dist[r] > dist[largest])
+            largest = r;
+         if (largest == i)
+            return;
+         swap(pos, dist, largest, i);
+         i = largest;
+      }
+   }
+
+   private static void swap(int[] pos, double[] dist, int a, int b) {
+      int p = pos[a]; pos[a] = pos[b]; pos[b] = p;
+      double d = dist[a]; dist[a] = dist[b]; dist[b] = d;
+   }
+
+   // orders hits nearest first and maps grid positions back to IDs.
+   private Hits sorted(int[] pos, double[] dist, int n) {
+      Integer[] idx = new Integer[n];
+      for (int i = 0; i < n; ++i)
+         idx[i] = i;
+      final double[] d = dist;
+      Arrays.sort(idx, (a, b) -> Double.compare(d[a], d[b]));
+
+      int[] outIds = new int[n];
+      double[] outDist = new double[n];
+      for (int i = 0; i < n; ++i) {
+         outIds[i] = this.ids[pos[idx[i]]];
+         outDist[i] = dist[idx[i]];
+      }
+      return new Hits(outIds, outDist, n);
+   }//end sorted
+
+}//end SpatialIndex
@@ -0,0 +1,20 @@
+/**
+ * One line of a supply order: units of a product a warehouse sends to a
+ * store.
+ *
+ */
+public class SupplyLine {
+
+   public final int storeID;
+   public final String productName;
+   public final int units;
+   public final int warehouseID;
+
+   public SupplyLine(int storeID, String productName, int units, int warehouseID) {
+      this.storeID = storeID;
+      this.productName = productName;
+      this.units = units;
+      this.warehouseID = warehouseID;
+   }
+
+}//end SupplyLine
@@ -0,0 +1,19 @@
+import java.sql.SQLException;
+
+/**
+ * Statements run by Amazon.executeTransaction on one connection, inside a
+ * single transaction.
+ *
+ * @param <T> the result of the work
+ */
+public interface TransactionWork<T> {
+
+   /**
+    * @param conn the connection the transaction is open on
+    * @return the result handed back by executeTransaction
+    * @throws java.sql.SQLException when a statement fails; the transaction
+    *         is rolled back
+    */
+   T run(PooledConnection conn) throws SQLException;
+
+}//end TransactionWork
@@ -0,0 +1,21 @@
+import java.sql.Timestamp;
+
+/**
+ * One entry of the product update log, as shown to managers.
+ *
+ */
+public class UpdateInfo {
+
+   public final int updateNumber;
+   public final int storeID;
+   public final String productName;
+   public final Timestamp updatedOn;
+
+   public UpdateInfo(int updateNumber, int storeID, String productName, Timestamp updatedOn) {
+      this.updateNumber = updateNumber;
+      this.storeID = storeID;
+      this.productName = productName;
+      this.updatedOn = updatedOn;
+   }
+
+}//end UpdateInfo
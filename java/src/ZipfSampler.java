@@ -0,0 +1,91 @@
+import java.util.SplittableRandom;
+
+/**
+ * Draws ranks 1..n with probability proportional to 1 / rank^exponent,
+ * by rejection-inversion (W. Hormann and G. Derflinger, "Rejection-inversion
+ * to generate variates from monotone discrete distributions", 1996).
+ *
+ * A draw takes a few arithmetic operations and usually no rejection, and
+ * nothing is tabulated, so n can be as large as the number of customers
+ * of the biggest dataset.
+ */
+public class ZipfSampler {
+
+   private final int n;
+   private final double exponent;
+   private final double hIntegralX1;
+   private final double hIntegralN;
+   private final double s;
+
+   /**
+    * @param n number of ranks, at least 1
+    * @param exponent skew; 0 is uniform, 1 the classic Zipf law
+    */
+   public ZipfSampler(int n, double exponent) {
+      if (n < 1 || exponent < 0)
+         throw new IllegalArgumentException("need n >= 1 and exponent >= 0");
+      this.n = n;
+      this.exponent = exponent;
+      this.hIntegralX1 = hIntegral(1.5) - 1.0;
+      this.hIntegralN = hIntegral(n + 0.5);
+      this.s = 2.0 - hIntegralInverse(hIntegral(2.5) - h(2));
+   }//end ZipfSampler
+
+   /**
+    * @param random the random source
+    * @return a rank between 1 and n
+    */
+   public int sample(SplittableRandom random) {
+      while (true) {
+         double u = this.hIntegralN + random.nextDouble() * (this.hIntegralX1 - this.hIntegralN);
+         double x = hIntegralInverse(u);
+         int k = (int) (x + 0.5);
+         if (k < 1)
+            k = 1;
+         else if (k > this.n)
+            k = this.n;
+         // the first test accepts most draws without evaluating h.
+         if (k - x <= this.s || u >= hIntegral(k + 0.5) - h(k))
+            return k;
+      }
+   }//end sample
+
+   /**
+    * @return the number of ranks
+    */
+   public int size() {
+      return this.n;
+   }
+
+   // H(x), an integral of h, and its inverse.
+   private double hIntegral(double x) {
+      double logX = Math.log(x);
+      return helper2((1.0 - this.exponent) * logX) * logX;
+   }
+
+   private double h(double x) {
+      return Math.exp(-this.exponent * Math.log(x));
+   }
+
+   private double hIntegralInverse(double x) {
+      double t = x * (1.0 - this.exponent);
+      if (t < -1.0)
+         t = -1.0;
+      return Math.exp(helper1(t) * x);
+   }
+
+   // log(1 + x) / x, accurate near 0.
+   private static double helper1(double x) {
+      if (Math.abs(x) > 1e-8)
+         return Math.log1p(x) / x;
+      return 1.0 - x * (0.5 - x * (1.0 / 3.0 - 0.25 * x));
+   }
+
+   // (exp(x) - 1) / x, accurate near 0.
+   private static double helper2(double x) {
+      if (Math.abs(x) > 1e-8)
+         return Math.expm1(x) / x;
+      return 1.0 + x * 0.5 * (1.0 + x / 3.0 * (1.0 + 0.25 * x));
+   }
+
+}//end ZipfSampler
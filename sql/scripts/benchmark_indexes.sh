@@ -0,0 +1,39 @@
+#!/bin/bash
+# Loads a scaled synthetic dataset and records EXPLAIN ANALYZE timings of the
+# client's menu queries without and with the indexes of create_indexes.sql.
+#
+# Usage: benchmark_indexes.sh [scale]   (default scale 1000, i.e. 500k orders)
+# Plans are written to sql/bench/<scale>/; a timing summary is printed.
+# WARNING: recreates all tables of the project database.
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+SCALE=${1:-1000}
+DB=$USER"_project_phase_3_DB"
+OUT=$DIR/../bench/$SCALE
+mkdir -p $OUT
+
+run() {
+   ${PSQL:-cs166_psql} -p $PGPORT -X -q -v ON_ERROR_STOP=1 "$@" $DB
+}
+
+run < $DIR/../src/create_tables.sql || exit 1
+run -v scale=$SCALE < $DIR/../src/scale_data.sql > /dev/null || exit 1
+# move the generated history into monthly partitions.
+$DIR/../../java/scripts/partitions.sh > /dev/null || exit 1
+
+run < $DIR/../src/drop_indexes.sql
+run -c "VACUUM ANALYZE"
+run < $DIR/../src/benchmark_queries.sql > $OUT/without_indexes.txt || exit 1
+
+run < $DIR/../src/create_indexes.sql || exit 1
+run -c "VACUUM ANALYZE"
+run < $DIR/../src/benchmark_queries.sql > $OUT/with_indexes.txt || exit 1
+
+# one line per query: execution time without and with indexes, summed
+# over the statements of queries that take several.
+summarize() {
+   awk '/^== /{q=$2} /Execution Time/{t[q]+=$(NF-1)} END{for (q in t) print q, t[q]}' $1
+}
+echo "scale $SCALE (ms)"
+printf "%-28s %12s %12s\n" query without with
+join <(summarize $OUT/without_indexes.txt | sort) <(summarize $OUT/with_indexes.txt | sort) |
+   awk '{printf "%-28s %12s %12s\n", $1, $2, $3}'
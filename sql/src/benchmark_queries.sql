@@ -0,0 +1,96 @@
+-- EXPLAIN ANALYZE of every query java/src/Amazon.java issues for the menus,
+-- as it issues them, with parameters picked from the loaded data (the
+-- heaviest customer, store and manager). Each plan is preceded by a
+-- '== <name>' marker line; statements that write run inside a transaction
+-- that is rolled back.
+
+SELECT customerID AS cust FROM Orders GROUP BY customerID ORDER BY count(*) DESC LIMIT 1 \gset
+SELECT storeID AS store FROM Orders GROUP BY storeID ORDER BY count(*) DESC LIMIT 1 \gset
+SELECT managerID AS manager FROM Store GROUP BY managerID ORDER BY count(*) DESC LIMIT 1 \gset
+SELECT trim(name) AS uname, trim(password) AS upass FROM Users WHERE userID = :cust \gset
+SELECT productName AS prod FROM Product WHERE storeID = :store ORDER BY numberOfUnits DESC LIMIT 1 \gset
+SELECT WarehouseID AS warehouse FROM Warehouse LIMIT 1 \gset
+-- the start of the recent window, amazon.recent.window.days (31) back.
+SELECT now() - interval '31 days' AS since \gset
+
+\echo == LogIn
+EXPLAIN (ANALYZE, BUFFERS) SELECT u.userID, u.name, u.type, u.latitude, u.longitude, s.storeID FROM Users u LEFT JOIN Store s ON s.managerID = u.userID WHERE u.name = :'uname' AND u.password = :'upass' ORDER BY u.userID;
+
+-- viewStores is answered from the in-memory store index; this loads it,
+-- once per amazon.storeindex.ttl.ms.
+\echo == storeIndex
+EXPLAIN (ANALYZE, BUFFERS) SELECT storeID, latitude, longitude FROM Store;
+
+-- the distance to a store missing from the index.
+\echo == storeLookup
+EXPLAIN (ANALYZE, BUFFERS) SELECT latitude, longitude FROM Store WHERE storeID = :store;
+
+-- a catalog cache miss.
+\echo == viewProducts
+EXPLAIN (ANALYZE, BUFFERS) SELECT productName, numberOfUnits, pricePerUnit FROM Product WHERE storeID = :store;
+
+-- one block of keys for new Orders rows (amazon.id.block).
+\echo == reserveIds
+EXPLAIN (ANALYZE, BUFFERS) SELECT nextval(CAST('orders_ordernumber_seq' AS regclass)) FROM generate_series(1, 50);
+
+SELECT CAST(nextval('orders_ordernumber_seq') AS integer) AS onum \gset
+\echo == placeOrder
+BEGIN;
+EXPLAIN (ANALYZE, BUFFERS) WITH stock AS (UPDATE Product SET numberOfUnits = numberOfUnits - CAST(1 AS integer) WHERE storeID = :store AND productName = :'prod' AND numberOfUnits >= CAST(1 AS integer) RETURNING storeID, productName) INSERT INTO Orders (orderNumber, customerID, storeID, productName, unitsOrdered, orderTime) SELECT CAST(:onum AS integer), CAST(:cust AS integer), storeID, productName, CAST(1 AS integer), CAST(now() AS timestamp) FROM stock RETURNING orderNumber;
+ROLLBACK;
+
+-- a rejected order reads the stock left.
+\echo == placeOrderStock
+EXPLAIN (ANALYZE, BUFFERS) SELECT numberOfUnits FROM Product WHERE storeID = :store AND productName = :'prod';
+
+\echo == viewRecentOrders
+EXPLAIN (ANALYZE, BUFFERS) SELECT orderNumber, storeID, productName, unitsOrdered, orderTime FROM Orders WHERE customerID = :cust AND orderTime >= :'since' ORDER BY orderTime DESC, orderNumber DESC LIMIT 5;
+
+-- fewer than 5 orders in the window: the whole history.
+\echo == viewRecentOrdersAll
+EXPLAIN (ANALYZE, BUFFERS) SELECT orderNumber, storeID, productName, unitsOrdered, orderTime FROM Orders WHERE customerID = :cust ORDER BY orderTime DESC, orderNumber DESC LIMIT 5;
+
+\echo == viewOrderHistory (a page from the middle of the history)
+SELECT orderTime AS htime, orderNumber AS hnum FROM Orders WHERE customerID = :cust ORDER BY orderTime, orderNumber LIMIT 1 OFFSET (SELECT count(*) / 2 FROM Orders WHERE customerID = :cust) \gset
+EXPLAIN (ANALYZE, BUFFERS) SELECT orderNumber, storeID, productName, unitsOrdered, orderTime FROM Orders WHERE customerID = :cust AND orderTime <= :'htime' AND (orderTime, orderNumber) < (:'htime', :hnum) ORDER BY orderTime DESC, orderNumber DESC LIMIT 11;
+
+SELECT CAST(nextval('productupdates_updatenumber_seq') AS integer) AS unum \gset
+\echo == updateProduct
+BEGIN;
+EXPLAIN (ANALYZE, BUFFERS) UPDATE Product SET numberOfUnits = 100, pricePerUnit = 9.99 WHERE storeID = :store AND productName = :'prod';
+EXPLAIN (ANALYZE, BUFFERS) INSERT INTO ProductUpdates (updateNumber, managerID, storeID, productName, updatedOn) VALUES (:unum, :manager, :store, :'prod', now());
+ROLLBACK;
+
+\echo == viewRecentUpdates
+EXPLAIN (ANALYZE, BUFFERS) SELECT u.updateNumber, u.storeID, u.productName, u.updatedOn FROM Store s CROSS JOIN LATERAL (SELECT p.updateNumber, p.storeID, p.productName, p.updatedOn FROM ProductUpdates p WHERE p.storeID = s.storeID AND p.updatedOn >= :'since' ORDER BY p.updatedOn DESC, p.updateNumber DESC LIMIT 5) u WHERE s.managerID = :manager ORDER BY u.updatedOn DESC, u.updateNumber DESC LIMIT 5;
+
+-- fewer than 5 updates in the window: the whole log.
+\echo == viewRecentUpdatesAll
+EXPLAIN (ANALYZE, BUFFERS) SELECT u.updateNumber, u.storeID, u.productName, u.updatedOn FROM Store s CROSS JOIN LATERAL (SELECT p.updateNumber, p.storeID, p.productName, p.updatedOn FROM ProductUpdates p WHERE p.storeID = s.storeID ORDER BY p.updatedOn DESC, p.updateNumber DESC LIMIT 5) u WHERE s.managerID = :manager ORDER BY u.updatedOn DESC, u.updateNumber DESC LIMIT 5;
+
+-- viewPopularProducts and viewPopularCustomers read in-memory rankings;
+-- these seed a store's rankings, once per process unless
+-- amazon.popularity.ttl.ms is set.
+\echo == popularProductsSeed
+EXPLAIN (ANALYZE, BUFFERS) SELECT productName, SUM(unitsOrdered) FROM Orders WHERE storeID = :store GROUP BY productName;
+
+\echo == popularCustomersSeed
+EXPLAIN (ANALYZE, BUFFERS) SELECT customerID, COUNT(*) FROM Orders WHERE storeID = :store GROUP BY customerID;
+
+-- the same with amazon.popularity.window.days, here 31.
+\echo == popularProductsSeedWindow
+EXPLAIN (ANALYZE, BUFFERS) SELECT productName, SUM(unitsOrdered) FROM Orders WHERE storeID = :store AND orderTime >= :'since' GROUP BY productName;
+
+\echo == popularCustomersSeedWindow
+EXPLAIN (ANALYZE, BUFFERS) SELECT customerID, COUNT(*) FROM Orders WHERE storeID = :store AND orderTime >= :'since' GROUP BY customerID;
+
+-- a customer name for the ranking, looked up once per customer.
+\echo == popularCustomerName
+EXPLAIN (ANALYZE, BUFFERS) SELECT name FROM Users WHERE userID = :cust;
+
+SELECT CAST(nextval('productsupplyrequests_requestnumber_seq') AS integer) AS rnum \gset
+\echo == placeProductSupplyRequests
+BEGIN;
+EXPLAIN (ANALYZE, BUFFERS) INSERT INTO ProductSupplyRequests (requestNumber, managerID, warehouseID, storeID, productName, unitsRequested) VALUES (:rnum, :manager, :warehouse, :store, :'prod', 10);
+EXPLAIN (ANALYZE, BUFFERS) UPDATE Product SET numberOfUnits = numberOfUnits + 10 WHERE storeID = :store AND productName = :'prod';
+ROLLBACK;
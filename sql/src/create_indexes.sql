@@ -0,0 +1,28 @@
+-- Indexes for the access paths of the Java client (java/src/Amazon.java).
+-- Primary keys already cover Product lookups by (storeID, productName) and
+-- by storeID alone. Keep drop_indexes.sql in sync with this file.
+-- Indexes on the partitioned Orders and ProductUpdates tables are created on
+-- every partition, including those PartitionManager attaches later.
+
+-- LogIn: WHERE name = ? AND password = ?
+CREATE INDEX users_name_password_idx ON Users (name, password);
+
+-- viewRecentOrders and viewOrderHistory: WHERE customerID = ?
+-- [AND (orderTime, orderNumber) < (?, ?)] ORDER BY orderTime DESC, orderNumber DESC LIMIT n,
+-- read backwards from the cursor position. Carries the selected columns so
+-- every page comes from an index-only scan.
+CREATE INDEX orders_customer_time_idx ON Orders (customerID, orderTime, orderNumber, storeID, productName, unitsOrdered);
+
+-- viewPopularProducts: WHERE storeID = ? GROUP BY productName, SUM(unitsOrdered).
+-- Also serves the Orders -> Product foreign key.
+CREATE INDEX orders_store_product_idx ON Orders (storeID, productName, unitsOrdered);
+
+-- viewPopularCustomers: WHERE storeID = ? GROUP BY customerID, COUNT(*)
+CREATE INDEX orders_store_customer_idx ON Orders (storeID, customerID);
+
+-- viewRecentUpdates: per managed store, WHERE storeID = ?
+-- ORDER BY updatedOn DESC, updateNumber DESC LIMIT k, read backwards.
+CREATE INDEX productupdates_store_time_idx ON ProductUpdates (storeID, updatedOn, updateNumber, productName);
+
+-- manager menus: Store WHERE managerID = ?
+CREATE INDEX store_manager_idx ON Store (managerID, storeID);
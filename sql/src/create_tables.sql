@@ -48,10 +48,13 @@ CREATE TABLE Orders (
                      productName char(30) NOT NULL, 
                      unitsOrdered integer NOT NULL, 
                      orderTime timestamp NOT NULL,
-                     PRIMARY KEY(orderNumber),
+                     PRIMARY KEY(orderNumber, orderTime),
                      FOREIGN KEY(customerID) REFERENCES Users(userID),
                      FOREIGN KEY(storeID, productName) REFERENCES Product(storeID, productName)
-);
+) PARTITION BY RANGE (orderTime);
+-- monthly partitions orders_pYYYY_MM are created by java/src/PartitionManager.java;
+-- rows of months without one wait here until it moves them.
+CREATE TABLE Orders_default PARTITION OF Orders DEFAULT;
 
 CREATE TABLE ProductSupplyRequests (  
 							   requestNumber serial NOT NULL,
@@ -72,7 +75,8 @@ CREATE TABLE ProductUpdates (
                         	storeID integer NOT NULL,
                        		productName char(30) NOT NULL, 
                             updatedOn timestamp NOT NULL,
-                        	PRIMARY KEY(updateNumber),
+                        	PRIMARY KEY(updateNumber, updatedOn),
                         	FOREIGN KEY(managerID) REFERENCES Users(userID),
                         	FOREIGN KEY(storeID, productName) REFERENCES Product(storeID, productName)
-);
+) PARTITION BY RANGE (updatedOn);
+CREATE TABLE ProductUpdates_default PARTITION OF ProductUpdates DEFAULT;
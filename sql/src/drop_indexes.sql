@@ -0,0 +1,7 @@
+-- Drops every index created by create_indexes.sql.
+DROP INDEX IF EXISTS users_name_password_idx;
+DROP INDEX IF EXISTS orders_customer_time_idx;
+DROP INDEX IF EXISTS orders_store_product_idx;
+DROP INDEX IF EXISTS orders_store_customer_idx;
+DROP INDEX IF EXISTS productupdates_store_time_idx;
+DROP INDEX IF EXISTS store_manager_idx;
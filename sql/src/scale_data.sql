@@ -0,0 +1,57 @@
+-- Fills freshly created tables with a synthetic dataset shaped like data/*.csv,
+-- multiplied by the psql variable :scale (scale 1 matches the shipped row
+-- counts: 100 users, 20 stores, 200 products, 5 warehouses, 500 orders).
+-- The random generator is seeded, so a given scale always yields the same data.
+--
+-- Usage: psql -v scale=1000 -f scale_data.sql <db>
+
+SELECT setseed(0.166);
+
+-- user 1 is the admin, every 17th user a manager, the rest customers.
+INSERT INTO Users (userID, name, password, latitude, longitude, type)
+SELECT u, 'User' || u, 'xyz', random() * 100, random() * 100,
+       CASE WHEN u = 1 THEN 'admin' WHEN u % 17 = 0 THEN 'manager' ELSE 'customer' END
+FROM generate_series(1, 100 * :scale) AS u;
+
+INSERT INTO Store (storeID, latitude, longitude, managerID, dateEstablished)
+SELECT s, random() * 100, random() * 100,
+       17 * (1 + (s - 1) % ((100 * :scale) / 17)),
+       DATE '1950-01-01' + (random() * 25000)::int
+FROM generate_series(1, 20 * :scale) AS s;
+
+INSERT INTO Product (storeID, productName, numberOfUnits, pricePerUnit)
+SELECT s, p, (random() * 100)::int, 1 + (random() * 10)::int
+FROM generate_series(1, 20 * :scale) AS s,
+     unnest(ARRAY['7up', 'Brisk', 'Donuts', 'Egg', 'Hot and Sour Soup', 'Ice Cream',
+                  'Lemonade', 'Orange Juice', 'Pepsi', 'Pudding']) AS p;
+
+INSERT INTO Warehouse (WarehouseID, area, latitude, longitude)
+SELECT w, 10000 + (random() * 20000)::int, random() * 100, random() * 100
+FROM generate_series(1, 5) AS w;
+
+-- customers are skewed towards low IDs so a few heavy buyers stand out.
+INSERT INTO Orders (orderNumber, customerID, storeID, productName, unitsOrdered, orderTime)
+SELECT o,
+       CASE WHEN c % 17 = 0 OR c = 1 THEN c + 1 ELSE c END,
+       1 + (random() * (20 * :scale - 1))::int,
+       (ARRAY['7up', 'Brisk', 'Donuts', 'Egg', 'Hot and Sour Soup', 'Ice Cream',
+              'Lemonade', 'Orange Juice', 'Pepsi', 'Pudding'])[1 + (random() * 9)::int],
+       1 + (random() * 20)::int,
+       TIMESTAMP '2016-09-10 13:01:00' + o * INTERVAL '1 minute'
+FROM (SELECT o, 1 + (power(random(), 3) * (100 * :scale - 2))::int AS c
+      FROM generate_series(1, 500 * :scale) AS o) AS g;
+
+INSERT INTO ProductSupplyRequests (requestNumber, managerID, warehouseID, storeID, productName, unitsRequested)
+SELECT r, s.managerID, 1 + (random() * 4)::int, s.storeID, 'Pepsi', 1 + (random() * 100)::int
+FROM generate_series(1, 10 * :scale) AS r
+JOIN Store s ON s.storeID = 1 + (r - 1) % (20 * :scale);
+
+INSERT INTO ProductUpdates (updateNumber, managerID, storeID, productName, updatedOn)
+SELECT u, s.managerID, s.storeID, 'Lemonade', TIMESTAMP '2016-09-10 13:01:00' + u * INTERVAL '1 hour'
+FROM generate_series(1, 50 * :scale) AS u
+JOIN Store s ON s.storeID = 1 + (u * 7) % (20 * :scale);
+
+SELECT setval('users_userid_seq', (SELECT max(userID) FROM Users));
+SELECT setval('orders_ordernumber_seq', (SELECT max(orderNumber) FROM Orders));
+SELECT setval('productsupplyrequests_requestnumber_seq', (SELECT max(requestNumber) FROM ProductSupplyRequests));
+SELECT setval('productupdates_updatenumber_seq', (SELECT max(updateNumber) FROM ProductUpdates));